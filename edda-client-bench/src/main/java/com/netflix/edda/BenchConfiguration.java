@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import org.joda.time.Duration;
+
+import com.netflix.iep.config.DefaultValue;
+
+/**
+ * Configuration for the benchmarks. Settings come from the overrides map if present and
+ * otherwise from the {@link DefaultValue} annotation, so the benchmarks do not depend on
+ * archaius or any property files.
+ */
+final class BenchConfiguration {
+  private BenchConfiguration() {}
+
+  static AwsConfiguration create(final Map<String, String> overrides) {
+    return (AwsConfiguration) Proxy.newProxyInstance(
+      AwsConfiguration.class.getClassLoader(),
+      new Class<?>[] {AwsConfiguration.class},
+      (proxy, method, args) -> {
+        if (method.getDeclaringClass() == Object.class)
+          return objectMethod(proxy, method, args);
+        String value = overrides.get(method.getName());
+        if (value == null) {
+          DefaultValue dflt = method.getAnnotation(DefaultValue.class);
+          if (dflt == null)
+            throw new UnsupportedOperationException("AwsConfiguration." + method.getName());
+          value = dflt.value();
+        }
+        return convert(method.getReturnType(), value);
+      });
+  }
+
+  private static Object objectMethod(Object proxy, Method method, Object[] args) {
+    switch (method.getName()) {
+      case "equals":   return proxy == args[0];
+      case "hashCode": return System.identityHashCode(proxy);
+      default:         return "BenchConfiguration";
+    }
+  }
+
+  private static Object convert(Class<?> type, String value) {
+    if (type == String.class) return value;
+    if (type == boolean.class) return Boolean.valueOf(value);
+    if (type == int.class) return Integer.valueOf(value);
+    if (type == long.class) return Long.valueOf(value);
+    if (type == Duration.class) return Duration.parse(value);
+    throw new IllegalArgumentException("unsupported type " + type.getName() + " for " + value);
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to decode a complete edda response into the AWS model objects. Run with the gc
+ * profiler to see the allocation rate:
+ *
+ * <pre>
+ * sbt "edda-client-bench/jmh:run -prof gc .*DecodeBenchmark.*"
+ * </pre>
+ *
+ * The largest payloads are a few hundred megabytes so the heap for the forked JVM is raised.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class DecodeBenchmark {
+
+  @Param({"1000", "10000", "50000", "200000"})
+  public int size;
+
+  @Param({
+    EddaPayloads.INSTANCES,
+    EddaPayloads.IMAGES,
+    EddaPayloads.AUTO_SCALING_GROUPS,
+    EddaPayloads.SECURITY_GROUPS
+  })
+  public String collection;
+
+  private byte[] payload;
+  private TypeReference<? extends List<?>> ref;
+  private EddaEc2Client client;
+
+  @Setup
+  public void setup() {
+    payload = EddaPayloads.generate(collection, size);
+    ref = EddaPayloads.type(collection);
+    AwsConfiguration config = BenchConfiguration.create(Collections.<String, String>emptyMap());
+    client = new EddaEc2Client(config, "edda-main:7001", "us-east-1");
+  }
+
+  /** Decode using the same path as the clients, including the stream handling. */
+  @Benchmark
+  public List<?> clientParse() throws IOException {
+    return client.parse(ref, new ByteArrayInputStream(payload));
+  }
+
+  /** Decode with the cached reader for the type. */
+  @Benchmark
+  public List<?> cachedReader() throws IOException {
+    return JsonHelper.reader(ref).readValue(payload);
+  }
+
+  /** Decode with a new parser that resolves the type on each call. */
+  @Benchmark
+  public List<?> jsonHelper() throws IOException {
+    try (JsonParser parser = JsonHelper.createParser(new ByteArrayInputStream(payload))) {
+      return parser.readValueAs(ref);
+    }
+  }
+}
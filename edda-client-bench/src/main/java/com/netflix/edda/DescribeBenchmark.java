@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsRequest;
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsResult;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.DescribeImagesResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.DescribeSecurityGroupsRequest;
+import com.amazonaws.services.ec2.model.DescribeSecurityGroupsResult;
+import com.amazonaws.services.ec2.model.Filter;
+
+import com.netflix.archaius.config.EmptyConfig;
+import com.netflix.edda.util.IndexedList;
+import com.netflix.iep.http.RxHttp;
+import com.netflix.spectator.api.DefaultRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the describe calls when the collection is already in the memory cache. The cache is
+ * filled with decoded synthetic payloads during setup so the measurement covers only the id
+ * lookups, filters, pagination and result construction done by the clients.
+ *
+ * <pre>
+ * sbt "edda-client-bench/jmh:run -prof gc .*DescribeBenchmark.*"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class DescribeBenchmark {
+
+  private static final String URL = "http://localhost:7001";
+  private static final String[] COLLECTIONS = {
+    EddaPayloads.INSTANCES,
+    EddaPayloads.IMAGES,
+    EddaPayloads.AUTO_SCALING_GROUPS,
+    EddaPayloads.SECURITY_GROUPS
+  };
+
+  @Param({"1000", "10000", "50000", "200000"})
+  public int size;
+
+  private EddaEc2Client ec2;
+  private EddaAutoScalingClient autoScaling;
+
+  private DescribeInstancesRequest instancesById;
+  private DescribeInstancesRequest instancesFiltered;
+  private DescribeInstancesRequest instancesPage;
+  private DescribeImagesRequest imagesById;
+  private DescribeImagesRequest imagesFiltered;
+  private DescribeAutoScalingGroupsRequest groupsByName;
+  private DescribeSecurityGroupsRequest securityGroupsById;
+  private DescribeSecurityGroupsRequest securityGroupsFiltered;
+
+  @Setup
+  public void setup() throws IOException {
+    Map<String, String> settings = new HashMap<String, String>();
+    settings.put("url", URL);
+    settings.put("cacheTtl", "PT24H");
+    settings.put("cacheMaxBytes", "" + Long.MAX_VALUE);
+    AwsConfiguration config = BenchConfiguration.create(settings);
+
+    new EddaContext(new RxHttp(EmptyConfig.INSTANCE, null), new DefaultRegistry());
+    EddaCache cache = EddaContext.getContext().getCache();
+    cache.clear();
+    for (String collection : COLLECTIONS) {
+      byte[] payload = EddaPayloads.generate(collection, size);
+      List<?> records = JsonHelper.createParser(new ByteArrayInputStream(payload))
+        .readValueAs(EddaPayloads.type(collection));
+      String uri = URL + "/api/v2/aws/" + collection + ";_expand";
+      long ttl = TimeUnit.DAYS.toMillis(1);
+      cache.put(uri, new IndexedList<Object>(records), payload.length, ttl, Long.MAX_VALUE);
+    }
+
+    ec2 = new EddaEc2Client(config, "edda-main:7001", "us-east-1");
+    autoScaling = new EddaAutoScalingClient(config, "edda-main:7001", "us-east-1");
+
+    instancesById = new DescribeInstancesRequest().withInstanceIds(ids("i", 100));
+    instancesFiltered = new DescribeInstancesRequest().withFilters(
+      new Filter("instance-state-name").withValues("running"),
+      new Filter("tag:Name").withValues("api-*"));
+    instancesPage = new DescribeInstancesRequest().withMaxResults(1000);
+    imagesById = new DescribeImagesRequest().withImageIds(ids("ami", 10));
+    imagesFiltered = new DescribeImagesRequest().withFilters(
+      new Filter("name").withValues("edda-*"));
+    groupsByName = new DescribeAutoScalingGroupsRequest()
+      .withAutoScalingGroupNames(groupNames(10));
+    securityGroupsById = new DescribeSecurityGroupsRequest().withGroupIds(ids("sg", 10));
+    securityGroupsFiltered = new DescribeSecurityGroupsRequest().withFilters(
+      new Filter("vpc-id").withValues(EddaPayloads.id("vpc", 1)));
+  }
+
+  /** Ids spread evenly across the collection. */
+  private List<String> ids(String prefix, int n) {
+    List<String> ids = new ArrayList<String>();
+    for (int i = 0; i < n; ++i)
+      ids.add(EddaPayloads.id(prefix, (int) ((long) i * size / n)));
+    return ids;
+  }
+
+  private List<String> groupNames(int n) {
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < n; ++i)
+      names.add(EddaPayloads.groupName((int) ((long) i * size / n)));
+    return names;
+  }
+
+  @Benchmark
+  public DescribeInstancesResult describeInstancesAll() {
+    return ec2.describeInstances();
+  }
+
+  @Benchmark
+  public DescribeInstancesResult describeInstancesById() {
+    return ec2.describeInstances(instancesById);
+  }
+
+  @Benchmark
+  public DescribeInstancesResult describeInstancesFiltered() {
+    return ec2.describeInstances(instancesFiltered);
+  }
+
+  @Benchmark
+  public DescribeInstancesResult describeInstancesPage() {
+    return ec2.describeInstances(instancesPage);
+  }
+
+  @Benchmark
+  public DescribeImagesResult describeImagesById() {
+    return ec2.describeImages(imagesById);
+  }
+
+  @Benchmark
+  public DescribeImagesResult describeImagesFiltered() {
+    return ec2.describeImages(imagesFiltered);
+  }
+
+  @Benchmark
+  public DescribeAutoScalingGroupsResult describeAutoScalingGroupsByName() {
+    return autoScaling.describeAutoScalingGroups(groupsByName);
+  }
+
+  @Benchmark
+  public DescribeSecurityGroupsResult describeSecurityGroupsById() {
+    return ec2.describeSecurityGroups(securityGroupsById);
+  }
+
+  @Benchmark
+  public DescribeSecurityGroupsResult describeSecurityGroupsFiltered() {
+    return ec2.describeSecurityGroups(securityGroupsFiltered);
+  }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Random;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import com.amazonaws.services.autoscaling.model.AutoScalingGroup;
+import com.amazonaws.services.cloudwatch.model.MetricAlarm;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.SecurityGroup;
+import com.amazonaws.services.elasticloadbalancing.model.LoadBalancerDescription;
+import com.amazonaws.services.route53.model.HostedZone;
+
+/**
+ * Generates synthetic responses shaped like the expanded edda collections. The output for a
+ * given collection and size is always the same so runs can be compared. Ids are derived from
+ * the record index, see {@link #id(String, int)}, so benchmarks can pick ids that are known to
+ * exist.
+ */
+public final class EddaPayloads {
+  private EddaPayloads() {}
+
+  public static final String INSTANCES = "instances";
+  public static final String IMAGES = "images";
+  public static final String AUTO_SCALING_GROUPS = "autoScalingGroups";
+  public static final String SECURITY_GROUPS = "securityGroups";
+  public static final String LOAD_BALANCERS = "loadBalancers";
+  public static final String ALARMS = "alarms";
+  public static final String HOSTED_ZONES = "hostedZones";
+
+  private static final String[] ZONES = {"us-east-1c", "us-east-1d", "us-east-1e"};
+  private static final String[] STATES = {"running", "running", "running", "pending", "stopped"};
+  private static final String[] TYPES = {"m4.large", "m4.xlarge", "r3.2xlarge", "c4.4xlarge"};
+  private static final String[] APPS = {
+    "api", "atlas", "edda", "eureka", "gateway", "playback", "search", "ums", "zuul"
+  };
+
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  /** Id for the i'th record with the given prefix, for example "i-0000000000000002a". */
+  public static String id(String prefix, int i) {
+    return String.format("%s-%017x", prefix, i);
+  }
+
+  /** Name of the auto scaling group for the i'th record. */
+  public static String groupName(int i) {
+    return String.format("%s-v%03d", APPS[i % APPS.length], i);
+  }
+
+  /** Type of the records for the collection as decoded by the edda clients. */
+  public static TypeReference<? extends List<?>> type(String collection) {
+    switch (collection) {
+      case INSTANCES:           return new TypeReference<List<Reservation>>() {};
+      case IMAGES:              return new TypeReference<List<Image>>() {};
+      case AUTO_SCALING_GROUPS: return new TypeReference<List<AutoScalingGroup>>() {};
+      case SECURITY_GROUPS:     return new TypeReference<List<SecurityGroup>>() {};
+      case LOAD_BALANCERS:      return new TypeReference<List<LoadBalancerDescription>>() {};
+      case ALARMS:              return new TypeReference<List<MetricAlarm>>() {};
+      case HOSTED_ZONES:        return new TypeReference<List<HostedZone>>() {};
+      default: throw new IllegalArgumentException("unknown collection: " + collection);
+    }
+  }
+
+  /** Json array with the given number of records for the collection. */
+  public static byte[] generate(String collection, int size) {
+    Random random = new Random(size);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (JsonGenerator gen = FACTORY.createGenerator(baos)) {
+      gen.writeStartArray();
+      for (int i = 0; i < size; ++i) {
+        switch (collection) {
+          case INSTANCES:           writeReservation(gen, random, i);     break;
+          case IMAGES:              writeImage(gen, random, i);           break;
+          case AUTO_SCALING_GROUPS: writeAutoScalingGroup(gen, random, i); break;
+          case SECURITY_GROUPS:     writeSecurityGroup(gen, random, i);   break;
+          case LOAD_BALANCERS:      writeLoadBalancer(gen, random, i);    break;
+          case ALARMS:              writeAlarm(gen, random, i);           break;
+          case HOSTED_ZONES:        writeHostedZone(gen, random, i);      break;
+          default: throw new IllegalArgumentException("unknown collection: " + collection);
+        }
+      }
+      gen.writeEndArray();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return baos.toByteArray();
+  }
+
+  private static String pick(Random random, String[] values) {
+    return values[random.nextInt(values.length)];
+  }
+
+  private static void writeTags(JsonGenerator gen, int i) throws IOException {
+    String app = APPS[i % APPS.length];
+    gen.writeArrayFieldStart("tags");
+    writeTag(gen, "Name", groupName(i));
+    writeTag(gen, "aws:autoscaling:groupName", groupName(i));
+    writeTag(gen, "owner", app + "-team@example.com");
+    gen.writeEndArray();
+  }
+
+  private static void writeTag(JsonGenerator gen, String key, String value) throws IOException {
+    gen.writeStartObject();
+    gen.writeStringField("class", "com.amazonaws.services.ec2.model.Tag");
+    gen.writeStringField("key", key);
+    gen.writeStringField("value", value);
+    gen.writeEndObject();
+  }
+
+  private static void writeReservation(JsonGenerator gen, Random random, int i) throws IOException {
+    gen.writeStartObject();
+    gen.writeStringField("class", "com.amazonaws.services.ec2.model.Reservation");
+    gen.writeStringField("reservationId", id("r", i));
+    gen.writeStringField("ownerId", "123456789012");
+    gen.writeNullField("requesterId");
+    gen.writeArrayFieldStart("groups");
+    gen.writeEndArray();
+    gen.writeArrayFieldStart("instances");
+    writeInstance(gen, random, i);
+    gen.writeEndArray();
+    gen.writeEndObject();
+  }
+
+  private static void writeInstance(JsonGenerator gen, Random random, int i) throws IOException {
+    String zone = pick(random, ZONES);
+    String ip = "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+    gen.writeStartObject();
+    gen.writeStringField("class", "com.amazonaws.services.ec2.model.Instance");
+    gen.writeNumberField("amiLaunchIndex", 0);
+    gen.writeStringField("architecture", "x86_64");
+    gen.writeStringField("clientToken", id("token", i));
+    gen.writeBooleanField("ebsOptimized", random.nextBoolean());
+    gen.writeStringField("hypervisor", "xen");
+    gen.writeStringField("imageId", id("ami", random.nextInt(1000)));
+    gen.writeStringField("instanceId", id("i", i));
+    gen.writeStringField("instanceType", pick(random, TYPES));
+    gen.writeStringField("keyName", "nf-test-keypair");
+    gen.writeNumberField("launchTime", 1480000000000L + random.nextInt(1000000000));
+    gen.writeObjectFieldStart("monitoring");
+    gen.writeStringField("class", "com.amazonaws.services.ec2.model.Monitoring");
+    gen.writeStringField("state", "enabled");
+    gen.writeEndObject();
+    gen.writeObjectFieldStart("placement");
+    gen.writeStringField("class", "com.amazonaws.services.ec2.model.Placement");
+    gen.writeStringField("availabilityZone", zone);
+    gen.writeStringField("groupName", "");
+    gen.writeStringField("tenancy", "default");
+    gen.writeEndObject();
+    gen.writeStringField("privateDnsName", "ip-" + ip.replace('.', '-') + ".ec2.internal");
+    gen.writeStringField("privateIpAddress", ip);
+    gen.writeStringField("rootDeviceName", "/dev/sda1");
+    gen.writeStringField("rootDeviceType", "ebs");
+    gen.writeArrayFieldStart("securityGroups");
+    for (int j = 0; j < 3; ++j) {
+      int g = random.nextInt(1000);
+      gen.writeStartObject();
+      gen.writeStringField("class", "com.amazonaws.services.ec2.model.GroupIdentifier");
+      gen.writeStringField("groupId", id("sg", g));
+      gen.writeStringField("groupName", APPS[g % APPS.length]);
+      gen.writeEndObject();
+    }
+    gen.writeEndArray();
+    gen.writeBooleanField("sourceDestCheck", true);
+    gen.writeObjectFieldStart("state");
+    gen.writeStringField("class", "com.amazonaws.services.ec2.model.InstanceState");
+    String state = pick(random, STATES);
+    gen.writeNumberField("code", "running".equals(state) ? 16 : 0);
+    gen.writeStringField("name", state);
+    gen.writeEndObject();
+    gen.writeStringField("subnetId", id("subnet", random.nextInt(16)));
+    gen.writeStringField("virtualizationType", "hvm");
+    gen.writeStringField("vpcId", id("vpc", random.nextInt(4)));
+    writeTags(gen, i);
+    gen.writeEndObject();
+  }
+
+  private static void writeImage(JsonGenerator gen, Random random, int i) throws IOException {
+    gen.writeStartObject();
+    gen.writeStringField("class", "com.amazonaws.services.ec2.model.Image");
+    gen.writeStringField("architecture", "x86_64");
+    gen.writeArrayFieldStart("blockDeviceMappings");
+    for (int j = 0; j < 2; ++j) {
+      gen.writeStartObject();
+      gen.writeStringField("class", "com.amazonaws.services.ec2.model.BlockDeviceMapping");
+      gen.writeStringField("deviceName", "/dev/sd" + (char) ('a' + j));
+      gen.writeObjectFieldStart("ebs");
+      gen.writeStringField("class", "com.amazonaws.services.ec2.model.EbsBlockDevice");
+      gen.writeBooleanField("deleteOnTermination", true);
+      gen.writeBooleanField("encrypted", false);
+      gen.writeStringField("snapshotId", id("snap", random.nextInt(1 << 20)));
+      gen.writeNumberField("volumeSize", 10 * (j + 1));
+      gen.writeStringField("volumeType", "gp2");
+      gen.writeEndObject();
+      gen.writeEndObject();
+    }
+    gen.writeEndArray();
+    gen.writeStringField("creationDate", "2017-03-0" + (1 + random.nextInt(9)) + "T00:00:00.000Z");
+    gen.writeStringField("description", "name=" + groupName(i) + ", arch=x86_64, ancestor=xenial");
+    gen.writeStringField("hypervisor", "xen");
+    gen.writeStringField("imageId", id("ami", i));
+    gen.writeStringField("imageLocation", "123456789012/" + groupName(i));
+    gen.writeStringField("imageType", "machine");
+    gen.writeStringField("name", groupName(i) + "-x86_64-" + random.nextInt(100000));
+    gen.writeStringField("ownerId", "123456789012");
+    gen.writeBooleanField("public", false);
+    gen.writeStringField("rootDeviceName", "/dev/sda1");
+    gen.writeStringField("rootDeviceType", "ebs");
+    gen.writeStringField("state", "available");
+    gen.writeStringField("virtualizationType", "hvm");
+    writeTags(gen, i);
+    gen.writeEndObject();
+  }
+
+  private static void writeAutoScalingGroup(JsonGenerator gen, Random random, int i)
+      throws IOException {
+    String name = groupName(i);
+    int n = 1 + random.nextInt(6);
+    gen.writeStartObject();
+    gen.writeStringField("class", "com.amazonaws.services.autoscaling.model.AutoScalingGroup");
+    gen.writeStringField("autoScalingGroupARN",
+      "arn:aws:autoscaling:us-east-1:123456789012:autoScalingGroup:" + id("uuid", i)
+        + ":autoScalingGroupName/" + name);
+    gen.writeStringField("autoScalingGroupName", name);
+    gen.writeArrayFieldStart("availabilityZones");
+    for (String zone : ZONES) gen.writeString(zone);
+    gen.writeEndArray();
+    gen.writeNumberField("createdTime", 1480000000000L + random.nextInt(1000000000));
+    gen.writeNumberField("defaultCooldown", 10);
+    gen.writeNumberField("desiredCapacity", n);
+    gen.writeNumberField("healthCheckGracePeriod", 600);
+    gen.writeStringField("healthCheckType", "EC2");
+    gen.writeArrayFieldStart("instances");
+    for (int j = 0; j < n; ++j) {
+      gen.writeStartObject();
+      gen.writeStringField("class", "com.amazonaws.services.autoscaling.model.Instance");
+      gen.writeStringField("availabilityZone", ZONES[j % ZONES.length]);
+      gen.writeStringField("healthStatus", "Healthy");
+      gen.writeStringField("instanceId", id("i", random.nextInt(1 << 24)));
+      gen.writeStringField("launchConfigurationName", name + "-" + i);
+      gen.writeStringField("lifecycleState", "InService");
+      gen.writeBooleanField("protectedFromScaleIn", false);
+      gen.writeEndObject();
+    }
+    gen.writeEndArray();
+    gen.writeStringField("launchConfigurationName", name + "-" + i);
+    gen.writeArrayFieldStart("loadBalancerNames");
+    gen.writeString(APPS[i % APPS.length] + "-frontend");
+    gen.writeEndArray();
+    gen.writeNumberField("maxSize", 2 * n);
+    gen.writeNumberField("minSize", n);
+    gen.writeBooleanField("newInstancesProtectedFromScaleIn", false);
+    gen.writeArrayFieldStart("suspendedProcesses");
+    gen.writeEndArray();
+    gen.writeArrayFieldStart("tags");
+    gen.writeStartObject();
+    gen.writeStringField("class", "com.amazonaws.services.autoscaling.model.TagDescription");
+    gen.writeStringField("key", "owner");
+    gen.writeBooleanField("propagateAtLaunch", true);
+    gen.writeStringField("resourceId", name);
+    gen.writeStringField("resourceType", "auto-scaling-group");
+    gen.writeStringField("value", APPS[i % APPS.length] + "-team@example.com");
+    gen.writeEndObject();
+    gen.writeEndArray();
+    gen.writeArrayFieldStart("terminationPolicies");
+    gen.writeString("Default");
+    gen.writeEndArray();
+    gen.writeStringField("VPCZoneIdentifier",
+      id("subnet", random.nextInt(16)) + "," + id("subnet", random.nextInt(16)));
+    gen.writeEndObject();
+  }
+
+  private static void writeSecurityGroup(JsonGenerator gen, Random random, int i)
+      throws IOException {
+    gen.writeStartObject();
+    gen.writeStringField("class", "com.amazonaws.services.ec2.model.SecurityGroup");
+    gen.writeStringField("description", "security group for " + groupName(i));
+    gen.writeStringField("groupId", id("sg", i));
+    gen.writeStringField("groupName", groupName(i));
+    gen.writeArrayFieldStart("ipPermissions");
+    int n = 1 + random.nextInt(4);
+    for (int j = 0; j < n; ++j) {
+      int port = 7001 + 100 * j;
+      gen.writeStartObject();
+      gen.writeStringField("class", "com.amazonaws.services.ec2.model.IpPermission");
+      gen.writeNumberField("fromPort", port);
+      gen.writeStringField("ipProtocol", "tcp");
+      gen.writeNumberField("toPort", port);
+      gen.writeArrayFieldStart("userIdGroupPairs");
+      for (int k = 0; k < 2; ++k) {
+        int g = random.nextInt(1000);
+        gen.writeStartObject();
+        gen.writeStringField("class", "com.amazonaws.services.ec2.model.UserIdGroupPair");
+        gen.writeStringField("groupId", id("sg", g));
+        gen.writeStringField("groupName", groupName(g));
+        gen.writeStringField("userId", "123456789012");
+        gen.writeEndObject();
+      }
+      gen.writeEndArray();
+      gen.writeEndObject();
+    }
+    gen.writeEndArray();
+    gen.writeStringField("ownerId", "123456789012");
+    gen.writeStringField("vpcId", id("vpc", random.nextInt(4)));
+    writeTags(gen, i);
+    gen.writeEndObject();
+  }
+
+  private static void writeLoadBalancer(JsonGenerator gen, Random random, int i)
+      throws IOException {
+    String name = APPS[i % APPS.length] + "-frontend-" + i;
+    gen.writeStartObject();
+    gen.writeStringField("class",
+      "com.amazonaws.services.elasticloadbalancing.model.LoadBalancerDescription");
+    gen.writeArrayFieldStart("availabilityZones");
+    for (String zone : ZONES) gen.writeString(zone);
+    gen.writeEndArray();
+    gen.writeStringField("canonicalHostedZoneNameID", "Z3DZXE0Q79N41H");
+    gen.writeNumberField("createdTime", 1480000000000L + random.nextInt(1000000000));
+    gen.writeStringField("DNSName", name + "-" + random.nextInt(1 << 30) + ".elb.amazonaws.com");
+    gen.writeObjectFieldStart("healthCheck");
+    gen.writeStringField("class", "com.amazonaws.services.elasticloadbalancing.model.HealthCheck");
+    gen.writeNumberField("healthyThreshold", 10);
+    gen.writeNumberField("interval", 10);
+    gen.writeStringField("target", "HTTP:7001/healthcheck");
+    gen.writeNumberField("timeout", 5);
+    gen.writeNumberField("unhealthyThreshold", 2);
+    gen.writeEndObject();
+    gen.writeArrayFieldStart("instances");
+    int n = 1 + random.nextInt(6);
+    for (int j = 0; j < n; ++j) {
+      gen.writeStartObject();
+      gen.writeStringField("class", "com.amazonaws.services.elasticloadbalancing.model.Instance");
+      gen.writeStringField("instanceId", id("i", random.nextInt(1 << 24)));
+      gen.writeEndObject();
+    }
+    gen.writeEndArray();
+    gen.writeStringField("loadBalancerName", name);
+    gen.writeStringField("scheme", "internet-facing");
+    gen.writeArrayFieldStart("securityGroups");
+    gen.writeString(id("sg", random.nextInt(1000)));
+    gen.writeEndArray();
+    gen.writeArrayFieldStart("subnets");
+    gen.writeString(id("subnet", random.nextInt(16)));
+    gen.writeEndArray();
+    gen.writeStringField("VPCId", id("vpc", random.nextInt(4)));
+    gen.writeEndObject();
+  }
+
+  private static void writeAlarm(JsonGenerator gen, Random random, int i) throws IOException {
+    String group = groupName(i);
+    gen.writeStartObject();
+    gen.writeStringField("class", "com.amazonaws.services.cloudwatch.model.MetricAlarm");
+    gen.writeBooleanField("actionsEnabled", true);
+    gen.writeArrayFieldStart("alarmActions");
+    gen.writeString("arn:aws:autoscaling:us-east-1:123456789012:scalingPolicy:" + id("uuid", i));
+    gen.writeEndArray();
+    gen.writeStringField("alarmArn", "arn:aws:cloudwatch:us-east-1:123456789012:alarm:" + group);
+    gen.writeStringField("alarmName", group + "-cpu-high");
+    gen.writeStringField("comparisonOperator", "GreaterThanThreshold");
+    gen.writeArrayFieldStart("dimensions");
+    gen.writeStartObject();
+    gen.writeStringField("class", "com.amazonaws.services.cloudwatch.model.Dimension");
+    gen.writeStringField("name", "AutoScalingGroupName");
+    gen.writeStringField("value", group);
+    gen.writeEndObject();
+    gen.writeEndArray();
+    gen.writeNumberField("evaluationPeriods", 3);
+    gen.writeStringField("metricName", "CPUUtilization");
+    gen.writeStringField("namespace", "AWS/EC2");
+    gen.writeNumberField("period", 60);
+    gen.writeStringField("stateValue", random.nextInt(10) == 0 ? "ALARM" : "OK");
+    gen.writeStringField("statistic", "Average");
+    gen.writeNumberField("threshold", 50.0 + random.nextInt(40));
+    gen.writeEndObject();
+  }
+
+  private static void writeHostedZone(JsonGenerator gen, Random random, int i)
+      throws IOException {
+    gen.writeStartObject();
+    gen.writeStringField("class", "com.amazonaws.services.route53.model.HostedZone");
+    gen.writeStringField("callerReference", id("ref", i));
+    gen.writeObjectFieldStart("config");
+    gen.writeStringField("class", "com.amazonaws.services.route53.model.HostedZoneConfig");
+    gen.writeBooleanField("privateZone", random.nextBoolean());
+    gen.writeEndObject();
+    gen.writeStringField("id", "/hostedzone/Z" + Integer.toString(i, 36).toUpperCase());
+    gen.writeStringField("name", APPS[i % APPS.length] + i + ".example.com.");
+    gen.writeNumberField("resourceRecordSetCount", 2 + random.nextInt(100));
+    gen.writeEndObject();
+  }
+}
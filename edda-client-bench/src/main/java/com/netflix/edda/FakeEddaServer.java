@@ -0,0 +1,264 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.reactivex.netty.RxNetty;
+import io.reactivex.netty.protocol.http.server.HttpServer;
+import io.reactivex.netty.protocol.http.server.HttpServerRequest;
+import io.reactivex.netty.protocol.http.server.HttpServerResponse;
+
+import rx.Observable;
+
+/**
+ * Local stand-in for edda that serves generated collections from {@link EddaPayloads}. Requests
+ * for {@code /api/v2/aws/<collection>} or {@code /api/v2/view/<collection>} return the full
+ * collection, matrix arguments are ignored as the clients filter the results locally. The
+ * behavior can be adjusted while the server is running:
+ *
+ * <ul>
+ *   <li><b>latency</b>: delay before the response is started.</li>
+ *   <li><b>gzip</b>: compress the response if the request accepts gzip.</li>
+ *   <li><b>chunkSize</b>: if greater than zero the body is sent using chunked transfer encoding
+ *       with each chunk flushed separately, otherwise it is sent with a content length.</li>
+ *   <li><b>errorRate</b>: fraction of requests that fail with a 503.</li>
+ *   <li><b>binaryFormats</b>: respond with smile or cbor if listed in the Accept header.
+ *       If disabled the server behaves like an edda that only supports json.</li>
+ * </ul>
+ */
+public class FakeEddaServer implements AutoCloseable {
+
+  private final int size;
+  private final ConcurrentHashMap<String, byte[]> payloads =
+    new ConcurrentHashMap<String, byte[]>();
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+
+  private volatile long latency = 0L;
+  private volatile boolean gzip = false;
+  private volatile int chunkSize = 0;
+  private volatile double errorRate = 0.0;
+  private volatile boolean binaryFormats = false;
+
+  private HttpServer<ByteBuf, ByteBuf> server;
+
+  /** Create a server where each collection has the given number of records. */
+  public FakeEddaServer(int size) {
+    this.size = size;
+  }
+
+  public FakeEddaServer withLatency(long amount, TimeUnit unit) {
+    latency = unit.toMillis(amount);
+    return this;
+  }
+
+  public FakeEddaServer withGzip(boolean enabled) {
+    gzip = enabled;
+    return this;
+  }
+
+  public FakeEddaServer withChunkSize(int bytes) {
+    chunkSize = bytes;
+    return this;
+  }
+
+  public FakeEddaServer withErrorRate(double rate) {
+    errorRate = rate;
+    return this;
+  }
+
+  public FakeEddaServer withBinaryFormats(boolean enabled) {
+    binaryFormats = enabled;
+    return this;
+  }
+
+  /** Start listening on an ephemeral port. */
+  public synchronized FakeEddaServer start() {
+    if (server == null)
+      server = RxNetty.createHttpServer(0, this::handle).start();
+    return this;
+  }
+
+  public int port() {
+    return server.getServerPort();
+  }
+
+  /** Base url to use for the url setting of the clients. */
+  public String url() {
+    return "http://localhost:" + port();
+  }
+
+  /** Number of requests received. */
+  public long requests() {
+    return requests.get();
+  }
+
+  /** Number of requests that failed because of error injection. */
+  public long errors() {
+    return errors.get();
+  }
+
+  /** Uncompressed size of the response for a collection. */
+  public int payloadSize(String collection) {
+    return payload(collection, "application/json", false).length;
+  }
+
+  @Override public synchronized void close() throws Exception {
+    if (server != null) {
+      server.shutdown();
+      server = null;
+    }
+  }
+
+  /** Response body for the collection encoded with the media type and optionally gzipped. */
+  private byte[] payload(String collection, String mediaType, boolean compressed) {
+    String key = collection + ";" + mediaType + ";" + compressed;
+    byte[] body = payloads.get(key);
+    if (body == null) {
+      // Computed outside of the map as the encoded payloads are derived from the json payload
+      if (compressed)
+        body = gzip(payload(collection, mediaType, false));
+      else if (JsonHelper.SMILE.equals(mediaType))
+        body = transcode(payload(collection, "application/json", false), new SmileFactory());
+      else if (JsonHelper.CBOR.equals(mediaType))
+        body = transcode(payload(collection, "application/json", false), new CBORFactory());
+      else
+        body = EddaPayloads.generate(collection, size);
+      payloads.putIfAbsent(key, body);
+    }
+    return body;
+  }
+
+  private static byte[] gzip(byte[] data) {
+    try {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      try (GZIPOutputStream out = new GZIPOutputStream(baos)) {
+        out.write(data);
+      }
+      return baos.toByteArray();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static byte[] transcode(byte[] json, JsonFactory target) {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (JsonParser parser = new JsonFactory().createParser(json);
+         JsonGenerator gen = target.createGenerator(baos)) {
+      parser.nextToken();
+      gen.copyCurrentStructure(parser);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return baos.toByteArray();
+  }
+
+  /** Media type to use for the response based on the Accept header. */
+  private String mediaType(String accept) {
+    if (binaryFormats && accept != null) {
+      if (accept.contains(JsonHelper.SMILE)) return JsonHelper.SMILE;
+      if (accept.contains(JsonHelper.CBOR)) return JsonHelper.CBOR;
+    }
+    return "application/json";
+  }
+
+  /** Collection name from a path such as /api/v2/aws/instances;_expand. */
+  static String collection(String path) {
+    String[] parts = path.split(";")[0].split("/");
+    return (parts.length >= 5 && "api".equals(parts[1])) ? parts[4] : null;
+  }
+
+  private Observable<Void> handle(
+      HttpServerRequest<ByteBuf> request, HttpServerResponse<ByteBuf> response) {
+    requests.incrementAndGet();
+    Observable<Long> delay = (latency > 0L)
+      ? Observable.timer(latency, TimeUnit.MILLISECONDS)
+      : Observable.just(0L);
+    return delay.flatMap(t -> respond(request, response));
+  }
+
+  private Observable<Void> respond(
+      HttpServerRequest<ByteBuf> request, HttpServerResponse<ByteBuf> response) {
+    if (errorRate > 0.0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+      errors.incrementAndGet();
+      return error(response, HttpResponseStatus.SERVICE_UNAVAILABLE, "injected failure");
+    }
+
+    String collection = collection(request.getPath());
+    if (collection == null)
+      return error(response, HttpResponseStatus.NOT_FOUND, "unknown path: " + request.getPath());
+
+    String mediaType = mediaType(request.getHeaders().get(HttpHeaders.Names.ACCEPT));
+    String encoding = request.getHeaders().get(HttpHeaders.Names.ACCEPT_ENCODING);
+    boolean compressed = gzip && encoding != null && encoding.contains(HttpHeaders.Values.GZIP);
+    byte[] body;
+    try {
+      body = payload(collection, mediaType, compressed);
+    }
+    catch (IllegalArgumentException e) {
+      return error(response, HttpResponseStatus.NOT_FOUND, e.getMessage());
+    }
+
+    response.setStatus(HttpResponseStatus.OK);
+    response.getHeaders().set(HttpHeaders.Names.CONTENT_TYPE, mediaType);
+    if (compressed)
+      response.getHeaders().set(HttpHeaders.Names.CONTENT_ENCODING, HttpHeaders.Values.GZIP);
+    int n = chunkSize;
+    if (n <= 0) {
+      response.getHeaders().set(HttpHeaders.Names.CONTENT_LENGTH, body.length);
+      response.writeBytes(body);
+      return response.close();
+    }
+
+    response.getHeaders().set(HttpHeaders.Names.TRANSFER_ENCODING, HttpHeaders.Values.CHUNKED);
+    List<byte[]> chunks = new ArrayList<byte[]>();
+    for (int i = 0; i < body.length; i += n)
+      chunks.add(Arrays.copyOfRange(body, i, Math.min(i + n, body.length)));
+    return Observable.from(chunks)
+      .concatMap(response::writeBytesAndFlush)
+      .concatWith(Observable.defer(response::close));
+  }
+
+  private Observable<Void> error(
+      HttpServerResponse<ByteBuf> response, HttpResponseStatus status, String msg) {
+    response.setStatus(status);
+    response.writeString(msg);
+    return response.close();
+  }
+}
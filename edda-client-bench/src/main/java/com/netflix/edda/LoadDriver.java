@@ -0,0 +1,287 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.services.autoscaling.AmazonAutoScaling;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.elasticloadbalancing.AmazonElasticLoadBalancing;
+import com.amazonaws.services.route53.AmazonRoute53;
+
+import com.netflix.archaius.config.EmptyConfig;
+import com.netflix.iep.http.RxHttp;
+
+/**
+ * Drives concurrent describe calls through the clients created by {@link AwsClientFactory}
+ * against a {@link FakeEddaServer} and reports the latency percentiles, throughput and heap
+ * usage for each call. Settings are passed as key=value arguments:
+ *
+ * <pre>
+ * sbt "edda-client-bench/runMain com.netflix.edda.LoadDriver size=50000 concurrency=8 gzip=true"
+ * </pre>
+ *
+ * See {@link #DEFAULTS} for the available settings. The clients are read only and never call
+ * AWS so the driver can be run offline.
+ */
+public class LoadDriver {
+
+  /** Default settings for the main method. */
+  static final Map<String, String> DEFAULTS = new LinkedHashMap<String, String>();
+  static {
+    DEFAULTS.put("size", "10000");         // records per collection
+    DEFAULTS.put("concurrency", "4");      // number of threads issuing calls
+    DEFAULTS.put("requests", "100");       // calls per scenario
+    DEFAULTS.put("latency", "0");          // server latency in milliseconds
+    DEFAULTS.put("gzip", "false");         // compress responses
+    DEFAULTS.put("chunkSize", "0");        // chunked transfer encoding if greater than 0
+    DEFAULTS.put("errorRate", "0.0");      // fraction of requests that should fail
+    DEFAULTS.put("cacheTtl", "PT0S");      // client cache, disabled so each call hits the server
+    DEFAULTS.put("binaryFormat", "");      // binary format requested by the client, smile or cbor
+  }
+
+  /** Summary of a single scenario. */
+  public static final class Result {
+    private final String name;
+    private final long[] latencies;
+    private final int failures;
+    private final long duration;
+    private final long peakHeap;
+
+    Result(String name, long[] latencies, int failures, long duration, long peakHeap) {
+      this.name = name;
+      this.latencies = latencies;
+      this.failures = failures;
+      this.duration = duration;
+      this.peakHeap = peakHeap;
+      Arrays.sort(this.latencies);
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public int requests() {
+      return latencies.length;
+    }
+
+    public int failures() {
+      return failures;
+    }
+
+    /** Latency in milliseconds for the percentile, 0 to 100, of the successful calls. */
+    public double percentile(double p) {
+      if (latencies.length == 0) return Double.NaN;
+      int idx = (int) Math.ceil(p / 100.0 * latencies.length) - 1;
+      idx = Math.max(0, Math.min(latencies.length - 1, idx));
+      return latencies[idx] / 1e6;
+    }
+
+    /** Calls completed per second. */
+    public double throughput() {
+      return (latencies.length + failures) / (duration / 1e9);
+    }
+
+    /** Peak heap usage in bytes observed during the run. */
+    public long peakHeap() {
+      return peakHeap;
+    }
+
+    @Override public String toString() {
+      return String.format("%-40s %8d %8d %10.1f %10.1f %10.1f %10.1f %10.1f %10d",
+        name, requests(), failures, throughput(),
+        percentile(50.0), percentile(90.0), percentile(99.0), percentile(100.0),
+        peakHeap / (1024 * 1024));
+    }
+
+    static String header() {
+      return String.format("%-40s %8s %8s %10s %10s %10s %10s %10s %10s",
+        "scenario", "ok", "failed", "calls/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "heap MB");
+    }
+  }
+
+  private final Map<String, Callable<?>> scenarios = new LinkedHashMap<String, Callable<?>>();
+  private final int concurrency;
+  private final int requests;
+
+  /**
+   * Create a driver for the clients using the given configuration. It should have useEdda
+   * set and wrapAwsClient unset, which is the default.
+   */
+  public LoadDriver(AwsConfiguration config, int concurrency, int requests) {
+    this.concurrency = concurrency;
+    this.requests = requests;
+
+    AWSCredentialsProvider provider = new DefaultAWSCredentialsProviderChain();
+    String vip = "edda-main:7001";
+    String region = "us-east-1";
+
+    AmazonEC2 ec2 = AwsClientFactory.newEc2Client(config, provider, vip, region);
+    scenarios.put("ec2.describeInstances", ec2::describeInstances);
+    scenarios.put("ec2.describeImages", ec2::describeImages);
+    scenarios.put("ec2.describeSecurityGroups", ec2::describeSecurityGroups);
+
+    AmazonAutoScaling asg = AwsClientFactory.newAutoScalingClient(config, provider, vip, region);
+    scenarios.put("autoScaling.describeAutoScalingGroups", asg::describeAutoScalingGroups);
+
+    AmazonElasticLoadBalancing elb =
+      AwsClientFactory.newElasticLoadBalancingClient(config, provider, vip, region);
+    scenarios.put("elb.describeLoadBalancers", elb::describeLoadBalancers);
+
+    AmazonCloudWatch cw = AwsClientFactory.newCloudWatchClient(config, provider, vip, region);
+    scenarios.put("cloudWatch.describeAlarms", cw::describeAlarms);
+
+    AmazonRoute53 route53 = AwsClientFactory.newRoute53Client(config, provider, vip, region);
+    scenarios.put("route53.listHostedZones", route53::listHostedZones);
+
+    // Collections that are fetched together for a topology view
+    EddaPrefetch prefetch = new EddaPrefetch(config, vip, region);
+    scenarios.put("prefetch.topology", () -> prefetch.fetch(
+      EddaPrefetch.Collection.INSTANCES,
+      EddaPrefetch.Collection.AUTO_SCALING_GROUPS,
+      EddaPrefetch.Collection.LOAD_BALANCERS,
+      EddaPrefetch.Collection.SECURITY_GROUPS));
+  }
+
+  /** Names of the scenarios that will be run. */
+  public List<String> scenarios() {
+    return new ArrayList<String>(scenarios.keySet());
+  }
+
+  /** Run all scenarios one after another. */
+  public List<Result> runAll() throws Exception {
+    List<Result> results = new ArrayList<Result>();
+    for (Map.Entry<String, Callable<?>> entry : scenarios.entrySet())
+      results.add(run(entry.getKey(), entry.getValue()));
+    return results;
+  }
+
+  /** Run one of the scenarios listed by {@link #scenarios()}. */
+  public Result run(String name) throws Exception {
+    Callable<?> call = scenarios.get(name);
+    if (call == null)
+      throw new IllegalArgumentException("unknown scenario: " + name);
+    return run(name, call);
+  }
+
+  /** Run a single call the configured number of times using concurrent threads. */
+  public Result run(String name, Callable<?> call) throws Exception {
+    final long[] latencies = new long[requests];
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicInteger ok = new AtomicInteger();
+    final AtomicInteger failures = new AtomicInteger();
+
+    resetPeakHeap();
+    ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+    try {
+      long start = System.nanoTime();
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int i = 0; i < concurrency; ++i) {
+        futures.add(pool.submit(() -> {
+          while (next.getAndIncrement() < requests) {
+            long t = System.nanoTime();
+            try {
+              call.call();
+              latencies[ok.getAndIncrement()] = System.nanoTime() - t;
+            }
+            catch (Exception e) {
+              failures.incrementAndGet();
+            }
+          }
+        }));
+      }
+      for (Future<?> f : futures) f.get();
+      long duration = System.nanoTime() - start;
+      long[] completed = Arrays.copyOf(latencies, ok.get());
+      return new Result(name, completed, failures.get(), duration, peakHeap());
+    }
+    finally {
+      pool.shutdownNow();
+      pool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  private static void resetPeakHeap() {
+    System.gc();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+    }
+  }
+
+  private static long peakHeap() {
+    long used = 0L;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) used += pool.getPeakUsage().getUsed();
+    }
+    return used;
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> settings = new HashMap<String, String>(DEFAULTS);
+    for (String arg : args) {
+      int pos = arg.indexOf('=');
+      if (pos < 0 || !DEFAULTS.containsKey(arg.substring(0, pos)))
+        throw new IllegalArgumentException(
+          "invalid argument '" + arg + "', expected key=value for " + DEFAULTS.keySet());
+      settings.put(arg.substring(0, pos), arg.substring(pos + 1));
+    }
+
+    new EddaContext(new RxHttp(EmptyConfig.INSTANCE, null));
+    try (FakeEddaServer server = new FakeEddaServer(Integer.parseInt(settings.get("size")))) {
+      server
+        .withLatency(Long.parseLong(settings.get("latency")), TimeUnit.MILLISECONDS)
+        .withGzip(Boolean.parseBoolean(settings.get("gzip")))
+        .withChunkSize(Integer.parseInt(settings.get("chunkSize")))
+        .withErrorRate(Double.parseDouble(settings.get("errorRate")))
+        .withBinaryFormats(true)
+        .start();
+
+      Map<String, String> overrides = new HashMap<String, String>();
+      overrides.put("url", server.url());
+      overrides.put("cacheTtl", settings.get("cacheTtl"));
+      overrides.put("binaryFormat", settings.get("binaryFormat"));
+      AwsConfiguration config = BenchConfiguration.create(overrides);
+
+      LoadDriver driver = new LoadDriver(
+        config,
+        Integer.parseInt(settings.get("concurrency")),
+        Integer.parseInt(settings.get("requests")));
+
+      System.out.println("settings: " + settings);
+      System.out.println(Result.header());
+      for (Result result : driver.runAll()) {
+        System.out.println(result);
+      }
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+import com.netflix.archaius.config.EmptyConfig;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Reservation;
+
+import com.netflix.iep.http.RxHttp;
+
+public class FakeEddaServerTest {
+  private static EddaContext eddaContext = new EddaContext(new RxHttp(EmptyConfig.INSTANCE, null));
+  private static FakeEddaServer server;
+  private static LoadDriver driver;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    server = new FakeEddaServer(200)
+      .withLatency(5, TimeUnit.MILLISECONDS)
+      .withGzip(true)
+      .withChunkSize(4096)
+      .start();
+    Map<String, String> overrides = new HashMap<String, String>();
+    overrides.put("url", server.url());
+    driver = new LoadDriver(BenchConfiguration.create(overrides), 4, 20);
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    server.close();
+  }
+
+  @Test
+  public void collection() {
+    assertEquals("aws", FakeEddaServer.collection("/api/v2/aws/instances;_expand"), "instances");
+    assertEquals("view", FakeEddaServer.collection("/api/v2/view/images;_expand"), "images");
+    assertNull("other", FakeEddaServer.collection("/healthcheck"));
+  }
+
+  @Test
+  public void allClients() throws Exception {
+    for (LoadDriver.Result result : driver.runAll()) {
+      assertEquals(result.name(), result.failures(), 0);
+      assertEquals(result.name(), result.requests(), 20);
+    }
+  }
+
+  @Test
+  public void binaryFormats() throws Exception {
+    for (String format : new String[] {"smile", "cbor"}) {
+      Map<String, String> overrides = new HashMap<String, String>();
+      overrides.put("url", server.url());
+      overrides.put("binaryFormat", format);
+      LoadDriver binary = new LoadDriver(BenchConfiguration.create(overrides), 2, 4);
+
+      // Server without support for the binary formats should fall back to json
+      for (boolean supported : new boolean[] {true, false}) {
+        server.withBinaryFormats(supported);
+        LoadDriver.Result result = binary.run("ec2.describeInstances");
+        assertEquals(format, result.failures(), 0);
+        assertEquals(format, result.requests(), 4);
+      }
+    }
+  }
+
+  @Test
+  public void streamInstances() throws Exception {
+    Map<String, String> overrides = new HashMap<String, String>();
+    overrides.put("url", server.url());
+    EddaEc2Client client =
+      new EddaEc2Client(BenchConfiguration.create(overrides), "edda-main:7001", "us-east-1");
+    DescribeInstancesRequest request = new DescribeInstancesRequest();
+    int count = client.streamInstances(request).count().toBlocking().single();
+    assertEquals("all", count, 200);
+
+    // Taking the first record unsubscribes and aborts the rest of the response
+    Reservation first = client.streamInstances(request.withMaxResults(3)).toBlocking().first();
+    String id = first.getInstances().get(0).getInstanceId();
+    Reservation r = client.streamInstances(new DescribeInstancesRequest().withInstanceIds(id))
+      .toBlocking()
+      .single();
+    assertEquals("id", r.getReservationId(), first.getReservationId());
+  }
+
+  @Test
+  public void prefetch() throws Exception {
+    Map<String, String> overrides = new HashMap<String, String>();
+    overrides.put("url", server.url());
+    EddaPrefetch prefetch =
+      new EddaPrefetch(BenchConfiguration.create(overrides), "edda-main:7001", "us-east-1");
+    EddaPrefetch.Bundle bundle = prefetch.fetch(
+      EddaPrefetch.Collection.INSTANCES,
+      EddaPrefetch.Collection.AUTO_SCALING_GROUPS,
+      EddaPrefetch.Collection.LOAD_BALANCERS);
+    assertEquals("instances", bundle.instances().getReservations().size(), 200);
+    assertEquals("asgs", bundle.autoScalingGroups().getAutoScalingGroups().size(), 200);
+    assertEquals("elbs", bundle.loadBalancers().getLoadBalancerDescriptions().size(), 200);
+    assertFalse("images", bundle.contains(EddaPrefetch.Collection.IMAGES));
+  }
+
+  @Test
+  public void fanOutPartialFailure() throws Exception {
+    Map<String, String> overrides = new HashMap<String, String>();
+    overrides.put("url", "http://${vip}");
+    overrides.put("cacheTtl", "PT0S");
+    Map<String, String> vips = new LinkedHashMap<String, String>();
+    vips.put("us-east-1", server.url().substring("http://".length()));
+    vips.put("eu-west-1", "localhost:1");
+    EddaFanOut fanOut = new EddaFanOut(BenchConfiguration.create(overrides), vips);
+
+    EddaFanOut.Result<DescribeInstancesResult> result = fanOut.describeInstances();
+    assertFalse("complete", result.isComplete());
+    assertTrue("failed region", result.failures().containsKey("eu-west-1"));
+    List<Reservation> reservations = result.result().getReservations();
+    assertEquals("size", reservations.size(), 200);
+    assertEquals("region", result.region(reservations.get(0)), "us-east-1");
+    Object instance = reservations.get(0).getInstances().get(0);
+    assertEquals("instance region", result.region(instance), "us-east-1");
+  }
+
+  @Test
+  public void fanOutTimeoutAbortsRequest() throws Exception {
+    try (FakeEddaServer slow = new FakeEddaServer(10).withLatency(1, TimeUnit.MINUTES).start()) {
+      Map<String, String> overrides = new HashMap<String, String>();
+      overrides.put("url", "http://${vip}");
+      overrides.put("cacheTtl", "PT0S");
+      overrides.put("fanOutTimeout", "PT0.5S");
+      Map<String, String> vips = new LinkedHashMap<String, String>();
+      vips.put("us-east-1", server.url().substring("http://".length()));
+      vips.put("eu-west-1", slow.url().substring("http://".length()));
+      EddaFanOut fanOut = new EddaFanOut(BenchConfiguration.create(overrides), vips);
+
+      EddaFanOut.Result<DescribeInstancesResult> result = fanOut.describeInstances();
+      assertTrue("timed out region", result.failures().containsKey("eu-west-1"));
+      assertEquals("size", result.result().getReservations().size(), 200);
+
+      // The request to the slow region is aborted rather than waiting for readTimeout
+      long deadline = System.currentTimeMillis() + 5000L;
+      while (EddaContext.getContext().getInFlight().size() > 0) {
+        assertTrue("in flight", System.currentTimeMillis() < deadline);
+        Thread.sleep(10L);
+      }
+    }
+  }
+
+  @Test
+  public void errorInjection() throws Exception {
+    server.withErrorRate(1.0);
+    try {
+      LoadDriver.Result result = driver.run("ec2.describeInstances");
+      assertEquals("failures", result.failures(), 20);
+      assertEquals("requests", result.requests(), 0);
+    }
+    finally {
+      server.withErrorRate(0.0);
+    }
+  }
+}
@@ -16,13 +16,38 @@
 package com.netflix.edda;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.netflix.iep.http.RxHttp;
 import com.netflix.iep.rxnetty.RxNettyModule;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Spectator;
 
 public final class EddaModule extends AbstractModule {
 
   @Override protected void configure() {
     install(new RxNettyModule());
-    bind(EddaContext.class).asEagerSingleton();
+    bind(EddaContext.class).toProvider(EddaContextProvider.class).asEagerSingleton();
+  }
+
+  /**
+   * Creates the context using the registry bound in the injector. If there is no binding for
+   * the registry the global registry is used.
+   */
+  private static final class EddaContextProvider implements Provider<EddaContext> {
+    private final RxHttp rxHttp;
+
+    @Inject(optional = true)
+    private Registry registry = null;
+
+    @Inject
+    EddaContextProvider(RxHttp rxHttp) {
+      this.rxHttp = rxHttp;
+    }
+
+    @Override public EddaContext get() {
+      return new EddaContext(rxHttp, (registry == null) ? Spectator.globalRegistry() : registry);
+    }
   }
 
   @Override public boolean equals(Object obj) {
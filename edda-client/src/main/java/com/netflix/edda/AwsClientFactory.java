@@ -15,6 +15,8 @@
  */
 package com.netflix.edda;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.ClientConfiguration;
@@ -41,6 +43,8 @@ import com.amazonaws.services.route53.AmazonRoute53Client;
 import com.netflix.iep.config.Configuration;
 import com.netflix.iep.NetflixEnvironment;
 
+import com.netflix.edda.util.SettingsHelper;
+
 public class AwsClientFactory {
   private AwsClientFactory() {}
 
@@ -262,4 +266,33 @@ public class AwsClientFactory {
       client = edda.wrapAwsClient(client);
     return client;
   }
+
+  public static EddaPrefetch newPrefetch() {
+    return newPrefetch(DEFAULT_VIP.get());
+  }
+
+  public static EddaPrefetch newPrefetch(String vip) {
+    return new EddaPrefetch(config(), vip, NetflixEnvironment.region());
+  }
+
+  public static EddaFanOut newFanOut() {
+    return newFanOut(config(), DEFAULT_VIP.get());
+  }
+
+  /**
+   * Create a client for the regions in the fanOutRegions setting. The vip for a region is
+   * taken from fanOutVips if present, otherwise the default vip is used.
+   */
+  public static EddaFanOut newFanOut(AwsConfiguration config, String vip) {
+    Map<String, String> overrides = SettingsHelper.parseMap(config.fanOutVips());
+    Map<String, String> vips = new LinkedHashMap<String, String>();
+    for (String region : config.fanOutRegions().split(",")) {
+      if (region.trim().length() > 0) {
+        String r = region.trim();
+        vips.put(r, overrides.containsKey(r) ? overrides.get(r) : vip);
+      }
+    }
+    if (vips.isEmpty()) vips.put(NetflixEnvironment.region(), vip);
+    return new EddaFanOut(config, vips);
+  }
 }
@@ -39,6 +39,182 @@ public interface AwsConfiguration extends IConfiguration {
   @DefaultValue("vip://edda-client:${vip}")
   public String url();
 
+  /**
+   * Maximum amount of time to wait for more of the response to a request to edda. The time is
+   * measured from the last content that was received, so a reader that is slow to consume a
+   * response that has already arrived will not time out.
+   */
+  @DefaultValue("PT2M")
+  public Duration readTimeout();
+
+  /**
+   * Maximum number of bytes of a response to hold in memory waiting to be parsed. If the
+   * parser falls behind the network, the remainder is written to a temporary file until it is
+   * read.
+   */
+  @DefaultValue("16777216")
+  public long maxBufferedContent();
+
+  /**
+   * Should id and name filters on describe requests be sent to edda as matrix arguments so
+   * only the matching records are transferred? This is only done for collections that are not
+   * being cached, otherwise the full cached collection is filtered locally.
+   */
+  @DefaultValue("true")
+  public boolean pushDownFilters();
+
+  /**
+   * Should id and name filters be applied to the records as they are parsed? Records that do
+   * not match are skipped without being bound to model objects. This is used when the filter
+   * cannot be pushed down and for the responses to pushed down urls. Like the push down this is
+   * only done for collections that are not being cached or synced.
+   */
+  @DefaultValue("true")
+  public boolean prefilterRecords();
+
+  /** Maximum length of urls with pushed down filters, longer lists will be split. */
+  @DefaultValue("2000")
+  public int maxUrlLength();
+
+  /**
+   * Fields to request for specific collections using the edda _expand selector, for example
+   * "instances=reservationId,instances:(instanceId,state,privateIpAddress,tags)". Only the
+   * selected fields will be set on the returned objects. The selection must include the id
+   * and name fields used to filter the collection.
+   */
+  @DefaultValue("")
+  public String projections();
+
+  /**
+   * Binary format to request from edda, either smile or cbor. The format is requested using
+   * the Accept header with json as a fallback and the format of the response is detected when
+   * it is parsed, so servers that do not support the format will continue to work. The default
+   * of an empty string will only request json.
+   */
+  @DefaultValue("")
+  public String binaryFormat();
+
+  /**
+   * Responses larger than this many bytes are decoded in parallel. The elements of a top level
+   * json array are bound concurrently on the common fork join pool and their order is kept.
+   * The size is taken from the Content-Length of the response. Smaller responses and those
+   * without a length are parsed as they arrive. Use 0 to disable.
+   */
+  @DefaultValue("33554432")
+  public long parallelDecodeThreshold();
+
+  /**
+   * Comma separated list of regions queried by the fan out client. If empty only the current
+   * region is used.
+   */
+  @DefaultValue("")
+  public String fanOutRegions();
+
+  /**
+   * Vip to use for each region with the fan out client, for example
+   * {@code us-east-1=edda-east:7001;eu-west-1=edda-eu:7001}. Regions that are not listed use
+   * the default vip, in that case the url must include {@code ${region}} so each region has a
+   * distinct url.
+   */
+  @DefaultValue("")
+  public String fanOutVips();
+
+  /**
+   * Maximum amount of time to wait for each region with the fan out client. Regions that do
+   * not respond in time are reported as failed and left out of the merged results.
+   */
+  @DefaultValue("PT30S")
+  public Duration fanOutTimeout();
+
+  /////////////////////////////////////////////////////////////////////////////
+  // Settings below control the process wide cache of parsed edda responses
+
+  /**
+   * How long to keep parsed responses from edda in memory. The default of zero disables the
+   * cache so every call will fetch from edda.
+   */
+  @DefaultValue("PT0S")
+  public Duration cacheTtl();
+
+  /**
+   * Overrides of cacheTtl for specific collections, for example "instances=PT30S;images=PT5M".
+   * The collection name is the path segment following aws or view in the edda url.
+   */
+  @DefaultValue("")
+  public String cacheTtls();
+
+  /**
+   * Upper bound on the total size in bytes of the edda responses held in the cache. Least
+   * recently used entries will be evicted to stay under the limit.
+   */
+  @DefaultValue("268435456")
+  public long cacheMaxBytes();
+
+  /////////////////////////////////////////////////////////////////////////////
+  // Settings below control local snapshots of collections
+
+  /**
+   * Comma separated list of collections, for example "instances,images", that should be kept
+   * as a local snapshot. The snapshot is updated by fetching only the records that changed
+   * using the edda _since parameter. Describe calls for these collections are served from the
+   * snapshot and the cache settings are ignored.
+   */
+  @DefaultValue("")
+  public String syncCollections();
+
+  /** How often to fetch changed records for collections that are being synced. */
+  @DefaultValue("PT30S")
+  public Duration syncInterval();
+
+  /**
+   * How often to fetch the complete collection for collections that are being synced. Records
+   * that have been deleted will remain in the snapshot until the next full sync.
+   */
+  @DefaultValue("PT10M")
+  public Duration fullSyncInterval();
+
+  /**
+   * Comma separated list of collections that should be kept as a local snapshot and refreshed
+   * in the background. Describe calls will return the last snapshot without waiting for
+   * edda. If the collection is also listed in syncCollections the refresh will be incremental.
+   */
+  @DefaultValue("")
+  public String refreshCollections();
+
+  /**
+   * How often to refresh collections in the background. The interval is read when the
+   * collection is first used.
+   */
+  @DefaultValue("PT30S")
+  public Duration refreshInterval();
+
+  /**
+   * Maximum age of a background refreshed snapshot that will be returned. If background
+   * refreshes have been failing for longer, describe calls will wait for a new fetch.
+   */
+  @DefaultValue("PT5M")
+  public Duration maxStaleness();
+
+  /**
+   * Directory used to store snapshots of collections so a new process can serve from the last
+   * snapshot while a fresh copy is fetched. This only applies to the collections listed in
+   * syncCollections or refreshCollections. The default of an empty string disables the disk
+   * cache.
+   */
+  @DefaultValue("")
+  public String diskCacheDir();
+
+  /** Snapshots on disk that were last synced longer ago than this will be ignored. */
+  @DefaultValue("PT1H")
+  public Duration diskCacheMaxAge();
+
+  /**
+   * Minimum time between writes of the snapshot for a collection. A full sync is always
+   * written, incremental syncs are written at most once per interval.
+   */
+  @DefaultValue("PT5M")
+  public Duration diskCacheWriteInterval();
+
   /////////////////////////////////////////////////////////////////////////////
   // Settings below are used to setup amazon ClientConfiguration object
 
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import com.amazonaws.services.ec2.model.*;
+
+import com.netflix.edda.util.FilterCompiler;
+
+/**
+ * EC2 filters that can be evaluated locally for each of the types supported by
+ * {@link EddaEc2Client}. The names match the filter names in the EC2 API reference.
+ */
+final class Ec2Filters {
+  private Ec2Filters() {}
+
+  static final FilterCompiler<ClassicLinkInstance> CLASSIC_LINK_INSTANCES =
+    FilterCompiler.<ClassicLinkInstance>builder()
+      .field("instance-id", ClassicLinkInstance::getInstanceId)
+      .field("vpc-id", ClassicLinkInstance::getVpcId)
+      .each("group-id", ClassicLinkInstance::getGroups, GroupIdentifier::getGroupId)
+      .tags(ClassicLinkInstance::getTags)
+      .build();
+
+  static final FilterCompiler<Image> IMAGES =
+    FilterCompiler.<Image>builder()
+      .field("architecture", Image::getArchitecture)
+      .each("block-device-mapping.device-name", Image::getBlockDeviceMappings, BlockDeviceMapping::getDeviceName)
+      .each("block-device-mapping.snapshot-id", Image::getBlockDeviceMappings, m -> m.getEbs() == null ? null : m.getEbs().getSnapshotId())
+      .field("description", Image::getDescription)
+      .field("hypervisor", Image::getHypervisor)
+      .field("image-id", Image::getImageId)
+      .field("image-type", Image::getImageType)
+      .field("is-public", Image::getPublic)
+      .field("kernel-id", Image::getKernelId)
+      .field("name", Image::getName)
+      .field("owner-alias", Image::getImageOwnerAlias)
+      .field("owner-id", Image::getOwnerId)
+      .field("platform", Image::getPlatform)
+      .field("ramdisk-id", Image::getRamdiskId)
+      .field("root-device-name", Image::getRootDeviceName)
+      .field("root-device-type", Image::getRootDeviceType)
+      .field("state", Image::getState)
+      .field("virtualization-type", Image::getVirtualizationType)
+      .tags(Image::getTags)
+      .build();
+
+  static final FilterCompiler<Reservation> RESERVATIONS =
+    FilterCompiler.<Reservation>builder()
+      .field("owner-id", Reservation::getOwnerId)
+      .field("requester-id", Reservation::getRequesterId)
+      .field("reservation-id", Reservation::getReservationId)
+      .build();
+
+  static final FilterCompiler<Instance> INSTANCES =
+    FilterCompiler.<Instance>builder()
+      .field("architecture", Instance::getArchitecture)
+      .field("availability-zone", Instance::getPlacement, Placement::getAvailabilityZone)
+      .field("dns-name", Instance::getPublicDnsName)
+      .field("hypervisor", Instance::getHypervisor)
+      .field("iam-instance-profile.arn", Instance::getIamInstanceProfile, IamInstanceProfile::getArn)
+      .field("image-id", Instance::getImageId)
+      .field("instance-id", Instance::getInstanceId)
+      .field("instance-lifecycle", Instance::getInstanceLifecycle)
+      .field("instance-state-code", Instance::getState, InstanceState::getCode)
+      .field("instance-state-name", Instance::getState, InstanceState::getName)
+      .field("instance-type", Instance::getInstanceType)
+      .each("instance.group-id", Instance::getSecurityGroups, GroupIdentifier::getGroupId)
+      .each("instance.group-name", Instance::getSecurityGroups, GroupIdentifier::getGroupName)
+      .field("ip-address", Instance::getPublicIpAddress)
+      .field("kernel-id", Instance::getKernelId)
+      .field("key-name", Instance::getKeyName)
+      .field("monitoring-state", Instance::getMonitoring, Monitoring::getState)
+      .field("placement-group-name", Instance::getPlacement, Placement::getGroupName)
+      .field("platform", Instance::getPlatform)
+      .field("private-dns-name", Instance::getPrivateDnsName)
+      .field("private-ip-address", Instance::getPrivateIpAddress)
+      .field("ramdisk-id", Instance::getRamdiskId)
+      .field("root-device-name", Instance::getRootDeviceName)
+      .field("root-device-type", Instance::getRootDeviceType)
+      .field("source-dest-check", Instance::getSourceDestCheck)
+      .field("spot-instance-request-id", Instance::getSpotInstanceRequestId)
+      .field("subnet-id", Instance::getSubnetId)
+      .field("tenancy", Instance::getPlacement, Placement::getTenancy)
+      .field("virtualization-type", Instance::getVirtualizationType)
+      .field("vpc-id", Instance::getVpcId)
+      .tags(Instance::getTags)
+      .build();
+
+  static final FilterCompiler<ReservedInstancesOffering> RESERVED_INSTANCES_OFFERINGS =
+    FilterCompiler.<ReservedInstancesOffering>builder()
+      .field("availability-zone", ReservedInstancesOffering::getAvailabilityZone)
+      .field("duration", ReservedInstancesOffering::getDuration)
+      .field("fixed-price", ReservedInstancesOffering::getFixedPrice)
+      .field("instance-type", ReservedInstancesOffering::getInstanceType)
+      .field("marketplace", ReservedInstancesOffering::getMarketplace)
+      .field("product-description", ReservedInstancesOffering::getProductDescription)
+      .field("reserved-instances-offering-id", ReservedInstancesOffering::getReservedInstancesOfferingId)
+      .field("usage-price", ReservedInstancesOffering::getUsagePrice)
+      .build();
+
+  static final FilterCompiler<SecurityGroup> SECURITY_GROUPS =
+    FilterCompiler.<SecurityGroup>builder()
+      .field("description", SecurityGroup::getDescription)
+      .field("group-id", SecurityGroup::getGroupId)
+      .field("group-name", SecurityGroup::getGroupName)
+      .field("owner-id", SecurityGroup::getOwnerId)
+      .field("vpc-id", SecurityGroup::getVpcId)
+      .tags(SecurityGroup::getTags)
+      .build();
+
+  static final FilterCompiler<Subnet> SUBNETS =
+    FilterCompiler.<Subnet>builder()
+      .field("availability-zone", Subnet::getAvailabilityZone)
+      .field("available-ip-address-count", Subnet::getAvailableIpAddressCount)
+      .field("cidr", Subnet::getCidrBlock)
+      .field("cidr-block", Subnet::getCidrBlock)
+      .field("cidrBlock", Subnet::getCidrBlock)
+      .field("default-for-az", Subnet::getDefaultForAz)
+      .field("defaultForAz", Subnet::getDefaultForAz)
+      .field("state", Subnet::getState)
+      .field("subnet-id", Subnet::getSubnetId)
+      .field("vpc-id", Subnet::getVpcId)
+      .tags(Subnet::getTags)
+      .build();
+
+  static final FilterCompiler<Volume> VOLUMES =
+    FilterCompiler.<Volume>builder()
+      .each("attachment.delete-on-termination", Volume::getAttachments, VolumeAttachment::getDeleteOnTermination)
+      .each("attachment.device", Volume::getAttachments, VolumeAttachment::getDevice)
+      .each("attachment.instance-id", Volume::getAttachments, VolumeAttachment::getInstanceId)
+      .each("attachment.status", Volume::getAttachments, VolumeAttachment::getState)
+      .field("availability-zone", Volume::getAvailabilityZone)
+      .field("encrypted", Volume::getEncrypted)
+      .field("size", Volume::getSize)
+      .field("snapshot-id", Volume::getSnapshotId)
+      .field("status", Volume::getState)
+      .field("volume-id", Volume::getVolumeId)
+      .field("volume-type", Volume::getVolumeType)
+      .tags(Volume::getTags)
+      .build();
+
+  static final FilterCompiler<VpcPeeringConnection> VPC_PEERING_CONNECTIONS =
+    FilterCompiler.<VpcPeeringConnection>builder()
+      .field("accepter-vpc-info.cidr-block", VpcPeeringConnection::getAccepterVpcInfo, VpcPeeringConnectionVpcInfo::getCidrBlock)
+      .field("accepter-vpc-info.owner-id", VpcPeeringConnection::getAccepterVpcInfo, VpcPeeringConnectionVpcInfo::getOwnerId)
+      .field("accepter-vpc-info.vpc-id", VpcPeeringConnection::getAccepterVpcInfo, VpcPeeringConnectionVpcInfo::getVpcId)
+      .field("requester-vpc-info.cidr-block", VpcPeeringConnection::getRequesterVpcInfo, VpcPeeringConnectionVpcInfo::getCidrBlock)
+      .field("requester-vpc-info.owner-id", VpcPeeringConnection::getRequesterVpcInfo, VpcPeeringConnectionVpcInfo::getOwnerId)
+      .field("requester-vpc-info.vpc-id", VpcPeeringConnection::getRequesterVpcInfo, VpcPeeringConnectionVpcInfo::getVpcId)
+      .field("status-code", VpcPeeringConnection::getStatus, VpcPeeringConnectionStateReason::getCode)
+      .field("status-message", VpcPeeringConnection::getStatus, VpcPeeringConnectionStateReason::getMessage)
+      .field("vpc-peering-connection-id", VpcPeeringConnection::getVpcPeeringConnectionId)
+      .tags(VpcPeeringConnection::getTags)
+      .build();
+
+  static final FilterCompiler<Vpc> VPCS =
+    FilterCompiler.<Vpc>builder()
+      .field("cidr", Vpc::getCidrBlock)
+      .field("cidr-block", Vpc::getCidrBlock)
+      .field("cidrBlock", Vpc::getCidrBlock)
+      .field("dhcp-options-id", Vpc::getDhcpOptionsId)
+      .field("isDefault", Vpc::getIsDefault)
+      .field("is-default", Vpc::getIsDefault)
+      .field("state", Vpc::getState)
+      .field("vpc-id", Vpc::getVpcId)
+      .tags(Vpc::getTags)
+      .build();
+
+  static final FilterCompiler<VpcClassicLink> VPC_CLASSIC_LINKS =
+    FilterCompiler.<VpcClassicLink>builder()
+      .field("is-classic-link-enabled", VpcClassicLink::getClassicLinkEnabled)
+      .field("vpc-id", VpcClassicLink::getVpcId)
+      .tags(VpcClassicLink::getTags)
+      .build();
+
+  /**
+   * Instance filters are a mix of filters on the reservation, such as the owner, and on the
+   * instances. Returns the subset of filters that apply to the reservation.
+   */
+  static List<Filter> reservationFilters(List<Filter> filters) {
+    List<Filter> fs = new ArrayList<Filter>();
+    if (filters != null) {
+      for (Filter f : filters) {
+        if (RESERVATIONS.supports(f.getName())) fs.add(f);
+      }
+    }
+    return fs;
+  }
+
+  /** Returns the subset of filters that apply to the individual instances. */
+  static List<Filter> instanceFilters(List<Filter> filters) {
+    List<Filter> fs = new ArrayList<Filter>();
+    if (filters != null) {
+      for (Filter f : filters) {
+        if (!RESERVATIONS.supports(f.getName())) fs.add(f);
+      }
+    }
+    return fs;
+  }
+
+  /**
+   * The {@code view/images} endpoint on edda only returns the images owned by the account. If
+   * the only image filter is {@code is-public=false} that view is used instead of filtering
+   * the full images collection.
+   */
+  static boolean isPrivateImagesOnly(List<Filter> filters) {
+    return filters != null &&
+      filters.size() == 1 &&
+      filters.get(0) != null &&
+      "is-public".equals(filters.get(0).getName()) &&
+      filters.get(0).getValues() != null &&
+      filters.get(0).getValues().size() == 1 &&
+      "false".equals(filters.get(0).getValues().get(0));
+  }
+
+  /** Apply the predicate to each record, a null predicate means there are no filters. */
+  static <T> List<T> filter(List<T> records, Predicate<T> p) {
+    if (p == null) return records;
+    List<T> results = new ArrayList<T>();
+    for (T r : records) {
+      if (p.test(r)) results.add(r);
+    }
+    return results;
+  }
+}
@@ -15,19 +15,31 @@
  */
 package com.netflix.edda;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 
-import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.autoscaling.AmazonAutoScaling;
 import com.amazonaws.services.autoscaling.model.*;
 
+import com.netflix.edda.util.Page;
+
 public class EddaAutoScalingClient extends EddaAwsClient {
+  private static final TypeReference<List<AutoScalingGroup>> AUTO_SCALING_GROUP_LIST =
+    new TypeReference<List<AutoScalingGroup>>() {};
+  private static final TypeReference<List<LaunchConfiguration>> LAUNCH_CONFIGURATION_LIST =
+    new TypeReference<List<LaunchConfiguration>>() {};
+  private static final TypeReference<List<ScalingPolicy>> SCALING_POLICY_LIST =
+    new TypeReference<List<ScalingPolicy>>() {};
+
   public EddaAutoScalingClient(AwsConfiguration config, String vip, String region) {
     super(config, vip, region);
+    warm(AUTO_SCALING_GROUP_LIST, config.url() + "/api/v2/aws/autoScalingGroups;_expand", AutoScalingGroup::getAutoScalingGroupName);
+    warm(LAUNCH_CONFIGURATION_LIST, config.url() + "/api/v2/aws/launchConfigurations;_expand", LaunchConfiguration::getLaunchConfigurationName);
+    warm(SCALING_POLICY_LIST, config.url() + "/api/v2/aws/scalingPolicies;_expand", ScalingPolicy::getPolicyARN);
   }
 
   public AmazonAutoScaling readOnly() {
@@ -43,27 +55,37 @@ public class EddaAutoScalingClient extends EddaAwsClient {
   }
 
   public DescribeAutoScalingGroupsResult describeAutoScalingGroups(DescribeAutoScalingGroupsRequest request) {
-    TypeReference<List<AutoScalingGroup>> ref = new TypeReference<List<AutoScalingGroup>>() {};
-    String url = config.url() + "/api/v2/aws/autoScalingGroups;_expand";
-    try {
-      List<AutoScalingGroup> autoScalingGroups = parse(ref, doGet(url));
+    return join(describeAutoScalingGroupsAsync(request));
+  }
 
+  public CompletableFuture<DescribeAutoScalingGroupsResult> describeAutoScalingGroupsAsync() {
+    return describeAutoScalingGroupsAsync(new DescribeAutoScalingGroupsRequest());
+  }
+
+  public CompletableFuture<DescribeAutoScalingGroupsResult> describeAutoScalingGroupsAsync(DescribeAutoScalingGroupsRequest request) {
+    return async(() -> {
+      String url = config.url() + "/api/v2/aws/autoScalingGroups;_expand";
       List<String> names = request.getAutoScalingGroupNames();
-      if (shouldFilter(names)) {
-        List<AutoScalingGroup> asgs = new ArrayList<AutoScalingGroup>();
-        for (AutoScalingGroup asg : autoScalingGroups) {
-          if (matches(names, asg.getAutoScalingGroupName()))
-            asgs.add(asg);
+      Integer max = request.getMaxRecords();
+      String token = request.getNextToken();
+      url = limit(url, max, token, shouldFilter(names));
+      CompletableFuture<List<AutoScalingGroup>> future =
+        getListAsync(AUTO_SCALING_GROUP_LIST, url, AutoScalingGroup::getAutoScalingGroupName, "autoScalingGroupName", names);
+      return future.thenApply(autoScalingGroups -> {
+        int total = autoScalingGroups.size();
+        if (shouldFilter(names)) {
+          autoScalingGroups = select(autoScalingGroups,
+            "autoScalingGroupName", AutoScalingGroup::getAutoScalingGroupName, names);
         }
-        autoScalingGroups = asgs;
-      }
-
-      return new DescribeAutoScalingGroupsResult()
-        .withAutoScalingGroups(autoScalingGroups);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+
+        selectivity("autoScalingGroups", "describeAutoScalingGroups", total, autoScalingGroups);
+        Page<AutoScalingGroup> page = paginate(autoScalingGroups,
+          "autoScalingGroupName", AutoScalingGroup::getAutoScalingGroupName, max, token);
+        return new DescribeAutoScalingGroupsResult()
+          .withAutoScalingGroups(page.items())
+          .withNextToken(page.nextToken());
+      });
+    });
   }
 
   public DescribeLaunchConfigurationsResult describeLaunchConfigurations() {
@@ -71,27 +93,37 @@ public class EddaAutoScalingClient extends EddaAwsClient {
   }
 
   public DescribeLaunchConfigurationsResult describeLaunchConfigurations(DescribeLaunchConfigurationsRequest request) {
-    TypeReference<List<LaunchConfiguration>> ref = new TypeReference<List<LaunchConfiguration>>() {};
-    String url = config.url() + "/api/v2/aws/launchConfigurations;_expand";
-    try {
-      List<LaunchConfiguration> launchConfigurations = parse(ref, doGet(url));
+    return join(describeLaunchConfigurationsAsync(request));
+  }
 
+  public CompletableFuture<DescribeLaunchConfigurationsResult> describeLaunchConfigurationsAsync() {
+    return describeLaunchConfigurationsAsync(new DescribeLaunchConfigurationsRequest());
+  }
+
+  public CompletableFuture<DescribeLaunchConfigurationsResult> describeLaunchConfigurationsAsync(DescribeLaunchConfigurationsRequest request) {
+    return async(() -> {
+      String url = config.url() + "/api/v2/aws/launchConfigurations;_expand";
       List<String> names = request.getLaunchConfigurationNames();
-      if (shouldFilter(names)) {
-        List<LaunchConfiguration> lcs = new ArrayList<LaunchConfiguration>();
-        for (LaunchConfiguration lc : launchConfigurations) {
-          if (matches(names, lc.getLaunchConfigurationName()))
-            lcs.add(lc);
+      Integer max = request.getMaxRecords();
+      String token = request.getNextToken();
+      url = limit(url, max, token, shouldFilter(names));
+      CompletableFuture<List<LaunchConfiguration>> future =
+        getListAsync(LAUNCH_CONFIGURATION_LIST, url, LaunchConfiguration::getLaunchConfigurationName, "launchConfigurationName", names);
+      return future.thenApply(launchConfigurations -> {
+        int total = launchConfigurations.size();
+        if (shouldFilter(names)) {
+          launchConfigurations = select(launchConfigurations,
+            "launchConfigurationName", LaunchConfiguration::getLaunchConfigurationName, names);
         }
-        launchConfigurations = lcs;
-      }
-
-      return new DescribeLaunchConfigurationsResult()
-        .withLaunchConfigurations(launchConfigurations);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+
+        selectivity("launchConfigurations", "describeLaunchConfigurations", total, launchConfigurations);
+        Page<LaunchConfiguration> page = paginate(launchConfigurations,
+          "launchConfigurationName", LaunchConfiguration::getLaunchConfigurationName, max, token);
+        return new DescribeLaunchConfigurationsResult()
+          .withLaunchConfigurations(page.items())
+          .withNextToken(page.nextToken());
+      });
+    });
   }
 
   public DescribePoliciesResult describePolicies() {
@@ -99,27 +131,46 @@ public class EddaAutoScalingClient extends EddaAwsClient {
   }
 
   public DescribePoliciesResult describePolicies(DescribePoliciesRequest request) {
-    TypeReference<List<ScalingPolicy>> ref = new TypeReference<List<ScalingPolicy>>() {};
-    String url = config.url() + "/api/v2/aws/scalingPolicies;_expand";
-    try {
-      List<ScalingPolicy> scalingPolicies = parse(ref, doGet(url));
+    return join(describePoliciesAsync(request));
+  }
 
+  public CompletableFuture<DescribePoliciesResult> describePoliciesAsync() {
+    return describePoliciesAsync(new DescribePoliciesRequest());
+  }
+
+  public CompletableFuture<DescribePoliciesResult> describePoliciesAsync(DescribePoliciesRequest request) {
+    return async(() -> {
+      String url = config.url() + "/api/v2/aws/scalingPolicies;_expand";
       String asg = request.getAutoScalingGroupName();
       List<String> names = request.getPolicyNames();
-      if (shouldFilter(asg) || shouldFilter(names)) {
-        List<ScalingPolicy> sps = new ArrayList<ScalingPolicy>();
-        for (ScalingPolicy sp : scalingPolicies) {
-          if (matches(asg, sp.getAutoScalingGroupName()) && matches(names, sp.getPolicyName()))
-            sps.add(sp);
+      List<String> asgs = shouldFilter(asg) ? Collections.singletonList(asg) : null;
+      Integer max = request.getMaxRecords();
+      String token = request.getNextToken();
+      url = limit(url, max, token, shouldFilter(names) || shouldFilter(asg));
+      CompletableFuture<List<ScalingPolicy>> future = shouldFilter(names)
+        ? getListAsync(SCALING_POLICY_LIST, url, ScalingPolicy::getPolicyARN, "policyName", names)
+        : getListAsync(SCALING_POLICY_LIST, url, ScalingPolicy::getPolicyARN, "autoScalingGroupName", asgs);
+      return future.thenApply(scalingPolicies -> {
+        int total = scalingPolicies.size();
+        if (shouldFilter(asg) || shouldFilter(names)) {
+          List<ScalingPolicy> candidates = shouldFilter(names)
+            ? select(scalingPolicies, "policyName", ScalingPolicy::getPolicyName, names)
+            : select(scalingPolicies, "autoScalingGroupName", ScalingPolicy::getAutoScalingGroupName, asgs);
+          List<ScalingPolicy> sps = new ArrayList<ScalingPolicy>();
+          for (ScalingPolicy sp : candidates) {
+            if (matches(asg, sp.getAutoScalingGroupName()) && matches(names, sp.getPolicyName()))
+              sps.add(sp);
+          }
+          scalingPolicies = sps;
         }
-        scalingPolicies = sps;
-      }
-
-      return new DescribePoliciesResult()
-        .withScalingPolicies(scalingPolicies);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+
+        selectivity("scalingPolicies", "describePolicies", total, scalingPolicies);
+        Page<ScalingPolicy> page =
+          paginate(scalingPolicies, "policyARN", ScalingPolicy::getPolicyARN, max, token);
+        return new DescribePoliciesResult()
+          .withScalingPolicies(page.items())
+          .withNextToken(page.nextToken());
+      });
+    });
   }
 }
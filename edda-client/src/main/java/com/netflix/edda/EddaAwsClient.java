@@ -15,43 +15,172 @@
  */
 package com.netflix.edda;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Type;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.reactivex.netty.protocol.http.client.HttpClientRequest;
+import io.reactivex.netty.protocol.http.client.HttpClientResponse;
+
+import rx.observables.SyncOnSubscribe;
+import rx.schedulers.Schedulers;
+
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.spectator.api.NoopRegistry;
+
+import com.netflix.edda.util.ContentInputStream;
+import com.netflix.edda.util.IndexedList;
+import com.netflix.edda.util.JsonArraySplitter;
+import com.netflix.edda.util.Page;
 import com.netflix.edda.util.ProxyHelper;
+import com.netflix.edda.util.RecordPrefilter;
+import com.netflix.edda.util.SettingsHelper;
 
 abstract public class EddaAwsClient {
+  private static final Logger LOGGER = LoggerFactory.getLogger(EddaAwsClient.class);
+
+  /**
+   * Amount of time to overlap incremental syncs to avoid missing records due to clock skew
+   * between the client and edda.
+   */
+  private static final long SYNC_OVERLAP = 60000L;
+
+  /** Responses of this size or larger are parsed as they arrive rather than buffered. */
+  private static final long MAX_BUFFER = Integer.MAX_VALUE / 2;
+
   final AwsConfiguration config;
   final String vip;
   final String region;
 
+  /** Keys of the background refreshes that were scheduled by this client. */
+  private final Set<String> refreshKeys = ConcurrentHashMap.newKeySet();
+
   public EddaAwsClient(AwsConfiguration config, String vip, String region) {
     this.config = config;
     this.vip = vip;
     this.region = region;
   }
 
-  public void shutdown() {}
+  /**
+   * Stop the background refreshes that were started by this client. The snapshots are kept in
+   * the context, another client using the same collection will resume refreshing it on its next
+   * request.
+   */
+  public void shutdown() {
+    if (!EddaContext.isInitialized()) return;
+    EddaContext.EddaContextInstance ctx = EddaContext.getContext();
+    for (String key : refreshKeys) {
+      ctx.cancelRefresh(key);
+      refreshKeys.remove(key);
+    }
+  }
+
+  /**
+   * Start loading the collection in the background if it is listed in refreshCollections, so
+   * it is ready before the first request. Clients call this from their constructor for each
+   * collection they serve. If the context has not been created yet the collection will be
+   * loaded on first use instead, and nothing is loaded if useEdda is false. The background
+   * refresh is registered in the context once per url, so further clients for the same
+   * collection share the snapshot and the refresh of the first one rather than adding their
+   * own.
+   */
+  protected <T> void warm(TypeReference<List<T>> ref, String url, Function<T, String> key) {
+    if (!config.useEdda() || !EddaContext.isInitialized()) return;
+    if (!isRefreshed(collectionName(mkUrl(url)))) return;
+    getSnapshotAsync(ref, url, key).whenComplete((v, t) -> {
+      if (t != null) LOGGER.warn("failed to load " + mkUrl(url) + " at startup", t);
+    });
+  }
 
   protected <T> T readOnly(Class<T> c) {
     return ProxyHelper.unsupported(c, this);
   }
 
+  /**
+   * Wrap the AWS client so that the operations implemented by this client are served from
+   * edda. Calls passed on to the delegate are counted with the metrics of the current context,
+   * or not at all if there is no context when the wrapper is created.
+   */
   protected <T> T wrapAwsClient(Class<T> c, T delegate) {
-    return ProxyHelper.wrapper(c, delegate, this);
+    final EddaMetrics metrics = EddaContext.isInitialized()
+      ? EddaContext.getContext().getMetrics()
+      : new EddaMetrics(new NoopRegistry());
+    final String api = c.getSimpleName();
+    return ProxyHelper.wrapper(c, delegate, this, m -> metrics.fallback(api, m.getName()));
+  }
+
+  protected EddaMetrics metrics() {
+    return EddaContext.getContext().getMetrics();
   }
 
   protected byte[] doGet(final String uri) {
+    ContentInputStream in = doGetStream(uri);
     try {
-      return EddaContext.getContext().getRxHttp().get(mkUrl(uri))
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int n;
+      while ((n = in.read(buf)) != -1)
+        out.write(buf, 0, n);
+      return out.toByteArray();
+    }
+    catch (Exception e) {
+      Throwable t = (in.getFailure() != null) ? in.getFailure() : e;
+      throw new RuntimeException("failed to get url: " + uri, t);
+    }
+    finally {
+      close(in);
+    }
+  }
+
+  /**
+   * Start fetching the url and return a stream of the response content. The content can be
+   * consumed as it arrives rather than waiting for the full payload to be buffered.
+   */
+  protected ContentInputStream doGetStream(final String uri) {
+    final String collection = collectionName(mkUrl(uri));
+    final EddaMetrics metrics = metrics();
+    final long start = metrics.start();
+    final int[] status = {0};
+    ContentInputStream in = new ContentInputStream(
+      config.readTimeout().getMillis(), config.maxBufferedContent());
+    rx.Subscription subscription = request(mkUrl(uri))
       .flatMap(response -> {
+        status[0] = response.getStatus().code();
         if (response.getStatus().code() != 200) {
           AmazonServiceException e = new AmazonServiceException("Failed to fetch " + uri);
           e.setStatusCode(response.getStatus().code());
@@ -59,34 +188,716 @@ abstract public class EddaAwsClient {
           e.setRequestId(uri);
           return rx.Observable.error(e);
         }
-        return response.getContent()
-        .reduce(
-          new ByteArrayOutputStream(),
-          (out, bb) -> {
-            try { bb.readBytes(out, bb.readableBytes()); }
-            catch (IOException e) { throw new RuntimeException(e); }
-            return out;
+        in.setContentType(response.getHeaders().get(HttpHeaders.Names.CONTENT_TYPE));
+        in.setContentLength(response.getHeaders().getContentLength(-1L));
+        return response.getContent();
+      })
+      .doOnCompleted(() -> metrics.fetch(collection, String.valueOf(status[0]), start))
+      .doOnError(t -> {
+        String s = (status[0] > 0) ? String.valueOf(status[0]) : t.getClass().getSimpleName();
+        metrics.fetch(collection, s, start);
+      })
+      .subscribe(in);
+    in.setSubscription(subscription);
+    return in;
+  }
+
+  /**
+   * Start the request for the url. If a binary format is configured it is requested using the
+   * Accept header with json as a fallback.
+   */
+  private rx.Observable<HttpClientResponse<ByteBuf>> request(String url) {
+    String accept = accept();
+    if (accept == null)
+      return EddaContext.getContext().getRxHttp().get(url);
+    HttpClientRequest<ByteBuf> req = HttpClientRequest.createGet(url)
+      .withHeader(HttpHeaders.Names.ACCEPT, accept);
+    return EddaContext.getContext().getRxHttp().submit(req);
+  }
+
+  /** Value of the Accept header for the configured binary format or null for json only. */
+  private String accept() {
+    String format = config.binaryFormat();
+    if (format == null || format.isEmpty()) return null;
+    switch (format) {
+      case "smile": return JsonHelper.SMILE + ", application/json;q=0.5";
+      case "cbor":  return JsonHelper.CBOR + ", application/json;q=0.5";
+      default: throw new IllegalArgumentException("unsupported binaryFormat: " + format);
+    }
+  }
+
+  private void close(InputStream in) {
+    try { in.close(); }
+    catch (IOException e) { throw new RuntimeException(e); }
+  }
+
+  /**
+   * Fetch and parse the url. Concurrent calls for the same url share a single request to edda
+   * and if caching is enabled for the collection the parsed result will be shared with other
+   * callers until it expires. In either case the result must not be modified.
+   */
+  protected <T> T get(TypeReference<T> ref, String path) throws IOException {
+    return join(getAsync(ref, path));
+  }
+
+  /**
+   * Asynchronous version of {@link #get(TypeReference, String)}. The calling thread is not
+   * blocked. The response is parsed as it arrives on a thread of the context executor, which is
+   * occupied until the full response has been received.
+   */
+  protected <T> CompletableFuture<T> getAsync(final TypeReference<T> ref, final String path) {
+    return fetchAsync(ref, path, null, null);
+  }
+
+  /** Fetch and parse the url using the filter if there is one. */
+  private <T> CompletableFuture<T> getAsync(
+    final TypeReference<T> ref,
+    final String path,
+    final RecordPrefilter filter,
+    final String filterKey
+  ) {
+    if (filter == null) return getAsync(ref, path);
+    return fetchAsync(ref, path, filter, filterKey);
+  }
+
+  /**
+   * Fetch and parse the url, if a filter is specified only the matching records of the top
+   * level array are bound. Filtered results are never cached and only shared with concurrent
+   * callers using the same filter.
+   */
+  private <T> CompletableFuture<T> fetchAsync(
+    final TypeReference<T> ref,
+    final String path,
+    final RecordPrefilter filter,
+    final String filterKey
+  ) {
+    final String url = project(path);
+    final String uri = mkUrl(url);
+    final String collection = collectionName(uri);
+    final long ttl = (filter == null) ? cacheTtl(collection) : 0L;
+    final EddaContext.EddaContextInstance ctx = EddaContext.getContext();
+    final EddaMetrics metrics = ctx.getMetrics();
+    if (ttl > 0L) {
+      @SuppressWarnings("unchecked")
+      T value = (T) ctx.getCache().get(uri);
+      metrics.cache("memory", collection, value != null);
+      if (value != null) return CompletableFuture.completedFuture(value);
+    }
+
+    final String key = (filter == null) ? uri : uri + ";_prefilter:" + filterKey;
+    CompletableFuture<T> future = ctx.getInFlight().execute(key, () -> {
+      final ContentInputStream in = doGetStream(url);
+      return CompletableFuture.supplyAsync(() -> {
+        try {
+          long start = metrics.start();
+          T value = (filter == null) ? decode(ref, in) : select(ref, in, filter);
+          metrics.parse(collection, start, (value instanceof List) ? ((List<?>) value).size() : 1);
+          metrics.bytesReceived(collection, in.getCount());
+          if (ttl > 0L) {
+            value = indexed(value);
+            ctx.getCache().put(uri, value, in.getCount(), ttl, config.cacheMaxBytes());
           }
-        )
-        .map(out -> {
-          return out.toByteArray();
+          return value;
+        }
+        catch (IOException e) {
+          throw parseFailure(uri, path, in, e);
+        }
+        finally {
+          close(in);
+        }
+      }, ctx.getExecutor());
+    });
+    return future.whenComplete((v, t) -> {
+      if (t != null) metrics.error(collection, "get", t);
+    });
+  }
+
+  /**
+   * Fetch the url and pass each record of the top level array to the consumer as it is
+   * decoded. Only one record is held in memory at a time so this can be used to process
+   * collections that are too large to materialize. The memory cache and snapshots are not
+   * used. The future completes with the number of records after the last one has been
+   * consumed.
+   */
+  protected <T> CompletableFuture<Integer> forEachAsync(
+      final Class<T> type, final String path, final Consumer<? super T> consumer) {
+    final String url = project(path);
+    final String uri = mkUrl(url);
+    final String collection = collectionName(uri);
+    final EddaContext.EddaContextInstance ctx = EddaContext.getContext();
+    final EddaMetrics metrics = ctx.getMetrics();
+    final ContentInputStream in = doGetStream(url);
+    CompletableFuture<Integer> future = CompletableFuture.supplyAsync(() -> {
+      try (MappingIterator<T> it = reader(type, in).readValues(in)) {
+        long start = metrics.start();
+        int n = 0;
+        while (it.hasNextValue()) {
+          consumer.accept(it.nextValue());
+          ++n;
+        }
+        metrics.parse(collection, start, n);
+        metrics.bytesReceived(collection, in.getCount());
+        return n;
+      }
+      catch (IOException e) {
+        throw parseFailure(uri, path, in, e);
+      }
+      finally {
+        close(in);
+      }
+    }, ctx.getExecutor());
+    return future.whenComplete((v, t) -> {
+      if (t != null) metrics.error(collection, "forEach", t);
+    });
+  }
+
+  /**
+   * Fetch the records of a collection as a stream. If values are specified they are pushed
+   * down to edda in the same way as for {@link #getList}, callers should still filter the
+   * results. See {@link #stream(Class, String)}.
+   */
+  protected <T> rx.Observable<T> stream(
+      final Class<T> type, String url, String field, List<String> values) {
+    List<String> urls = (config.pushDownFilters() && canPushDown(values))
+      ? pushDownUrls(url, field, values)
+      : Collections.singletonList(url);
+    return rx.Observable.from(urls).concatMap(u -> stream(type, u));
+  }
+
+  /**
+   * Fetch the url and emit each record of the top level array. Records are decoded on the
+   * context executor as they are requested by the subscriber, so only the records that have
+   * been requested and not yet consumed are held in memory. The response content is still
+   * queued as it is received. The memory cache and snapshots are not used. Unsubscribing
+   * will abort the request.
+   */
+  protected <T> rx.Observable<T> stream(final Class<T> type, final String path) {
+    final String url = project(path);
+    final String uri = mkUrl(url);
+    final String collection = collectionName(uri);
+    final EddaContext.EddaContextInstance ctx = EddaContext.getContext();
+    final EddaMetrics metrics = ctx.getMetrics();
+    SyncOnSubscribe<RecordStream<T>, T> records = SyncOnSubscribe.createStateful(
+      () -> open(type, url, path, uri),
+      (s, observer) -> {
+        try {
+          if (s.iterator.hasNextValue()) {
+            observer.onNext(s.iterator.nextValue());
+            ++s.count;
+          }
+          else {
+            metrics.parse(collection, s.start, s.count);
+            metrics.bytesReceived(collection, s.in.getCount());
+            observer.onCompleted();
+          }
+        }
+        catch (IOException e) {
+          throw parseFailure(uri, path, s.in, e);
+        }
+        return s;
+      },
+      s -> close(s.in));
+    return rx.Observable.create(records)
+      .subscribeOn(Schedulers.from(ctx.getExecutor()))
+      .doOnError(t -> metrics.error(collection, "stream", t));
+  }
+
+  private <T> RecordStream<T> open(Class<T> type, String url, String path, String uri) {
+    long start = metrics().start();
+    ContentInputStream in = doGetStream(url);
+    try {
+      MappingIterator<T> it = reader(type, in).readValues(in);
+      return new RecordStream<T>(in, it, start);
+    }
+    catch (IOException e) {
+      close(in);
+      throw parseFailure(uri, path, in, e);
+    }
+  }
+
+  /** State of a response that is being decoded for {@link #stream(Class, String)}. */
+  private static final class RecordStream<T> {
+    final ContentInputStream in;
+    final MappingIterator<T> iterator;
+    final long start;
+    int count = 0;
+
+    RecordStream(ContentInputStream in, MappingIterator<T> iterator, long start) {
+      this.in = in;
+      this.iterator = iterator;
+      this.start = start;
+    }
+  }
+
+  /**
+   * Exception to throw when reading the response failed. If the request itself failed that
+   * is reported rather than the resulting parse error.
+   */
+  private RuntimeException parseFailure(
+      String uri, String path, ContentInputStream in, IOException e) {
+    if (in.getFailure() != null)
+      return new RuntimeException("failed to get url: " + uri, in.getFailure());
+    return new AmazonClientException("Failed to parse " + path, e);
+  }
+
+  /**
+   * Fetch the records of a collection. If values are specified and the collection is not
+   * cached, the values will be pushed down to edda as a matrix argument on the field so only
+   * matching records are transferred. Large lists of values will be split across several
+   * requests to keep the urls under maxUrlLength. Callers should still filter the results as
+   * the full collection will be returned if the values cannot be pushed down.
+   *
+   * If the collection is configured to be synced or refreshed, the records will come from the
+   * local snapshot and the key function is used to merge in updated records.
+   */
+  protected <T> List<T> getList(
+    TypeReference<List<T>> ref,
+    String url,
+    Function<T, String> key,
+    String field,
+    List<String> values
+  ) throws IOException {
+    return join(getListAsync(ref, url, key, field, values));
+  }
+
+  /** Asynchronous version of {@link #getList(TypeReference, String, Function, String, List)}. */
+  protected <T> CompletableFuture<List<T>> getListAsync(
+    TypeReference<List<T>> ref,
+    String url,
+    Function<T, String> key,
+    String field,
+    List<String> values
+  ) {
+    String collection = collectionName(mkUrl(url));
+    if (isSynced(collection) || isRefreshed(collection)) return getSnapshotAsync(ref, url, key);
+    RecordPrefilter filter = canPrefilter(url, values) ? new RecordPrefilter(field, values) : null;
+    String filterKey = (filter == null) ? null : field + "=" + String.join(",", values);
+    if (!canPushDown(url, values)) return getAsync(ref, url, filter, filterKey);
+
+    // Responses for pushed down urls are also filtered in case the matrix argument is ignored
+    List<String> urls = pushDownUrls(url, field, values);
+    if (urls.size() == 1) return getAsync(ref, urls.get(0), filter, filterKey);
+    final List<CompletableFuture<List<T>>> futures = new ArrayList<CompletableFuture<List<T>>>();
+    for (String u : urls)
+      futures.add(getAsync(ref, u, filter, filterKey));
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+      .thenApply(v -> {
+        List<T> results = new ArrayList<T>();
+        for (CompletableFuture<List<T>> f : futures)
+          results.addAll(f.join());
+        return results;
+      });
+  }
+
+  /**
+   * Urls with the values pushed down as a matrix argument on the field. Large lists of values
+   * are split across several urls to keep them under maxUrlLength.
+   */
+  private List<String> pushDownUrls(String url, String field, List<String> values) {
+    List<String> urls = new ArrayList<String>();
+    int maxLength = config.maxUrlLength();
+    int baseLength = mkUrl(project(url)).length() + field.length() + 2;
+    StringBuilder buf = new StringBuilder();
+    for (String v : new LinkedHashSet<String>(values)) {
+      String encoded = encodeMatrixValue(v);
+      if (buf.length() > 0 && baseLength + buf.length() + encoded.length() + 1 > maxLength) {
+        urls.add(url + ";" + field + "=" + buf);
+        buf.setLength(0);
+      }
+      if (buf.length() > 0) buf.append(',');
+      buf.append(encoded);
+    }
+    urls.add(url + ";" + field + "=" + buf);
+    return urls;
+  }
+
+  /**
+   * Run the body of an async request. Validation failures and other exceptions thrown while
+   * preparing the request are reported through the returned future rather than thrown to the
+   * caller, so they can be handled the same way as a failed fetch.
+   */
+  protected <T> CompletableFuture<T> async(Supplier<CompletableFuture<T>> request) {
+    try {
+      return request.get();
+    }
+    catch (RuntimeException e) {
+      CompletableFuture<T> future = new CompletableFuture<T>();
+      future.completeExceptionally(e);
+      return future;
+    }
+  }
+
+  /**
+   * Wait for the future to complete. Failures are thrown as they would have been for a
+   * blocking call rather than wrapped in a CompletionException.
+   */
+  protected <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    }
+    catch (CompletionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof RuntimeException) throw (RuntimeException) t;
+      if (t instanceof Error) throw (Error) t;
+      throw e;
+    }
+  }
+
+  /**
+   * Return the records from the local snapshot of the collection. A full fetch is done on first
+   * use and after fullSyncInterval to pick up deleted records, otherwise for synced collections
+   * only the changed records will be fetched and merged in.
+   *
+   * For collections that are refreshed in the background, the last snapshot is returned
+   * immediately unless it is older than maxStaleness. Otherwise the snapshot is updated before
+   * returning if the last sync is older than syncInterval.
+   *
+   * If the disk cache is enabled, the first call will restore the snapshot written by a
+   * previous process and return it while a sync runs in the background.
+   */
+  protected <T> CompletableFuture<List<T>> getSnapshotAsync(
+    final TypeReference<List<T>> ref,
+    final String url,
+    final Function<T, String> key
+  ) {
+    final String uri = mkUrl(project(url));
+    final EddaContext.EddaContextInstance ctx = EddaContext.getContext();
+    final EddaSnapshot<T> snapshot = ctx.getSnapshot(uri);
+    if (!snapshot.isLoaded() && diskCache() != null) {
+      return restore(ref, uri, key, snapshot).thenCompose(restored -> {
+        metrics().cache("disk", collectionName(uri), restored);
+        if (!restored) return snapshotAsync(ref, url, key, snapshot);
+
+        // Serve from the restored snapshot while a fresh copy is fetched in the background
+        if (isRefreshed(collectionName(uri)))
+          scheduleRefresh(ctx, ref, url, key);
+        sync(ref, url, key).whenComplete((v, t) -> {
+          if (t != null) LOGGER.warn("failed to sync " + uri + " after restoring from disk", t);
         });
-      })
-      .toBlocking()
-      .toFuture()
-      .get(2, TimeUnit.MINUTES);
+        return CompletableFuture.completedFuture(snapshot.records());
+      });
     }
-    catch (Exception e) {
-      throw new RuntimeException("failed to get url: " + uri, e);
+    return snapshotAsync(ref, url, key, snapshot);
+  }
+
+  private <T> CompletableFuture<List<T>> snapshotAsync(
+    final TypeReference<List<T>> ref,
+    final String url,
+    final Function<T, String> key,
+    final EddaSnapshot<T> snapshot
+  ) {
+    final String uri = mkUrl(project(url));
+    final EddaContext.EddaContextInstance ctx = EddaContext.getContext();
+    final String collection = collectionName(uri);
+    long age = System.currentTimeMillis() - snapshot.lastSync();
+    boolean fresh;
+    if (isRefreshed(collection)) {
+      scheduleRefresh(ctx, ref, url, key);
+      fresh = snapshot.isLoaded() && age < config.maxStaleness().getMillis();
+    }
+    else {
+      fresh = snapshot.isLoaded() && age < config.syncInterval().getMillis();
+    }
+    ctx.getMetrics().cache("snapshot", collection, fresh);
+    return fresh ? CompletableFuture.completedFuture(snapshot.records()) : sync(ref, url, key);
+  }
+
+  private <T> void scheduleRefresh(
+    final EddaContext.EddaContextInstance ctx,
+    final TypeReference<List<T>> ref,
+    final String url,
+    final Function<T, String> key
+  ) {
+    final String uri = mkUrl(project(url));
+    long interval = config.refreshInterval().getMillis();
+    if (ctx.scheduleRefresh(uri, interval, () -> sync(ref, url, key)))
+      refreshKeys.add(uri);
+  }
+
+  private <T> CompletableFuture<List<T>> sync(
+    final TypeReference<List<T>> ref,
+    final String url,
+    final Function<T, String> key
+  ) {
+    final String uri = mkUrl(project(url));
+    final EddaContext.EddaContextInstance ctx = EddaContext.getContext();
+    final EddaSnapshot<T> snapshot = ctx.getSnapshot(uri);
+    return ctx.getInFlight().execute(uri + ";_sync", () -> {
+      final long start = System.currentTimeMillis();
+      final boolean full = !snapshot.isLoaded()
+        || !isSynced(collectionName(uri))
+        || start - snapshot.lastFullSync() >= config.fullSyncInterval().getMillis();
+      if (full) {
+        return getAsync(ref, url)
+          .thenApply(rs -> persist(uri, snapshot, snapshot.replace(rs, key, start), true));
+      }
+      else {
+        long since = snapshot.lastSync() - SYNC_OVERLAP;
+        return getAsync(ref, url + ";_since=" + since)
+          .thenApply(rs -> persist(uri, snapshot, snapshot.merge(rs, key, start), false));
+      }
+    });
+  }
+
+  /** Disk cache to use for snapshots or null if it is not enabled. */
+  private EddaDiskCache diskCache() {
+    String dir = config.diskCacheDir();
+    return (dir == null || dir.trim().isEmpty()) ? null : EddaContext.getContext().getDiskCache(dir);
+  }
+
+  /**
+   * Load the snapshot from the disk cache. Concurrent callers share a single read of the file.
+   * Returns true if the snapshot was restored.
+   */
+  private <T> CompletableFuture<Boolean> restore(
+    final TypeReference<List<T>> ref,
+    final String uri,
+    final Function<T, String> key,
+    final EddaSnapshot<T> snapshot
+  ) {
+    final EddaDiskCache disk = diskCache();
+    final EddaContext.EddaContextInstance ctx = EddaContext.getContext();
+    return ctx.getInFlight().execute(uri + ";_restore", () -> CompletableFuture.supplyAsync(() -> {
+      if (snapshot.isLoaded()) return false;
+      EddaDiskCache.Entry<T> entry = disk.read(uri, ref, config.diskCacheMaxAge().getMillis());
+      return entry != null
+        && snapshot.restore(entry.records(), key, entry.syncTime(), entry.fullSyncTime());
+    }, ctx.getExecutor()));
+  }
+
+  /**
+   * Write the snapshot to the disk cache in the background. Full syncs are always written,
+   * incremental syncs at most once per diskCacheWriteInterval.
+   */
+  private <T> List<T> persist(String uri, EddaSnapshot<T> snapshot, List<T> records, boolean full) {
+    final EddaDiskCache disk = diskCache();
+    if (disk == null) return records;
+    final long syncTime = snapshot.lastSync();
+    final long fullSyncTime = snapshot.lastFullSync();
+    if (!full && syncTime - disk.lastWrite(uri) < config.diskCacheWriteInterval().getMillis())
+      return records;
+    final EddaContext.EddaContextInstance ctx = EddaContext.getContext();
+    ctx.getInFlight().execute(uri + ";_persist", () -> CompletableFuture.runAsync(
+      () -> disk.write(uri, records, syncTime, fullSyncTime), ctx.getExecutor()));
+    return records;
+  }
+
+  /** Returns true if the collection is being kept as a local snapshot. */
+  protected boolean isSynced(String collection) {
+    return SettingsHelper.parseSet(config.syncCollections()).contains(collection);
+  }
+
+  /** Returns true if the collection is kept as a local snapshot refreshed in the background. */
+  protected boolean isRefreshed(String collection) {
+    return SettingsHelper.parseSet(config.refreshCollections()).contains(collection);
+  }
+
+  private boolean canPushDown(String url, List<String> values) {
+    if (!config.pushDownFilters() || !canPushDown(values)) return false;
+    return cacheTtl(collectionName(mkUrl(url))) <= 0L;
+  }
+
+  /**
+   * Returns true if the records can be filtered as they are parsed. If a projection is used
+   * the field may not be present so the records are not filtered.
+   */
+  private boolean canPrefilter(String url, List<String> values) {
+    if (!config.prefilterRecords() || !shouldFilter(values)) return false;
+    return cacheTtl(collectionName(mkUrl(url))) <= 0L && project(url).equals(url);
+  }
+
+  /** Returns true if the values can be encoded as a matrix argument. */
+  private boolean canPushDown(List<String> values) {
+    if (!shouldFilter(values)) return false;
+    for (String v : values) {
+      if (v == null || v.length() == 0 || v.indexOf(',') >= 0 || v.indexOf(';') >= 0)
+        return false;
+    }
+    return true;
+  }
+
+  private String encodeMatrixValue(String v) {
+    try {
+      return URLEncoder.encode(v, "UTF-8").replace("+", "%20");
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
     }
   }
 
+  /**
+   * Restrict the fields returned for the url if the projections setting has an entry for the
+   * collection. The projection replaces the plain _expand selector, urls without it are
+   * returned as is.
+   */
+  protected String project(String url) {
+    if (!url.contains(";_expand") || url.contains(";_expand:")) return url;
+    String collection = collectionName(mkUrl(url));
+    String fields = SettingsHelper.parseMap(config.projections()).get(collection);
+    return (fields == null) ? url : url.replace(";_expand", ";_expand:(" + fields + ")");
+  }
+
+  /**
+   * Time to live in milliseconds for cached responses of the collection. Collections that are
+   * kept as a snapshot are not cached.
+   */
+  protected long cacheTtl(String collection) {
+    if (isSynced(collection) || isRefreshed(collection)) return 0L;
+    Map<String, String> ttls = SettingsHelper.parseMap(config.cacheTtls());
+    String ttl = ttls.get(collection);
+    return (ttl == null) ? config.cacheTtl().getMillis() : Duration.parse(ttl).getMillis();
+  }
+
+  /**
+   * Extract the name of the collection from an edda url. For example the collection for
+   * {@code http://edda/api/v2/aws/instances;_expand} is instances.
+   */
+  protected String collectionName(String url) {
+    int pos = url.indexOf("/api/v2/");
+    String path = (pos < 0) ? url : url.substring(pos + "/api/v2/".length());
+    int end = path.indexOf(';');
+    if (end >= 0) path = path.substring(0, end);
+    String[] parts = path.split("/");
+    return (parts.length > 1) ? parts[1] : parts[0];
+  }
+
   protected String mkUrl(String url) {
+    return mkUrl(url, vip, region);
+  }
+
+  /** Substitute the vip and region into the url. */
+  static String mkUrl(String url, String vip, String region) {
     return url.replaceAll("\\$\\{vip\\}", vip).replaceAll("\\$\\{region\\}", region);
   }
 
   protected <T> T parse(TypeReference<T> ref, byte[] body) throws IOException {
-      return JsonHelper.createParser(new ByteArrayInputStream(body)).readValueAs(ref);
+    return JsonHelper.reader(ref.getType()).readValue(body);
+  }
+
+  protected <T> T parse(TypeReference<T> ref, InputStream body) throws IOException {
+    return reader(ref.getType(), body).readValue(body);
+  }
+
+  /**
+   * Parse the response. Json collections with a Content-Length of at least
+   * parallelDecodeThreshold are buffered and split into their elements which are then bound
+   * concurrently. Other responses, including those without a length, are parsed as they arrive.
+   */
+  private <T> T decode(TypeReference<T> ref, InputStream body) throws IOException {
+    long threshold = config.parallelDecodeThreshold();
+    if (threshold <= 0L || JsonHelper.elementType(ref.getType()) == null
+        || JsonHelper.isBinary(contentType(body)))
+      return parse(ref, body);
+
+    long contentLength = contentLength(body);
+    if (contentLength < threshold || contentLength >= MAX_BUFFER)
+      return parse(ref, body);
+
+    // Sized so the response is read without growing the buffer
+    byte[] buf = new byte[(int) contentLength + 1];
+    int length = 0;
+    int n;
+    while ((n = body.read(buf, length, buf.length - length)) != -1) {
+      length += n;
+      if (length == buf.length) {
+        if (length >= MAX_BUFFER)
+          throw new IOException("response is larger than " + MAX_BUFFER + " bytes");
+        buf = Arrays.copyOf(buf, (int) Math.min(2L * length, MAX_BUFFER));
+      }
+    }
+    return parseParallel(ref, buf, length);
+  }
+
+  /**
+   * Bind the elements of the top level json array in chunks on the common fork join pool.
+   * Content that is not an array is parsed on the calling thread.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T parseParallel(TypeReference<T> ref, final byte[] buf, int length)
+      throws IOException {
+    final int[] bounds = JsonArraySplitter.split(buf, 0, length);
+    if (bounds == null) return JsonHelper.reader(ref.getType()).readValue(buf, 0, length);
+
+    final ObjectReader reader = JsonHelper.reader(JsonHelper.elementType(ref.getType()));
+    final int size = bounds.length / 2;
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int chunks = Math.max(1, Math.min(size, pool.getParallelism() * 4));
+    List<ForkJoinTask<List<Object>>> tasks = new ArrayList<ForkJoinTask<List<Object>>>(chunks);
+    for (int c = 0; c < chunks; ++c) {
+      final int from = (int) ((long) size * c / chunks);
+      final int to = (int) ((long) size * (c + 1) / chunks);
+      tasks.add(pool.submit(() -> {
+        List<Object> values = new ArrayList<Object>(to - from);
+        for (int i = from; i < to; ++i) {
+          int start = bounds[2 * i];
+          values.add(reader.readValue(buf, start, bounds[2 * i + 1] - start));
+        }
+        return values;
+      }));
+    }
+
+    List<Object> results = new ArrayList<Object>(size);
+    try {
+      for (ForkJoinTask<List<Object>> task : tasks)
+        results.addAll(task.get());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while decoding", e);
+    }
+    catch (ExecutionException e) {
+      for (ForkJoinTask<List<Object>> task : tasks)
+        task.cancel(false);
+      Throwable t = e.getCause();
+      if (t instanceof IOException) throw (IOException) t;
+      if (t instanceof RuntimeException) throw (RuntimeException) t;
+      throw new IOException("failed to decode", t);
+    }
+    return (T) results;
+  }
+
+  /**
+   * Parse the top level array of the response and only bind the records that match the
+   * filter. Json is matched as it is parsed, records in the binary formats are copied into a
+   * token buffer to be matched.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T select(TypeReference<T> ref, InputStream body, RecordPrefilter filter)
+      throws IOException {
+    String contentType = contentType(body);
+    ObjectReader reader = JsonHelper.reader(JsonHelper.elementType(ref.getType()), contentType);
+    if (!JsonHelper.isBinary(contentType)) return (T) filter.select(body, reader);
+
+    MappingIterator<TokenBuffer> records =
+      JsonHelper.reader(TokenBuffer.class, contentType).readValues(body);
+    try {
+      return (T) filter.select(records, reader);
+    }
+    finally {
+      records.close();
+    }
+  }
+
+  /**
+   * Reader for the response content. Edda may ignore the Accept header, so the format is
+   * taken from the Content-Type of the response rather than from what was requested.
+   */
+  private ObjectReader reader(Type type, InputStream body) throws IOException {
+    return JsonHelper.reader(type, contentType(body));
+  }
+
+  /** Content-Length of the response, or -1 if it is not known. */
+  private static long contentLength(InputStream body) throws IOException {
+    return (body instanceof ContentInputStream)
+      ? ((ContentInputStream) body).getContentLength()
+      : -1L;
+  }
+
+  /** Content-Type of the response, or null for content that did not come from a request. */
+  private static String contentType(InputStream body) throws IOException {
+    return (body instanceof ContentInputStream)
+      ? ((ContentInputStream) body).getContentType()
+      : null;
   }
 
   protected void validateEmpty(String name, String s) {
@@ -99,6 +910,145 @@ abstract public class EddaAwsClient {
       throw new UnsupportedOperationException(name + " required");
   }
 
+  /** Record the percentage of the collection that was returned by a describe operation. */
+  protected void selectivity(String collection, String operation, int total, List<?> records) {
+    metrics().selectivity(collection, operation, total, records.size());
+  }
+
+  /**
+   * Return a page of the records starting after the position in the token. If neither max nor
+   * token are set, all of the records are returned. The name and key are used to find the last
+   * record of the previous page and should match the index used with {@link #select}.
+   */
+  protected <T> Page<T> paginate(
+      List<T> records, String name, Function<T, String> key, Integer max, String token) {
+    return paginate(records, name, key, r -> 1, max, token);
+  }
+
+  /**
+   * Return a page of the records where max limits the total size of the records on the page
+   * rather than the number of records. This is used for reservations where MaxResults applies
+   * to the number of instances. A page always has at least one record, even if its size is
+   * larger than max.
+   */
+  protected <T> Page<T> paginate(
+      List<T> records,
+      String name,
+      Function<T, String> key,
+      ToIntFunction<T> size,
+      Integer max,
+      String token) {
+    if ((max == null || max <= 0) && token == null) return new Page<T>(records, null);
+    int start = (token == null) ? 0 : resume(records, name, key, decode(token));
+    int end = start;
+    if (max == null || max <= 0) {
+      end = records.size();
+    }
+    else {
+      int total = 0;
+      while (end < records.size()) {
+        int n = size.applyAsInt(records.get(end));
+        if (end > start && total + n > max) break;
+        total += n;
+        ++end;
+      }
+    }
+    String next = (end < records.size())
+      ? new Page.Cursor(end, key.apply(records.get(end - 1))).encode()
+      : null;
+    return new Page<T>(records.subList(start, end), next);
+  }
+
+  private Page.Cursor decode(String token) {
+    try {
+      return Page.Cursor.decode(token);
+    }
+    catch (IllegalArgumentException e) {
+      AmazonServiceException ase = new AmazonServiceException("Invalid token: " + token, e);
+      ase.setStatusCode(400);
+      ase.setErrorCode("InvalidNextToken");
+      throw ase;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> int resume(List<T> records, String name, Function<T, String> key, Page.Cursor c) {
+    int offset = Math.min(c.offset(), records.size());
+    if (offset > 0 && c.key().equals(key.apply(records.get(offset - 1))))
+      return offset;
+
+    // The records have changed since the previous page, find the last record
+    int pos = -1;
+    if (records instanceof IndexedList) {
+      pos = ((IndexedList<T>) records).indexOf(name, key, c.key());
+    }
+    else {
+      for (int i = 0; i < records.size() && pos < 0; ++i) {
+        if (c.key().equals(key.apply(records.get(i)))) pos = i;
+      }
+    }
+    return (pos >= 0) ? pos + 1 : offset;
+  }
+
+  /**
+   * Prepare the url for a paginated request.
+   *
+   * <p>For the first page of a collection that is not cached or kept as a snapshot edda's
+   * _limit is used to fetch only that page. One extra record is requested to determine if
+   * there is a next page. This cannot be done if the records will be filtered locally.
+   *
+   * <p>Edda has no way to specify an offset, so later pages are taken from the full collection,
+   * resuming after the last record of the previous page. Unless the collection is cached or
+   * kept as a snapshot it is fetched again for each of those pages, see cacheTtls,
+   * syncCollections and refreshCollections for collections that are paged through often.
+   */
+  protected String limit(String url, Integer max, String token, boolean filtered) {
+    if (max == null || max <= 0 || token != null || filtered) return url;
+    String collection = collectionName(mkUrl(url));
+    boolean local = cacheTtl(collection) > 0L || isSynced(collection) || isRefreshed(collection);
+    return local ? url : url + ";_limit=" + (max + 1);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T indexed(T value) {
+    return (value instanceof List) ? (T) new IndexedList<Object>((List<Object>) value) : value;
+  }
+
+  /**
+   * Select the records where the key is one of the values. Lists that are shared via the cache
+   * or a snapshot use a hash index, other lists are scanned once.
+   */
+  protected <T> List<T> select(
+      List<T> records, String name, Function<T, String> key, List<String> values) {
+    if (records instanceof IndexedList)
+      return ((IndexedList<T>) records).select(name, key, values);
+    Set<String> vs = new HashSet<String>(values);
+    List<T> results = new ArrayList<T>();
+    for (T r : records) {
+      if (vs.contains(key.apply(r)))
+        results.add(r);
+    }
+    return results;
+  }
+
+  /** Like {@link #select} for records that have many keys, such as the instances of a reservation. */
+  protected <T> List<T> selectAny(
+      List<T> records, String name, Function<T, ? extends Collection<String>> keys, List<String> values) {
+    if (records instanceof IndexedList)
+      return ((IndexedList<T>) records).selectAny(name, keys, values);
+    Set<String> vs = new HashSet<String>(values);
+    List<T> results = new ArrayList<T>();
+    for (T r : records) {
+      for (String k : keys.apply(r)) {
+        if (vs.contains(k)) {
+          results.add(r);
+          break;
+        }
+      }
+    }
+    return results;
+  }
+
   protected void validateEmpty(String name, Boolean b) {
     if (b != null)
       throw new UnsupportedOperationException(name + " not supported");
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide cache of parsed edda responses keyed by the resolved url. Entries expire based
+ * on a per-entry time to live and the least recently used entries are evicted when the total
+ * weight, the size of the response payloads, exceeds the limit passed in on put.
+ *
+ * The cached values are shared between all callers and must not be modified.
+ */
+public class EddaCache {
+
+  static final class Entry {
+    final Object value;
+    final long weight;
+    final long expiresAt;
+
+    Entry(Object value, long weight, long expiresAt) {
+      this.value = value;
+      this.weight = weight;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final LinkedHashMap<String, Entry> entries =
+    new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+  private long totalWeight = 0L;
+
+  /** Return the cached value for the url or null if it is missing or expired. */
+  public synchronized Object get(String url) {
+    Entry entry = entries.get(url);
+    if (entry == null) return null;
+    if (entry.expiresAt <= System.currentTimeMillis()) {
+      remove(url);
+      return null;
+    }
+    return entry.value;
+  }
+
+  /**
+   * Add a value to the cache. If the weight of the value is larger than the max weight it will
+   * not be cached.
+   */
+  public synchronized void put(String url, Object value, long weight, long ttl, long maxWeight) {
+    remove(url);
+    if (ttl <= 0L || weight > maxWeight) return;
+    entries.put(url, new Entry(value, weight, System.currentTimeMillis() + ttl));
+    totalWeight += weight;
+
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while (totalWeight > maxWeight && it.hasNext()) {
+      totalWeight -= it.next().getValue().weight;
+      it.remove();
+    }
+  }
+
+  public synchronized void remove(String url) {
+    Entry entry = entries.remove(url);
+    if (entry != null) totalWeight -= entry.weight;
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    totalWeight = 0L;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long weight() {
+    return totalWeight;
+  }
+}
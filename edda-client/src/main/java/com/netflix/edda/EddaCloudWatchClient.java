@@ -15,19 +15,24 @@
  */
 package com.netflix.edda;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 
-import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
 import com.amazonaws.services.cloudwatch.model.*;
 
+import com.netflix.edda.util.Page;
+
 public class EddaCloudWatchClient extends EddaAwsClient {
+  private static final TypeReference<List<MetricAlarm>> METRIC_ALARM_LIST =
+    new TypeReference<List<MetricAlarm>>() {};
+
   public EddaCloudWatchClient(AwsConfiguration config, String vip, String region) {
     super(config, vip, region);
+    warm(METRIC_ALARM_LIST, config.url() + "/api/v2/aws/alarms;_expand", MetricAlarm::getAlarmName);
   }
 
   public AmazonCloudWatch readOnly() {
@@ -43,30 +48,47 @@ public class EddaCloudWatchClient extends EddaAwsClient {
   }
 
   public DescribeAlarmsResult describeAlarms(DescribeAlarmsRequest request) {
-    validateEmpty("ActionPrefix", request.getActionPrefix());
-    validateEmpty("AlarmNamePrefix", request.getAlarmNamePrefix());
+    return join(describeAlarmsAsync(request));
+  }
+
+  public CompletableFuture<DescribeAlarmsResult> describeAlarmsAsync() {
+    return describeAlarmsAsync(new DescribeAlarmsRequest());
+  }
 
-    TypeReference<List<MetricAlarm>> ref = new TypeReference<List<MetricAlarm>>() {};
-    String url = config.url() + "/api/v2/aws/alarms;_expand";
-    try {
-      List<MetricAlarm> metricAlarms = parse(ref, doGet(url));
+  public CompletableFuture<DescribeAlarmsResult> describeAlarmsAsync(DescribeAlarmsRequest request) {
+    return async(() -> {
+      validateEmpty("ActionPrefix", request.getActionPrefix());
+      validateEmpty("AlarmNamePrefix", request.getAlarmNamePrefix());
 
+      String url = config.url() + "/api/v2/aws/alarms;_expand";
       List<String> names = request.getAlarmNames();
       String state = request.getStateValue();
-      if (shouldFilter(names) || shouldFilter(state)) {
-        List<MetricAlarm> mas = new ArrayList<MetricAlarm>();
-        for (MetricAlarm ma : metricAlarms) {
-          if (matches(names, ma.getAlarmName()) && matches(state, ma.getStateValue()))
-            mas.add(ma);
+      Integer max = request.getMaxRecords();
+      String token = request.getNextToken();
+      url = limit(url, max, token, shouldFilter(names) || shouldFilter(state));
+      CompletableFuture<List<MetricAlarm>> future =
+        getListAsync(METRIC_ALARM_LIST, url, MetricAlarm::getAlarmName, "alarmName", names);
+      return future.thenApply(metricAlarms -> {
+        int total = metricAlarms.size();
+        if (shouldFilter(names) || shouldFilter(state)) {
+          List<MetricAlarm> candidates = shouldFilter(names)
+            ? select(metricAlarms, "alarmName", MetricAlarm::getAlarmName, names)
+            : metricAlarms;
+          List<MetricAlarm> mas = new ArrayList<MetricAlarm>();
+          for (MetricAlarm ma : candidates) {
+            if (matches(names, ma.getAlarmName()) && matches(state, ma.getStateValue()))
+              mas.add(ma);
+          }
+          metricAlarms = mas;
         }
-        metricAlarms = mas;
-      }
 
-      return new DescribeAlarmsResult()
-        .withMetricAlarms(metricAlarms);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+        selectivity("alarms", "describeAlarms", total, metricAlarms);
+        Page<MetricAlarm> page =
+          paginate(metricAlarms, "alarmName", MetricAlarm::getAlarmName, max, token);
+        return new DescribeAlarmsResult()
+          .withMetricAlarms(page.items())
+          .withNextToken(page.nextToken());
+      });
+    });
   }
 }
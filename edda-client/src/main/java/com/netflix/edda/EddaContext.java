@@ -15,8 +15,22 @@
  */
 package com.netflix.edda;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -26,17 +40,69 @@ import org.slf4j.LoggerFactory;
 import com.netflix.config.ConfigurationManager;
 
 import com.netflix.iep.http.RxHttp;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Spectator;
+
+import com.netflix.edda.util.SingleFlight;
 
 @Singleton
 public class EddaContext {
   private static final Logger LOGGER = LoggerFactory.getLogger(EddaContext.class);
   private static final String ENABLED_PROP = "edda-client.nflx.enabled";
   private static final String CONFIG_FILE = "edda-client.properties";
+  private static final String THREADS_PROP = "edda-client.executorThreads";
+  private static final AtomicInteger THREAD_ID = new AtomicInteger();
+
+  private static final ThreadFactory THREAD_FACTORY = r -> {
+    Thread t = new Thread(r, "edda-client-" + THREAD_ID.incrementAndGet());
+    t.setDaemon(true);
+    return t;
+  };
+
+  /**
+   * Fixed size pool that runs tasks submitted from one of its own threads on the calling
+   * thread. Otherwise a thread waiting on a nested request could block the task it is
+   * waiting for from ever being run.
+   */
+  private static class NestedCallerRunsExecutor extends ThreadPoolExecutor {
+    private final ThreadLocal<Boolean> worker = new ThreadLocal<Boolean>();
+
+    NestedCallerRunsExecutor(int threads) {
+      super(threads, threads, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), THREAD_FACTORY);
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+      worker.set(Boolean.TRUE);
+    }
+
+    @Override
+    public void execute(Runnable r) {
+      if (worker.get() != null && !isShutdown())
+        r.run();
+      else
+        super.execute(r);
+    }
+  }
 
   public class EddaContextInstance {
     private final RxHttp rxHttp;
-    protected EddaContextInstance(RxHttp rxHttp) {
+    private final EddaMetrics metrics;
+    private final EddaCache cache = new EddaCache();
+    private final SingleFlight inFlight = new SingleFlight();
+    private final ConcurrentHashMap<String, EddaSnapshot<?>> snapshots =
+      new ConcurrentHashMap<String, EddaSnapshot<?>>();
+    private final ConcurrentHashMap<String, EddaDiskCache> diskCaches =
+      new ConcurrentHashMap<String, EddaDiskCache>();
+    private final ConcurrentHashMap<String, ScheduledFuture<?>> refreshers =
+      new ConcurrentHashMap<String, ScheduledFuture<?>>();
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(THREAD_FACTORY);
+    protected EddaContextInstance(RxHttp rxHttp, Registry registry) {
       this.rxHttp = rxHttp;
+      this.metrics = new EddaMetrics(registry);
       try {
         if (ConfigurationManager.getConfigInstance().getBoolean(ENABLED_PROP, true)) {
           LOGGER.debug("loading properties: " + CONFIG_FILE);
@@ -50,10 +116,123 @@ public class EddaContext {
         LOGGER.debug("context creation failed", e);
         throw new RuntimeException(e);
       }
+      int dfltThreads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+      int threads = ConfigurationManager.getConfigInstance().getInt(THREADS_PROP, dfltThreads);
+      ThreadPoolExecutor pool = new NestedCallerRunsExecutor(threads);
+      pool.allowCoreThreadTimeOut(true);
+      this.executor = pool;
     }
     public RxHttp getRxHttp() {
       return rxHttp;
     }
+    public EddaMetrics getMetrics() {
+      return metrics;
+    }
+    public EddaCache getCache() {
+      return cache;
+    }
+    public SingleFlight getInFlight() {
+      return inFlight;
+    }
+    /** Snapshot of the collection for the url, it will be created if needed. */
+    @SuppressWarnings("unchecked")
+    public <T> EddaSnapshot<T> getSnapshot(String url) {
+      return (EddaSnapshot<T>) snapshots.computeIfAbsent(url, k -> new EddaSnapshot<T>());
+    }
+    /** Disk cache for the directory, it will be created if needed. */
+    public EddaDiskCache getDiskCache(String dir) {
+      return diskCaches.computeIfAbsent(dir, EddaDiskCache::new);
+    }
+    /**
+     * Executor used to parse responses as they are received. Parsing reads from the response
+     * while it is still being downloaded, so each request occupies one thread until the full
+     * response has arrived, and a stream occupies one until it is unsubscribed. The number of
+     * threads is limited by the {@code edda-client.executorThreads} property, default twice
+     * the number of processors with a minimum of 4.
+     *
+     * <p>When all threads are busy further requests wait in a queue, so under load requests
+     * queue behind slow downloads. Their responses are still received in the meantime, held
+     * in memory up to maxBufferedContent and then on disk, and time spent waiting in the queue
+     * does not count towards the read timeout. Tasks submitted from a thread of the executor,
+     * for example a blocking request made while consuming a stream, run directly on that
+     * thread instead of waiting in the queue, so nested requests cannot deadlock the pool.
+     */
+    public ExecutorService getExecutor() {
+      return executor;
+    }
+    /**
+     * Return a future that completes with the result of the future, or fails with a
+     * TimeoutException if it has not completed within the timeout in milliseconds. The
+     * original future is not cancelled.
+     */
+    public <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long timeout) {
+      final CompletableFuture<T> result = new CompletableFuture<T>();
+      final ScheduledFuture<?> task = scheduler.schedule(
+        () -> result.completeExceptionally(
+          new TimeoutException("timed out after " + timeout + "ms")),
+        timeout,
+        TimeUnit.MILLISECONDS);
+      future.whenComplete((v, t) -> {
+        task.cancel(false);
+        if (t != null)
+          result.completeExceptionally(t);
+        else
+          result.complete(v);
+      });
+      return result;
+    }
+    /**
+     * Run the refresh task in the background with the given interval in milliseconds. If a
+     * task is already scheduled for the key, or the context has been shutdown, this is a no-op.
+     * Failures are logged and the next refresh will be attempted at the regular interval.
+     * Returns true if a new task was scheduled.
+     */
+    public boolean scheduleRefresh(
+      final String key,
+      final long interval,
+      final Supplier<CompletableFuture<?>> task
+    ) {
+      if (scheduler.isShutdown()) return false;
+      final boolean[] created = {false};
+      refreshers.computeIfAbsent(key, k -> {
+        created[0] = true;
+        return newRefresher(key, interval, task);
+      });
+      return created[0];
+    }
+    private ScheduledFuture<?> newRefresher(
+      final String key,
+      final long interval,
+      final Supplier<CompletableFuture<?>> task
+    ) {
+      return scheduler.scheduleWithFixedDelay(() -> {
+        try {
+          task.get().whenComplete((v, t) -> {
+            if (t != null) LOGGER.warn("failed to refresh " + key, t);
+          });
+        }
+        catch (Exception e) {
+          LOGGER.warn("failed to refresh " + key, e);
+        }
+      }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    /** Stop the background refresh for the key. Returns true if a task was cancelled. */
+    public boolean cancelRefresh(String key) {
+      ScheduledFuture<?> task = refreshers.remove(key);
+      if (task == null) return false;
+      task.cancel(false);
+      return true;
+    }
+    /**
+     * Cancel all background refreshes and stop the threads of the context. Requests that are
+     * already being parsed will run to completion.
+     */
+    public void shutdown() {
+      for (String key : refreshers.keySet())
+        cancelRefresh(key);
+      scheduler.shutdownNow();
+      executor.shutdown();
+    }
   }
 
   private static final AtomicReference<EddaContextInstance> CONTEXT =
@@ -65,8 +244,29 @@ public class EddaContext {
     return ctx;
   }
 
+  protected static boolean isInitialized() {
+    return CONTEXT.get() != null;
+  }
+
+  private final EddaContextInstance instance;
+
   @Inject
   public EddaContext(RxHttp rxHttp) {
-    CONTEXT.set(new EddaContextInstance(rxHttp));
+    this(rxHttp, Spectator.globalRegistry());
+  }
+
+  public EddaContext(RxHttp rxHttp, Registry registry) {
+    instance = new EddaContextInstance(rxHttp, registry);
+    CONTEXT.set(instance);
+  }
+
+  /**
+   * Stop the background refreshes and threads of the context. If it is still the current
+   * context, clients will fail with an IllegalStateException until a new one is created.
+   */
+  @PreDestroy
+  public void shutdown() {
+    instance.shutdown();
+    CONTEXT.compareAndSet(instance, null);
   }
 }
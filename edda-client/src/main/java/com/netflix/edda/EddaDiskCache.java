@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.edda.util.Hash;
+
+/**
+ * Stores snapshots of collections on local disk so a new process can start serving from the
+ * last snapshot rather than waiting for the full collection to be fetched from edda. There is
+ * one file per url with the following layout:
+ *
+ * <pre>
+ * magic          int   "EDDA"
+ * version        int
+ * sync time      long
+ * full sync time long
+ * payload length int
+ * payload crc32  long
+ * payload        gzip compressed json array of the records
+ * </pre>
+ *
+ * Files are written to a temporary file and then moved into place so a reader never sees a
+ * partial write. Files that fail validation are deleted and treated as missing.
+ */
+public class EddaDiskCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(EddaDiskCache.class);
+
+  private static final int MAGIC = 0x45444441;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 36;
+
+  /** Records restored from disk along with the sync times at which they were written. */
+  public static final class Entry<T> {
+    private final List<T> records;
+    private final long syncTime;
+    private final long fullSyncTime;
+
+    Entry(List<T> records, long syncTime, long fullSyncTime) {
+      this.records = records;
+      this.syncTime = syncTime;
+      this.fullSyncTime = fullSyncTime;
+    }
+
+    public List<T> records() {
+      return records;
+    }
+
+    public long syncTime() {
+      return syncTime;
+    }
+
+    public long fullSyncTime() {
+      return fullSyncTime;
+    }
+  }
+
+  private final Path dir;
+  private final ConcurrentHashMap<String, Long> lastWrites = new ConcurrentHashMap<String, Long>();
+
+  public EddaDiskCache(String dir) {
+    this.dir = Paths.get(dir);
+  }
+
+  /** Time of the last write for the url by this process or 0 if it has not been written. */
+  public long lastWrite(String url) {
+    Long t = lastWrites.get(url);
+    return (t == null) ? 0L : t;
+  }
+
+  /**
+   * Read the snapshot for the url. Returns null if there is no file, if it is older than
+   * maxAge milliseconds, or if it is corrupt.
+   */
+  public <T> Entry<T> read(String url, TypeReference<List<T>> ref, long maxAge) {
+    Path file = path(url);
+    if (!Files.isRegularFile(file)) return null;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_SIZE || size > Integer.MAX_VALUE)
+        throw new IOException("invalid file size: " + size);
+
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+      if (buffer.getInt() != MAGIC) throw new IOException("invalid magic");
+      int version = buffer.getInt();
+      if (version != VERSION) throw new IOException("unsupported version: " + version);
+      long syncTime = buffer.getLong();
+      long fullSyncTime = buffer.getLong();
+      int length = buffer.getInt();
+      long crc = buffer.getLong();
+      if (HEADER_SIZE + (long) length != size)
+        throw new IOException("payload length " + length + " does not match file size " + size);
+
+      if (System.currentTimeMillis() - syncTime > maxAge) {
+        LOGGER.debug("ignoring " + file + " for " + url + ", last sync is older than max age");
+        return null;
+      }
+
+      ByteBuffer payload = buffer.slice();
+      CRC32 checksum = new CRC32();
+      checksum.update(payload.duplicate());
+      if (checksum.getValue() != crc) throw new IOException("checksum mismatch");
+
+      try (InputStream in = new GZIPInputStream(new ByteBufferBackedInputStream(payload))) {
+        List<T> records = JsonHelper.reader(ref).readValue(in);
+        lastWrites.putIfAbsent(url, syncTime);
+        return new Entry<T>(records, syncTime, fullSyncTime);
+      }
+    }
+    catch (Exception e) {
+      LOGGER.warn("failed to read " + file + " for " + url + ", deleting", e);
+      delete(file);
+      return null;
+    }
+  }
+
+  /** Write the snapshot for the url. Failures are logged and otherwise ignored. */
+  public void write(String url, List<?> records, long syncTime, long fullSyncTime) {
+    Path file = path(url);
+    Path tmp = null;
+    try {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      try (OutputStream out = new GZIPOutputStream(baos)) {
+        JsonHelper.encode(out, records);
+      }
+      byte[] payload = baos.toByteArray();
+      CRC32 checksum = new CRC32();
+      checksum.update(payload, 0, payload.length);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC);
+      header.putInt(VERSION);
+      header.putLong(syncTime);
+      header.putLong(fullSyncTime);
+      header.putInt(payload.length);
+      header.putLong(checksum.getValue());
+      header.flip();
+
+      Files.createDirectories(dir);
+      tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+        while (header.hasRemaining()) channel.write(header);
+        ByteBuffer body = ByteBuffer.wrap(payload);
+        while (body.hasRemaining()) channel.write(body);
+      }
+      Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      lastWrites.put(url, syncTime);
+    }
+    catch (Exception e) {
+      LOGGER.warn("failed to write " + file + " for " + url, e);
+      if (tmp != null) delete(tmp);
+    }
+  }
+
+  private Path path(String url) {
+    try {
+      return dir.resolve(Hash.sha1(url).toString(16) + ".snapshot");
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void delete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    }
+    catch (IOException e) {
+      LOGGER.debug("failed to delete " + file, e);
+    }
+  }
+}
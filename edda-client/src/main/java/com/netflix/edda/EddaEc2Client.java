@@ -15,19 +15,54 @@
  */
 package com.netflix.edda;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 
-import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.model.*;
 
+import com.netflix.edda.util.Page;
+
 public class EddaEc2Client extends EddaAwsClient {
+  private static final TypeReference<List<ClassicLinkInstance>> CLASSIC_LINK_INSTANCE_LIST =
+    new TypeReference<List<ClassicLinkInstance>>() {};
+  private static final TypeReference<List<Image>> IMAGE_LIST =
+    new TypeReference<List<Image>>() {};
+  private static final TypeReference<List<Reservation>> RESERVATION_LIST =
+    new TypeReference<List<Reservation>>() {};
+  private static final TypeReference<List<ReservedInstancesOffering>> RESERVED_INSTANCES_OFFERING_LIST =
+    new TypeReference<List<ReservedInstancesOffering>>() {};
+  private static final TypeReference<List<SecurityGroup>> SECURITY_GROUP_LIST =
+    new TypeReference<List<SecurityGroup>>() {};
+  private static final TypeReference<List<Subnet>> SUBNET_LIST =
+    new TypeReference<List<Subnet>>() {};
+  private static final TypeReference<List<Volume>> VOLUME_LIST =
+    new TypeReference<List<Volume>>() {};
+  private static final TypeReference<List<VpcPeeringConnection>> VPC_PEERING_CONNECTION_LIST =
+    new TypeReference<List<VpcPeeringConnection>>() {};
+  private static final TypeReference<List<Vpc>> VPC_LIST =
+    new TypeReference<List<Vpc>>() {};
+  private static final TypeReference<List<VpcClassicLink>> VPC_CLASSIC_LINK_LIST =
+    new TypeReference<List<VpcClassicLink>>() {};
+
   public EddaEc2Client(AwsConfiguration config, String vip, String region) {
     super(config, vip, region);
+    warm(CLASSIC_LINK_INSTANCE_LIST, config.url() + "/api/v2/aws/classicLinkInstances;_expand", ClassicLinkInstance::getInstanceId);
+    warm(IMAGE_LIST, config.url() + "/api/v2/aws/images;_expand", Image::getImageId);
+    warm(RESERVATION_LIST, config.url() + "/api/v2/aws/instances;_expand", Reservation::getReservationId);
+    warm(RESERVED_INSTANCES_OFFERING_LIST, config.url() + "/api/v2/aws/reservedInstancesOfferings;_expand", ReservedInstancesOffering::getReservedInstancesOfferingId);
+    warm(SECURITY_GROUP_LIST, config.url() + "/api/v2/aws/securityGroups;_expand", SecurityGroup::getGroupId);
+    warm(SUBNET_LIST, config.url() + "/api/v2/aws/subnets;_expand", Subnet::getSubnetId);
+    warm(VOLUME_LIST, config.url() + "/api/v2/aws/volumes;_expand", Volume::getVolumeId);
+    warm(VPC_PEERING_CONNECTION_LIST, config.url() + "/api/v2/aws/vpcPeeringConnections;_expand", VpcPeeringConnection::getVpcPeeringConnectionId);
+    warm(VPC_LIST, config.url() + "/api/v2/aws/vpcs;_expand", Vpc::getVpcId);
+    warm(VPC_CLASSIC_LINK_LIST, config.url() + "/api/v2/aws/vpcClassicLinks;_expand", VpcClassicLink::getVpcId);
   }
 
   public AmazonEC2 readOnly() {
@@ -43,29 +78,38 @@ public class EddaEc2Client extends EddaAwsClient {
   }
 
   public DescribeClassicLinkInstancesResult describeClassicLinkInstances(DescribeClassicLinkInstancesRequest request) {
-    validateEmpty("Filter", request.getFilters());
+    return join(describeClassicLinkInstancesAsync(request));
+  }
 
-    TypeReference<List<ClassicLinkInstance>> ref = new TypeReference<List<ClassicLinkInstance>>() {};
-    String url = config.url() + "/api/v2/aws/classicLinkInstances;_expand";
-    try {
-      List<ClassicLinkInstance> instances = parse(ref, doGet(url));
+  public CompletableFuture<DescribeClassicLinkInstancesResult> describeClassicLinkInstancesAsync() {
+    return describeClassicLinkInstancesAsync(new DescribeClassicLinkInstancesRequest());
+  }
 
-      List<String> ids = request.getInstanceIds();
-      if (shouldFilter(ids)) {
-        List<ClassicLinkInstance> is = new ArrayList<ClassicLinkInstance>();
-        for (ClassicLinkInstance i : instances) {
-          if (matches(ids, i.getInstanceId()))
-            is.add(i);
-        }
-        instances = is;
-      }
+  public CompletableFuture<DescribeClassicLinkInstancesResult> describeClassicLinkInstancesAsync(DescribeClassicLinkInstancesRequest request) {
+    return async(() -> {
+      Predicate<ClassicLinkInstance> p = Ec2Filters.CLASSIC_LINK_INSTANCES.compile(request.getFilters());
 
-      return new DescribeClassicLinkInstancesResult()
-        .withInstances(instances);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+      String url = config.url() + "/api/v2/aws/classicLinkInstances;_expand";
+      List<String> ids = request.getInstanceIds();
+      Integer max = request.getMaxResults();
+      String token = request.getNextToken();
+      url = limit(url, max, token, shouldFilter(ids) || p != null);
+      CompletableFuture<List<ClassicLinkInstance>> future =
+        getListAsync(CLASSIC_LINK_INSTANCE_LIST, url, ClassicLinkInstance::getInstanceId, "instanceId", ids);
+      return future.thenApply(instances -> {
+        int total = instances.size();
+        if (shouldFilter(ids))
+          instances = select(instances, "instanceId", ClassicLinkInstance::getInstanceId, ids);
+        instances = Ec2Filters.filter(instances, p);
+
+        selectivity("classicLinkInstances", "describeClassicLinkInstances", total, instances);
+        Page<ClassicLinkInstance> page =
+          paginate(instances, "instanceId", ClassicLinkInstance::getInstanceId, max, token);
+        return new DescribeClassicLinkInstancesResult()
+          .withInstances(page.items())
+          .withNextToken(page.nextToken());
+      });
+    });
   }
 
   public DescribeImagesResult describeImages() {
@@ -73,47 +117,47 @@ public class EddaEc2Client extends EddaAwsClient {
   }
 
   public DescribeImagesResult describeImages(DescribeImagesRequest request) {
-    validateEmpty("ExecutableUsers", request.getExecutableUsers());
-    List<Filter> filters = request.getFilters();
-    String path = "aws/images";
-    if (filters != null && filters.size() > 0) {
-      if (
-        filters.size() == 1 &&
-        filters.get(0) != null &&
-        "is-public".equals(filters.get(0).getName()) &&
-         filters.get(0).getValues() != null &&
-         filters.get(0).getValues().size() == 1 &&
-         "false".equals(filters.get(0).getValues().get(0))
-      ) {
-        path = "view/images";
-      }
-      else {
-        throw new UnsupportedOperationException("filters only support is-public=false");
-      }
-    }
+    return join(describeImagesAsync(request));
+  }
 
-    TypeReference<List<Image>> ref = new TypeReference<List<Image>>() {};
-    String url = config.url() + "/api/v2/"+ path + ";_expand";
-    try {
-      List<Image> images = parse(ref, doGet(url));
+  public CompletableFuture<DescribeImagesResult> describeImagesAsync() {
+    return describeImagesAsync(new DescribeImagesRequest());
+  }
+
+  public CompletableFuture<DescribeImagesResult> describeImagesAsync(DescribeImagesRequest request) {
+    return async(() -> {
+      validateEmpty("ExecutableUsers", request.getExecutableUsers());
+      List<Filter> filters = request.getFilters();
+      boolean privateOnly = Ec2Filters.isPrivateImagesOnly(filters);
+      String path = privateOnly ? "view/images" : "aws/images";
+      Predicate<Image> p = privateOnly ? null : Ec2Filters.IMAGES.compile(filters);
 
+      String url = config.url() + "/api/v2/"+ path + ";_expand";
       List<String> owners = request.getOwners();
       List<String> ids = request.getImageIds();
-      if (shouldFilter(owners) || shouldFilter(ids)) {
-        List<Image> is = new ArrayList<Image>();
-        for (Image i : images) {
-          if (matches(owners, i.getOwnerId()) && matches(ids, i.getImageId()))
-            is.add(i);
+      CompletableFuture<List<Image>> future = shouldFilter(ids)
+        ? getListAsync(IMAGE_LIST, url, Image::getImageId, "imageId", ids)
+        : getListAsync(IMAGE_LIST, url, Image::getImageId, "ownerId", owners);
+      return future.thenApply(images -> {
+        int total = images.size();
+        if (shouldFilter(owners) || shouldFilter(ids)) {
+          List<Image> candidates = shouldFilter(ids)
+            ? select(images, "imageId", Image::getImageId, ids)
+            : select(images, "ownerId", Image::getOwnerId, owners);
+          List<Image> is = new ArrayList<Image>();
+          for (Image i : candidates) {
+            if (matches(owners, i.getOwnerId()) && matches(ids, i.getImageId()))
+              is.add(i);
+          }
+          images = is;
         }
-        images = is;
-      }
+        images = Ec2Filters.filter(images, p);
 
-      return new DescribeImagesResult()
-        .withImages(images);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+        selectivity("images", "describeImages", total, images);
+        return new DescribeImagesResult()
+          .withImages(images);
+      });
+    });
   }
 
   public DescribeInstancesResult describeInstances() {
@@ -121,33 +165,155 @@ public class EddaEc2Client extends EddaAwsClient {
   }
 
   public DescribeInstancesResult describeInstances(DescribeInstancesRequest request) {
-    validateEmpty("Filter", request.getFilters());
+    return join(describeInstancesAsync(request));
+  }
 
-    TypeReference<List<Reservation>> ref = new TypeReference<List<Reservation>>() {};
-    String url = config.url() + "/api/v2/aws/instances;_expand";
-    try {
-      List<Reservation> reservations = parse(ref, doGet(url));
+  public CompletableFuture<DescribeInstancesResult> describeInstancesAsync() {
+    return describeInstancesAsync(new DescribeInstancesRequest());
+  }
 
+  public CompletableFuture<DescribeInstancesResult> describeInstancesAsync(DescribeInstancesRequest request) {
+    return async(() -> {
+      List<Filter> filters = request.getFilters();
+      Predicate<Reservation> rp = Ec2Filters.RESERVATIONS.compile(Ec2Filters.reservationFilters(filters));
+      Predicate<Instance> ip = Ec2Filters.INSTANCES.compile(Ec2Filters.instanceFilters(filters));
+
+      String url = config.url() + "/api/v2/aws/instances;_expand";
       List<String> ids = request.getInstanceIds();
-      if (shouldFilter(ids)) {
-        List<Reservation> rs = new ArrayList<Reservation>();
-        for (Reservation r : reservations) {
-          List<Instance> is = new ArrayList<Instance>();
-          for (Instance i : r.getInstances()) {
-            if (matches(ids, i.getInstanceId()))
-              is.add(i);
+      Integer max = request.getMaxResults();
+      String token = request.getNextToken();
+      url = limit(url, max, token, shouldFilter(ids) || rp != null || ip != null);
+      CompletableFuture<List<Reservation>> future =
+        getListAsync(RESERVATION_LIST, url, Reservation::getReservationId, "instances.instanceId", ids);
+      return future.thenApply(reservations -> {
+        int total = reservations.size();
+        if (shouldFilter(ids) || rp != null || ip != null) {
+          Set<String> idSet = shouldFilter(ids) ? new HashSet<String>(ids) : null;
+          List<Reservation> candidates = shouldFilter(ids)
+            ? selectAny(reservations, "instanceId", this::instanceIds, ids)
+            : reservations;
+          Set<String> seen = new HashSet<String>();
+          List<Reservation> rs = new ArrayList<Reservation>();
+          for (Reservation r : candidates) {
+            if (r.getReservationId() != null && !seen.add(r.getReservationId()))
+              continue;
+            if (rp != null && !rp.test(r))
+              continue;
+            Reservation matched = matchInstances(r, idSet, ip);
+            if (matched != null)
+              rs.add(matched);
           }
-          if (is.size() > 0)
-            rs.add(r.withInstances(is));
+          reservations = rs;
         }
-        reservations = rs;
-      }
-      return new DescribeInstancesResult()
-        .withReservations(reservations);
+        selectivity("instances", "describeInstances", total, reservations);
+        // MaxResults is the number of instances, a reservation is never split across pages
+        Page<Reservation> page = paginate(reservations, "reservationId",
+          Reservation::getReservationId, this::instanceCount, max, token);
+        return new DescribeInstancesResult()
+          .withReservations(page.items())
+          .withNextToken(page.nextToken());
+      });
+    });
+  }
+
+  /**
+   * Stream the reservations that match the request. Reservations are decoded as they are
+   * requested by the subscriber so a scan of the full fleet does not need to hold the
+   * collection in memory. The memory cache and snapshots are not used. The reservations are
+   * emitted in the order returned by edda, MaxResults limits the number that are emitted and
+   * NextToken is not supported.
+   */
+  public rx.Observable<Reservation> streamInstances(DescribeInstancesRequest request) {
+    validateEmpty("NextToken", request.getNextToken());
+    List<Filter> filters = request.getFilters();
+    Predicate<Reservation> rp = Ec2Filters.RESERVATIONS.compile(Ec2Filters.reservationFilters(filters));
+    Predicate<Instance> ip = Ec2Filters.INSTANCES.compile(Ec2Filters.instanceFilters(filters));
+
+    String url = config.url() + "/api/v2/aws/instances;_expand";
+    List<String> ids = request.getInstanceIds();
+    rx.Observable<Reservation> all = stream(Reservation.class, url, "instances.instanceId", ids);
+    rx.Observable<Reservation> reservations = all;
+    if (shouldFilter(ids) || rp != null || ip != null) {
+      Set<String> idSet = shouldFilter(ids) ? new HashSet<String>(ids) : null;
+      reservations = rx.Observable.defer(() -> {
+        Set<String> seen = new HashSet<String>();
+        return all
+          .filter(r -> r.getReservationId() == null || seen.add(r.getReservationId()))
+          .filter(r -> rp == null || rp.test(r))
+          .map(r -> matchInstances(r, idSet, ip))
+          .filter(r -> r != null);
+      });
+    }
+    Integer max = request.getMaxResults();
+    return (max != null && max > 0) ? reservations.take(max) : reservations;
+  }
+
+  /**
+   * Stream the images that match the request. See
+   * {@link #streamInstances(DescribeInstancesRequest)}.
+   */
+  public rx.Observable<Image> streamImages(DescribeImagesRequest request) {
+    validateEmpty("ExecutableUsers", request.getExecutableUsers());
+    List<Filter> filters = request.getFilters();
+    String path = "aws/images";
+    Predicate<Image> p = null;
+    if (Ec2Filters.isPrivateImagesOnly(filters))
+      path = "view/images";
+    else
+      p = Ec2Filters.IMAGES.compile(filters);
+
+    String url = config.url() + "/api/v2/"+ path + ";_expand";
+    List<String> owners = request.getOwners();
+    List<String> ids = request.getImageIds();
+    rx.Observable<Image> images = shouldFilter(ids)
+      ? stream(Image.class, url, "imageId", ids)
+      : stream(Image.class, url, "ownerId", owners);
+    Predicate<Image> predicate = p;
+    return images.filter(i -> matches(owners, i.getOwnerId())
+      && matches(ids, i.getImageId())
+      && (predicate == null || predicate.test(i)));
+  }
+
+  public InstanceTable describeInstanceTable() {
+    return join(describeInstanceTableAsync());
+  }
+
+  /**
+   * Fetch the instances collection into a column oriented table. Reservations are added to the
+   * table as they are decoded so the complete list of model objects is never held in memory.
+   * The memory cache and snapshots are not used, callers should keep the table and refresh it
+   * as needed.
+   */
+  public CompletableFuture<InstanceTable> describeInstanceTableAsync() {
+    String url = config.url() + "/api/v2/aws/instances;_expand";
+    InstanceTable.Builder builder = InstanceTable.builder();
+    return forEachAsync(Reservation.class, url, builder::add).thenApply(n -> builder.build());
+  }
+
+  /**
+   * Copy of the reservation with only the instances that match, or null if there are none.
+   * The id set and predicate are optional.
+   */
+  private Reservation matchInstances(Reservation r, Set<String> ids, Predicate<Instance> ip) {
+    List<Instance> is = new ArrayList<Instance>();
+    for (Instance i : r.getInstances()) {
+      if ((ids == null || ids.contains(i.getInstanceId())) && (ip == null || ip.test(i)))
+        is.add(i);
     }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
+    return is.isEmpty() ? null : r.clone().withInstances(is);
+  }
+
+  private List<String> instanceIds(Reservation r) {
+    List<String> ids = new ArrayList<String>();
+    if (r.getInstances() != null) {
+      for (Instance i : r.getInstances())
+        ids.add(i.getInstanceId());
     }
+    return ids;
+  }
+
+  private int instanceCount(Reservation r) {
+    return (r.getInstances() == null) ? 0 : r.getInstances().size();
   }
 
   public DescribeReservedInstancesOfferingsResult describeReservedInstancesOfferings() {
@@ -155,34 +321,46 @@ public class EddaEc2Client extends EddaAwsClient {
   }
 
   public DescribeReservedInstancesOfferingsResult describeReservedInstancesOfferings(DescribeReservedInstancesOfferingsRequest request) {
-    validateEmpty("Filter", request.getFilters());
-    validateEmpty("AvailabilityZone", request.getAvailabilityZone());
-    validateEmpty("IncludeMarketplace", request.getIncludeMarketplace());
-    validateEmpty("InstanceTenancy", request.getInstanceTenancy());
-    validateEmpty("InstanceType", request.getInstanceType());
-    validateEmpty("OfferingType", request.getOfferingType());
-    validateEmpty("ProductDescription", request.getProductDescription());
-
-    TypeReference<List<ReservedInstancesOffering>> ref = new TypeReference<List<ReservedInstancesOffering>>() {};
-    String url = config.url() + "/api/v2/aws/reservedInstancesOfferings;_expand";
-    try {
-      List<ReservedInstancesOffering> reservedInstancesOfferings = parse(ref, doGet(url));
+    return join(describeReservedInstancesOfferingsAsync(request));
+  }
 
+  public CompletableFuture<DescribeReservedInstancesOfferingsResult> describeReservedInstancesOfferingsAsync() {
+    return describeReservedInstancesOfferingsAsync(new DescribeReservedInstancesOfferingsRequest());
+  }
+
+  public CompletableFuture<DescribeReservedInstancesOfferingsResult> describeReservedInstancesOfferingsAsync(DescribeReservedInstancesOfferingsRequest request) {
+    return async(() -> {
+      Predicate<ReservedInstancesOffering> p = Ec2Filters.RESERVED_INSTANCES_OFFERINGS.compile(request.getFilters());
+      validateEmpty("AvailabilityZone", request.getAvailabilityZone());
+      validateEmpty("IncludeMarketplace", request.getIncludeMarketplace());
+      validateEmpty("InstanceTenancy", request.getInstanceTenancy());
+      validateEmpty("InstanceType", request.getInstanceType());
+      validateEmpty("OfferingType", request.getOfferingType());
+      validateEmpty("ProductDescription", request.getProductDescription());
+
+      String url = config.url() + "/api/v2/aws/reservedInstancesOfferings;_expand";
       List<String> ids = request.getReservedInstancesOfferingIds();
-      if (shouldFilter(ids)) {
-        List<ReservedInstancesOffering> rs = new ArrayList<ReservedInstancesOffering>();
-        for (ReservedInstancesOffering r : reservedInstancesOfferings) {
-          if (matches(ids, r.getReservedInstancesOfferingId()))
-            rs.add(r);
+      Integer max = request.getMaxResults();
+      String token = request.getNextToken();
+      url = limit(url, max, token, shouldFilter(ids) || p != null);
+      CompletableFuture<List<ReservedInstancesOffering>> future =
+        getListAsync(RESERVED_INSTANCES_OFFERING_LIST, url, ReservedInstancesOffering::getReservedInstancesOfferingId, "reservedInstancesOfferingId", ids);
+      return future.thenApply(reservedInstancesOfferings -> {
+        int total = reservedInstancesOfferings.size();
+        if (shouldFilter(ids)) {
+          reservedInstancesOfferings = select(reservedInstancesOfferings,
+            "reservedInstancesOfferingId", ReservedInstancesOffering::getReservedInstancesOfferingId, ids);
         }
-        reservedInstancesOfferings = rs;
-      }
-      return new DescribeReservedInstancesOfferingsResult()
-        .withReservedInstancesOfferings(reservedInstancesOfferings);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+        reservedInstancesOfferings = Ec2Filters.filter(reservedInstancesOfferings, p);
+
+        selectivity("reservedInstancesOfferings", "describeReservedInstancesOfferings", total, reservedInstancesOfferings);
+        Page<ReservedInstancesOffering> page = paginate(reservedInstancesOfferings,
+          "reservedInstancesOfferingId", ReservedInstancesOffering::getReservedInstancesOfferingId, max, token);
+        return new DescribeReservedInstancesOfferingsResult()
+          .withReservedInstancesOfferings(page.items())
+          .withNextToken(page.nextToken());
+      });
+    });
   }
 
   public DescribeSecurityGroupsResult describeSecurityGroups() {
@@ -190,30 +368,43 @@ public class EddaEc2Client extends EddaAwsClient {
   }
 
   public DescribeSecurityGroupsResult describeSecurityGroups(DescribeSecurityGroupsRequest request) {
-    validateEmpty("Filter", request.getFilters());
+    return join(describeSecurityGroupsAsync(request));
+  }
+
+  public CompletableFuture<DescribeSecurityGroupsResult> describeSecurityGroupsAsync() {
+    return describeSecurityGroupsAsync(new DescribeSecurityGroupsRequest());
+  }
 
-    TypeReference<List<SecurityGroup>> ref = new TypeReference<List<SecurityGroup>>() {};
-    String url = config.url() + "/api/v2/aws/securityGroups;_expand";
-    try {
-      List<SecurityGroup> securityGroups = parse(ref, doGet(url));
+  public CompletableFuture<DescribeSecurityGroupsResult> describeSecurityGroupsAsync(DescribeSecurityGroupsRequest request) {
+    return async(() -> {
+      Predicate<SecurityGroup> p = Ec2Filters.SECURITY_GROUPS.compile(request.getFilters());
 
+      String url = config.url() + "/api/v2/aws/securityGroups;_expand";
       List<String> names = request.getGroupNames();
       List<String> ids = request.getGroupIds();
-      if (shouldFilter(names) || shouldFilter(ids)) {
-        List<SecurityGroup> sgs = new ArrayList<SecurityGroup>();
-        for (SecurityGroup sg : securityGroups) {
-          if (matches(names, sg.getGroupName()) && matches(ids, sg.getGroupId()))
-            sgs.add(sg);
+      CompletableFuture<List<SecurityGroup>> future = shouldFilter(ids)
+        ? getListAsync(SECURITY_GROUP_LIST, url, SecurityGroup::getGroupId, "groupId", ids)
+        : getListAsync(SECURITY_GROUP_LIST, url, SecurityGroup::getGroupId, "groupName", names);
+      return future.thenApply(securityGroups -> {
+        int total = securityGroups.size();
+        if (shouldFilter(names) || shouldFilter(ids)) {
+          List<SecurityGroup> candidates = shouldFilter(ids)
+            ? select(securityGroups, "groupId", SecurityGroup::getGroupId, ids)
+            : select(securityGroups, "groupName", SecurityGroup::getGroupName, names);
+          List<SecurityGroup> sgs = new ArrayList<SecurityGroup>();
+          for (SecurityGroup sg : candidates) {
+            if (matches(names, sg.getGroupName()) && matches(ids, sg.getGroupId()))
+              sgs.add(sg);
+          }
+          securityGroups = sgs;
         }
-        securityGroups = sgs;
-      }
+        securityGroups = Ec2Filters.filter(securityGroups, p);
 
-      return new DescribeSecurityGroupsResult()
-        .withSecurityGroups(securityGroups);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+        selectivity("securityGroups", "describeSecurityGroups", total, securityGroups);
+        return new DescribeSecurityGroupsResult()
+          .withSecurityGroups(securityGroups);
+      });
+    });
   }
 
   public DescribeSubnetsResult describeSubnets() {
@@ -221,29 +412,32 @@ public class EddaEc2Client extends EddaAwsClient {
   }
 
   public DescribeSubnetsResult describeSubnets(DescribeSubnetsRequest request) {
-    validateEmpty("Filter", request.getFilters());
+    return join(describeSubnetsAsync(request));
+  }
 
-    TypeReference<List<Subnet>> ref = new TypeReference<List<Subnet>>() {};
-    String url = config.url() + "/api/v2/aws/subnets;_expand";
-    try {
-      List<Subnet> subnets = parse(ref, doGet(url));
+  public CompletableFuture<DescribeSubnetsResult> describeSubnetsAsync() {
+    return describeSubnetsAsync(new DescribeSubnetsRequest());
+  }
 
-      List<String> ids = request.getSubnetIds();
-      if (shouldFilter(ids)) {
-        List<Subnet> ss = new ArrayList<Subnet>();
-        for (Subnet s : subnets) {
-          if (matches(ids, s.getSubnetId()))
-            ss.add(s);
-        }
-        subnets = ss;
-      }
+  public CompletableFuture<DescribeSubnetsResult> describeSubnetsAsync(DescribeSubnetsRequest request) {
+    return async(() -> {
+      Predicate<Subnet> p = Ec2Filters.SUBNETS.compile(request.getFilters());
 
-      return new DescribeSubnetsResult()
-        .withSubnets(subnets);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+      String url = config.url() + "/api/v2/aws/subnets;_expand";
+      List<String> ids = request.getSubnetIds();
+      CompletableFuture<List<Subnet>> future =
+        getListAsync(SUBNET_LIST, url, Subnet::getSubnetId, "subnetId", ids);
+      return future.thenApply(subnets -> {
+        int total = subnets.size();
+        if (shouldFilter(ids))
+          subnets = select(subnets, "subnetId", Subnet::getSubnetId, ids);
+        subnets = Ec2Filters.filter(subnets, p);
+
+        selectivity("subnets", "describeSubnets", total, subnets);
+        return new DescribeSubnetsResult()
+          .withSubnets(subnets);
+      });
+    });
   }
 
   public DescribeVolumesResult describeVolumes() {
@@ -251,29 +445,37 @@ public class EddaEc2Client extends EddaAwsClient {
   }
 
   public DescribeVolumesResult describeVolumes(DescribeVolumesRequest request) {
-    validateEmpty("Filter", request.getFilters());
+    return join(describeVolumesAsync(request));
+  }
 
-    TypeReference<List<Volume>> ref = new TypeReference<List<Volume>>() {};
-    String url = config.url() + "/api/v2/aws/volumes;_expand";
-    try {
-      List<Volume> volumes = parse(ref, doGet(url));
+  public CompletableFuture<DescribeVolumesResult> describeVolumesAsync() {
+    return describeVolumesAsync(new DescribeVolumesRequest());
+  }
 
-      List<String> ids = request.getVolumeIds();
-      if (shouldFilter(ids)) {
-        List<Volume> vs = new ArrayList<Volume>();
-        for (Volume v : volumes) {
-          if (matches(ids, v.getVolumeId()))
-            vs.add(v);
-        }
-        volumes = vs;
-      }
+  public CompletableFuture<DescribeVolumesResult> describeVolumesAsync(DescribeVolumesRequest request) {
+    return async(() -> {
+      Predicate<Volume> p = Ec2Filters.VOLUMES.compile(request.getFilters());
 
-      return new DescribeVolumesResult()
-        .withVolumes(volumes);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+      String url = config.url() + "/api/v2/aws/volumes;_expand";
+      List<String> ids = request.getVolumeIds();
+      Integer max = request.getMaxResults();
+      String token = request.getNextToken();
+      url = limit(url, max, token, shouldFilter(ids) || p != null);
+      CompletableFuture<List<Volume>> future =
+        getListAsync(VOLUME_LIST, url, Volume::getVolumeId, "volumeId", ids);
+      return future.thenApply(volumes -> {
+        int total = volumes.size();
+        if (shouldFilter(ids))
+          volumes = select(volumes, "volumeId", Volume::getVolumeId, ids);
+        volumes = Ec2Filters.filter(volumes, p);
+
+        selectivity("volumes", "describeVolumes", total, volumes);
+        Page<Volume> page = paginate(volumes, "volumeId", Volume::getVolumeId, max, token);
+        return new DescribeVolumesResult()
+          .withVolumes(page.items())
+          .withNextToken(page.nextToken());
+      });
+    });
   }
 
   public DescribeVpcPeeringConnectionsResult describeVpcPeeringConnections() {
@@ -281,29 +483,34 @@ public class EddaEc2Client extends EddaAwsClient {
   }
 
   public DescribeVpcPeeringConnectionsResult describeVpcPeeringConnections(DescribeVpcPeeringConnectionsRequest request) {
-    validateEmpty("Filter", request.getFilters());
+    return join(describeVpcPeeringConnectionsAsync(request));
+  }
+
+  public CompletableFuture<DescribeVpcPeeringConnectionsResult> describeVpcPeeringConnectionsAsync() {
+    return describeVpcPeeringConnectionsAsync(new DescribeVpcPeeringConnectionsRequest());
+  }
 
-    TypeReference<List<VpcPeeringConnection>> ref = new TypeReference<List<VpcPeeringConnection>>() {};
-    String url = config.url() + "/api/v2/aws/vpcPeeringConnections;_expand";
-    try {
-      List<VpcPeeringConnection> vpcs = parse(ref, doGet(url));
+  public CompletableFuture<DescribeVpcPeeringConnectionsResult> describeVpcPeeringConnectionsAsync(DescribeVpcPeeringConnectionsRequest request) {
+    return async(() -> {
+      Predicate<VpcPeeringConnection> p = Ec2Filters.VPC_PEERING_CONNECTIONS.compile(request.getFilters());
 
+      String url = config.url() + "/api/v2/aws/vpcPeeringConnections;_expand";
       List<String> ids = request.getVpcPeeringConnectionIds();
-      if (shouldFilter(ids)) {
-        List<VpcPeeringConnection> vs = new ArrayList<VpcPeeringConnection>();
-        for (VpcPeeringConnection v : vpcs) {
-          if (matches(ids, v.getVpcPeeringConnectionId()))
-            vs.add(v);
+      CompletableFuture<List<VpcPeeringConnection>> future =
+        getListAsync(VPC_PEERING_CONNECTION_LIST, url, VpcPeeringConnection::getVpcPeeringConnectionId, "vpcPeeringConnectionId", ids);
+      return future.thenApply(vpcs -> {
+        int total = vpcs.size();
+        if (shouldFilter(ids)) {
+          vpcs = select(vpcs, "vpcPeeringConnectionId",
+            VpcPeeringConnection::getVpcPeeringConnectionId, ids);
         }
-        vpcs = vs;
-      }
+        vpcs = Ec2Filters.filter(vpcs, p);
 
-      return new DescribeVpcPeeringConnectionsResult()
-          .withVpcPeeringConnections(vpcs);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+        selectivity("vpcPeeringConnections", "describeVpcPeeringConnections", total, vpcs);
+        return new DescribeVpcPeeringConnectionsResult()
+            .withVpcPeeringConnections(vpcs);
+      });
+    });
   }
 
   public DescribeVpcsResult describeVpcs() {
@@ -311,29 +518,31 @@ public class EddaEc2Client extends EddaAwsClient {
   }
 
   public DescribeVpcsResult describeVpcs(DescribeVpcsRequest request) {
-    validateEmpty("Filter", request.getFilters());
+    return join(describeVpcsAsync(request));
+  }
 
-    TypeReference<List<Vpc>> ref = new TypeReference<List<Vpc>>() {};
-    String url = config.url() + "/api/v2/aws/vpcs;_expand";
-    try {
-      List<Vpc> vpcs = parse(ref, doGet(url));
+  public CompletableFuture<DescribeVpcsResult> describeVpcsAsync() {
+    return describeVpcsAsync(new DescribeVpcsRequest());
+  }
 
-      List<String> ids = request.getVpcIds();
-      if (shouldFilter(ids)) {
-        List<Vpc> vs = new ArrayList<Vpc>();
-        for (Vpc v : vpcs) {
-          if (matches(ids, v.getVpcId()))
-            vs.add(v);
-        }
-        vpcs = vs;
-      }
+  public CompletableFuture<DescribeVpcsResult> describeVpcsAsync(DescribeVpcsRequest request) {
+    return async(() -> {
+      Predicate<Vpc> p = Ec2Filters.VPCS.compile(request.getFilters());
 
-      return new DescribeVpcsResult()
-        .withVpcs(vpcs);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+      String url = config.url() + "/api/v2/aws/vpcs;_expand";
+      List<String> ids = request.getVpcIds();
+      CompletableFuture<List<Vpc>> future = getListAsync(VPC_LIST, url, Vpc::getVpcId, "vpcId", ids);
+      return future.thenApply(vpcs -> {
+        int total = vpcs.size();
+        if (shouldFilter(ids))
+          vpcs = select(vpcs, "vpcId", Vpc::getVpcId, ids);
+        vpcs = Ec2Filters.filter(vpcs, p);
+
+        selectivity("vpcs", "describeVpcs", total, vpcs);
+        return new DescribeVpcsResult()
+          .withVpcs(vpcs);
+      });
+    });
   }
 
   public DescribeVpcClassicLinkResult describeVpcClassicLink() {
@@ -341,28 +550,31 @@ public class EddaEc2Client extends EddaAwsClient {
   }
 
   public DescribeVpcClassicLinkResult describeVpcClassicLink(DescribeVpcClassicLinkRequest request) {
-    validateEmpty("Filter", request.getFilters());
+    return join(describeVpcClassicLinkAsync(request));
+  }
+
+  public CompletableFuture<DescribeVpcClassicLinkResult> describeVpcClassicLinkAsync() {
+    return describeVpcClassicLinkAsync(new DescribeVpcClassicLinkRequest());
+  }
 
-    TypeReference<List<VpcClassicLink>> ref = new TypeReference<List<VpcClassicLink>>() {};
-    String url = config.url() + "/api/v2/aws/vpcClassicLinks;_expand";
-    try {
-      List<VpcClassicLink> vpcs = parse(ref, doGet(url));
+  public CompletableFuture<DescribeVpcClassicLinkResult> describeVpcClassicLinkAsync(DescribeVpcClassicLinkRequest request) {
+    return async(() -> {
+      Predicate<VpcClassicLink> p = Ec2Filters.VPC_CLASSIC_LINKS.compile(request.getFilters());
 
+      String url = config.url() + "/api/v2/aws/vpcClassicLinks;_expand";
       List<String> ids = request.getVpcIds();
-      if (shouldFilter(ids)) {
-        List<VpcClassicLink> vs = new ArrayList<VpcClassicLink>();
-        for (VpcClassicLink v : vpcs) {
-          if (matches(ids, v.getVpcId()))
-            vs.add(v);
-        }
-        vpcs = vs;
-      }
-
-      return new DescribeVpcClassicLinkResult()
-          .withVpcs(vpcs);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+      CompletableFuture<List<VpcClassicLink>> future =
+        getListAsync(VPC_CLASSIC_LINK_LIST, url, VpcClassicLink::getVpcId, "vpcId", ids);
+      return future.thenApply(vpcs -> {
+        int total = vpcs.size();
+        if (shouldFilter(ids))
+          vpcs = select(vpcs, "vpcId", VpcClassicLink::getVpcId, ids);
+        vpcs = Ec2Filters.filter(vpcs, p);
+
+        selectivity("vpcClassicLinks", "describeVpcClassicLink", total, vpcs);
+        return new DescribeVpcClassicLinkResult()
+            .withVpcs(vpcs);
+      });
+    });
   }
 }
@@ -15,22 +15,31 @@
  */
 package com.netflix.edda;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 
-import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.elasticloadbalancing.AmazonElasticLoadBalancing;
 import com.amazonaws.services.elasticloadbalancing.model.*;
 
+import com.netflix.edda.util.Page;
+
 import com.netflix.edda.mapper.InstanceStateView;
 import com.netflix.edda.mapper.LoadBalancerAttributesView;
 
 public class EddaElasticLoadBalancingClient extends EddaAwsClient {
+  private static final TypeReference<InstanceStateView> INSTANCE_STATE_VIEW =
+    new TypeReference<InstanceStateView>() {};
+  private static final TypeReference<List<LoadBalancerDescription>> LOAD_BALANCER_DESCRIPTION_LIST =
+    new TypeReference<List<LoadBalancerDescription>>() {};
+  private static final TypeReference<LoadBalancerAttributesView> LOAD_BALANCER_ATTRIBUTES_VIEW =
+    new TypeReference<LoadBalancerAttributesView>() {};
+
   public EddaElasticLoadBalancingClient(AwsConfiguration config, String vip, String region) {
     super(config, vip, region);
+    warm(LOAD_BALANCER_DESCRIPTION_LIST, config.url() + "/api/v2/aws/loadBalancers;_expand", LoadBalancerDescription::getLoadBalancerName);
   }
 
   public AmazonElasticLoadBalancing readOnly() {
@@ -42,37 +51,37 @@ public class EddaElasticLoadBalancingClient extends EddaAwsClient {
   }
 
   public DescribeInstanceHealthResult describeInstanceHealth(DescribeInstanceHealthRequest request) {
-    validateNotEmpty("LoadBalancerName", request.getLoadBalancerName());
+    return join(describeInstanceHealthAsync(request));
+  }
 
-    TypeReference<InstanceStateView> ref = new TypeReference<InstanceStateView>() {};
-    String loadBalancerName = request.getLoadBalancerName();
-    
-    String url = config.url() + "/api/v2/view/loadBalancerInstances/"+loadBalancerName+";_expand";
-    try {
-      InstanceStateView instanceStateView = parse(ref, doGet(url));
-      List<InstanceState> instanceStates = instanceStateView.getInstances();
+  public CompletableFuture<DescribeInstanceHealthResult> describeInstanceHealthAsync(DescribeInstanceHealthRequest request) {
+    return async(() -> {
+      validateNotEmpty("LoadBalancerName", request.getLoadBalancerName());
 
+      String loadBalancerName = request.getLoadBalancerName();
+      
+      String url = config.url() + "/api/v2/view/loadBalancerInstances/"+loadBalancerName+";_expand";
       List<Instance> instances = request.getInstances();
       List<String> ids = new ArrayList<String>();
       if (instances != null) {
         for (Instance i : instances)
           ids.add(i.getInstanceId());
       }
-      if (shouldFilter(ids)) {
-        List<InstanceState> iss = new ArrayList<InstanceState>();
-        for (InstanceState is : instanceStates) {
-          if (matches(ids, is.getInstanceId()))
-            iss.add(is);
+      return getAsync(INSTANCE_STATE_VIEW, url).thenApply(instanceStateView -> {
+        List<InstanceState> instanceStates = instanceStateView.getInstances();
+        if (shouldFilter(ids)) {
+          List<InstanceState> iss = new ArrayList<InstanceState>();
+          for (InstanceState is : instanceStates) {
+            if (matches(ids, is.getInstanceId()))
+              iss.add(is);
+          }
+          instanceStates = iss;
         }
-        instanceStates = iss;
-      }
 
-      return new DescribeInstanceHealthResult()
-        .withInstanceStates(instanceStateView.getInstances());
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+        return new DescribeInstanceHealthResult()
+          .withInstanceStates(instanceStates);
+      });
+    });
   }
 
   public DescribeLoadBalancersResult describeLoadBalancers() {
@@ -80,43 +89,54 @@ public class EddaElasticLoadBalancingClient extends EddaAwsClient {
   }
 
   public DescribeLoadBalancersResult describeLoadBalancers(DescribeLoadBalancersRequest request) {
-    TypeReference<List<LoadBalancerDescription>> ref = new TypeReference<List<LoadBalancerDescription>>() {};
-    String url = config.url() + "/api/v2/aws/loadBalancers;_expand";
-    try {
-      List<LoadBalancerDescription> loadBalancerDescriptions = parse(ref, doGet(url));
+    return join(describeLoadBalancersAsync(request));
+  }
+
+  public CompletableFuture<DescribeLoadBalancersResult> describeLoadBalancersAsync() {
+    return describeLoadBalancersAsync(new DescribeLoadBalancersRequest());
+  }
 
+  public CompletableFuture<DescribeLoadBalancersResult> describeLoadBalancersAsync(DescribeLoadBalancersRequest request) {
+    return async(() -> {
+      String url = config.url() + "/api/v2/aws/loadBalancers;_expand";
       List<String> names = request.getLoadBalancerNames();
-      if (shouldFilter(names)) {
-        List<LoadBalancerDescription> lbs = new ArrayList<LoadBalancerDescription>();
-        for (LoadBalancerDescription lb : loadBalancerDescriptions) {
-          if (matches(names, lb.getLoadBalancerName()))
-            lbs.add(lb);
+      Integer max = request.getPageSize();
+      String token = request.getMarker();
+      url = limit(url, max, token, shouldFilter(names));
+      CompletableFuture<List<LoadBalancerDescription>> future =
+        getListAsync(LOAD_BALANCER_DESCRIPTION_LIST, url, LoadBalancerDescription::getLoadBalancerName, "loadBalancerName", names);
+      return future.thenApply(loadBalancerDescriptions -> {
+        int total = loadBalancerDescriptions.size();
+        if (shouldFilter(names)) {
+          loadBalancerDescriptions = select(loadBalancerDescriptions,
+            "loadBalancerName", LoadBalancerDescription::getLoadBalancerName, names);
         }
-        loadBalancerDescriptions = lbs;
-      }
 
-      return new DescribeLoadBalancersResult()
-        .withLoadBalancerDescriptions(loadBalancerDescriptions);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+        selectivity("loadBalancers", "describeLoadBalancers", total, loadBalancerDescriptions);
+        Page<LoadBalancerDescription> page = paginate(loadBalancerDescriptions,
+          "loadBalancerName", LoadBalancerDescription::getLoadBalancerName, max, token);
+        return new DescribeLoadBalancersResult()
+          .withLoadBalancerDescriptions(page.items())
+          .withNextMarker(page.nextToken());
+      });
+    });
   }
 
   public DescribeLoadBalancerAttributesResult describeLoadBalancerAttributes(DescribeLoadBalancerAttributesRequest request) {
-    validateNotEmpty("LoadBalancerName", request.getLoadBalancerName());
-
-    TypeReference<LoadBalancerAttributesView> ref = new TypeReference<LoadBalancerAttributesView>() {};
-    String loadBalancerName = request.getLoadBalancerName();
-
-    String url = config.url() + "/api/v2/view/loadBalancerAttributes/"+loadBalancerName+";_expand";
-    try {
-      LoadBalancerAttributesView loadBalancerAttributesView = parse(ref, doGet(url));
-      return new DescribeLoadBalancerAttributesResult()
-        .withLoadBalancerAttributes(loadBalancerAttributesView.getAttributes());
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+    return join(describeLoadBalancerAttributesAsync(request));
+  }
+
+  public CompletableFuture<DescribeLoadBalancerAttributesResult> describeLoadBalancerAttributesAsync(DescribeLoadBalancerAttributesRequest request) {
+    return async(() -> {
+      validateNotEmpty("LoadBalancerName", request.getLoadBalancerName());
+
+      String loadBalancerName = request.getLoadBalancerName();
+
+      String url = config.url() + "/api/v2/view/loadBalancerAttributes/"+loadBalancerName+";_expand";
+      return getAsync(LOAD_BALANCER_ATTRIBUTES_VIEW, url).thenApply(loadBalancerAttributesView -> {
+        return new DescribeLoadBalancerAttributesResult()
+          .withLoadBalancerAttributes(loadBalancerAttributesView.getAttributes());
+      });
+    });
   }
 }
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsResult;
+import com.amazonaws.services.cloudwatch.model.DescribeAlarmsResult;
+import com.amazonaws.services.ec2.model.DescribeImagesResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.DescribeSecurityGroupsResult;
+import com.amazonaws.services.ec2.model.DescribeSubnetsResult;
+import com.amazonaws.services.ec2.model.DescribeVpcsResult;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.elasticloadbalancing.model.DescribeLoadBalancersResult;
+
+import com.netflix.edda.util.ProxyHelper;
+
+/**
+ * Query the edda endpoints for several regions in parallel and merge the records into a
+ * single result. Each region has its own set of clients so caching and snapshots are per
+ * region. A region that fails or does not respond within fanOutTimeout is left out of the
+ * merged result and reported in {@link Result#failures()}, the call only fails if none of
+ * the regions could be queried. The read timeout of the region clients is capped at
+ * fanOutTimeout, so the request to a region that is left out is aborted rather than kept
+ * running until readTimeout.
+ *
+ * The records are shared with the cache so they cannot be modified to record the region.
+ * Instead the result keeps track of the region for each record, see {@link Result#region}.
+ */
+public class EddaFanOut {
+  private static final Logger LOGGER = LoggerFactory.getLogger(EddaFanOut.class);
+
+  private final AwsConfiguration config;
+  private final Map<String, RegionClients> regions = new LinkedHashMap<String, RegionClients>();
+
+  /**
+   * Create a new instance.
+   *
+   * @param config
+   *     Configuration used for the clients of all regions.
+   * @param vips
+   *     Map of region to the edda vip for that region. Results are merged in the iteration
+   *     order of the map.
+   * @throws IllegalArgumentException
+   *     If two regions resolve to the same edda url. The regions would share the cached
+   *     responses and every record would appear once for each of them in the merged results.
+   */
+  public EddaFanOut(AwsConfiguration config, Map<String, String> vips) {
+    if (vips.isEmpty()) throw new IllegalArgumentException("at least one region is required");
+    this.config = config;
+    Map<String, String> urls = new HashMap<String, String>();
+    for (Map.Entry<String, String> entry : vips.entrySet()) {
+      String region = entry.getKey();
+      String url = EddaAwsClient.mkUrl(config.url(), entry.getValue(), region);
+      String other = urls.put(url, region);
+      if (other != null) {
+        throw new IllegalArgumentException("regions " + other + " and " + region
+          + " both resolve to " + url + ", use fanOutVips or include ${region} in the url");
+      }
+    }
+    AwsConfiguration regionConfig = regionConfig(config);
+    for (Map.Entry<String, String> entry : vips.entrySet()) {
+      String region = entry.getKey();
+      regions.put(region, new RegionClients(regionConfig, entry.getValue(), region));
+    }
+  }
+
+  /** Regions that will be queried. */
+  public List<String> regions() {
+    return new ArrayList<String>(regions.keySet());
+  }
+
+  public Result<DescribeInstancesResult> describeInstances() {
+    return join(describeInstancesAsync());
+  }
+
+  /** Instances of all regions, the region is tracked for both reservations and instances. */
+  public CompletableFuture<Result<DescribeInstancesResult>> describeInstancesAsync() {
+    return fanOut(
+      c -> c.ec2.describeInstancesAsync(),
+      r -> {
+        List<Object> records = new ArrayList<Object>(r.getReservations());
+        for (Reservation reservation : r.getReservations())
+          records.addAll(reservation.getInstances());
+        return records;
+      },
+      rs -> {
+        List<Reservation> reservations = new ArrayList<Reservation>();
+        for (DescribeInstancesResult r : rs)
+          reservations.addAll(r.getReservations());
+        return new DescribeInstancesResult().withReservations(reservations);
+      });
+  }
+
+  public Result<DescribeImagesResult> describeImages() {
+    return join(describeImagesAsync());
+  }
+
+  public CompletableFuture<Result<DescribeImagesResult>> describeImagesAsync() {
+    return fanOut(
+      c -> c.ec2.describeImagesAsync(),
+      DescribeImagesResult::getImages,
+      rs -> new DescribeImagesResult().withImages(
+        concat(rs, DescribeImagesResult::getImages)));
+  }
+
+  public Result<DescribeSecurityGroupsResult> describeSecurityGroups() {
+    return join(describeSecurityGroupsAsync());
+  }
+
+  public CompletableFuture<Result<DescribeSecurityGroupsResult>> describeSecurityGroupsAsync() {
+    return fanOut(
+      c -> c.ec2.describeSecurityGroupsAsync(),
+      DescribeSecurityGroupsResult::getSecurityGroups,
+      rs -> new DescribeSecurityGroupsResult().withSecurityGroups(
+        concat(rs, DescribeSecurityGroupsResult::getSecurityGroups)));
+  }
+
+  public Result<DescribeSubnetsResult> describeSubnets() {
+    return join(describeSubnetsAsync());
+  }
+
+  public CompletableFuture<Result<DescribeSubnetsResult>> describeSubnetsAsync() {
+    return fanOut(
+      c -> c.ec2.describeSubnetsAsync(),
+      DescribeSubnetsResult::getSubnets,
+      rs -> new DescribeSubnetsResult().withSubnets(
+        concat(rs, DescribeSubnetsResult::getSubnets)));
+  }
+
+  public Result<DescribeVpcsResult> describeVpcs() {
+    return join(describeVpcsAsync());
+  }
+
+  public CompletableFuture<Result<DescribeVpcsResult>> describeVpcsAsync() {
+    return fanOut(
+      c -> c.ec2.describeVpcsAsync(),
+      DescribeVpcsResult::getVpcs,
+      rs -> new DescribeVpcsResult().withVpcs(
+        concat(rs, DescribeVpcsResult::getVpcs)));
+  }
+
+  public Result<DescribeAutoScalingGroupsResult> describeAutoScalingGroups() {
+    return join(describeAutoScalingGroupsAsync());
+  }
+
+  public CompletableFuture<Result<DescribeAutoScalingGroupsResult>>
+      describeAutoScalingGroupsAsync() {
+    return fanOut(
+      c -> c.autoScaling.describeAutoScalingGroupsAsync(),
+      DescribeAutoScalingGroupsResult::getAutoScalingGroups,
+      rs -> new DescribeAutoScalingGroupsResult().withAutoScalingGroups(
+        concat(rs, DescribeAutoScalingGroupsResult::getAutoScalingGroups)));
+  }
+
+  public Result<DescribeLoadBalancersResult> describeLoadBalancers() {
+    return join(describeLoadBalancersAsync());
+  }
+
+  public CompletableFuture<Result<DescribeLoadBalancersResult>> describeLoadBalancersAsync() {
+    return fanOut(
+      c -> c.elb.describeLoadBalancersAsync(),
+      DescribeLoadBalancersResult::getLoadBalancerDescriptions,
+      rs -> new DescribeLoadBalancersResult().withLoadBalancerDescriptions(
+        concat(rs, DescribeLoadBalancersResult::getLoadBalancerDescriptions)));
+  }
+
+  public Result<DescribeAlarmsResult> describeAlarms() {
+    return join(describeAlarmsAsync());
+  }
+
+  public CompletableFuture<Result<DescribeAlarmsResult>> describeAlarmsAsync() {
+    return fanOut(
+      c -> c.cloudWatch.describeAlarmsAsync(),
+      DescribeAlarmsResult::getMetricAlarms,
+      rs -> new DescribeAlarmsResult().withMetricAlarms(
+        concat(rs, DescribeAlarmsResult::getMetricAlarms)));
+  }
+
+  /**
+   * Start the call for each region and merge the results of the regions that complete in
+   * time.
+   *
+   * @param call
+   *     Starts the request using the clients for a region.
+   * @param records
+   *     Records of a result that should be associated with the region.
+   * @param merge
+   *     Combine the results of the regions, in region order, into a single result.
+   */
+  private <R> CompletableFuture<Result<R>> fanOut(
+    Function<RegionClients, CompletableFuture<R>> call,
+    Function<R, List<?>> records,
+    Function<List<R>, R> merge
+  ) {
+    final EddaContext.EddaContextInstance ctx = EddaContext.getContext();
+    final long timeout = config.fanOutTimeout().getMillis();
+    final Map<String, CompletableFuture<R>> futures =
+      new LinkedHashMap<String, CompletableFuture<R>>();
+    for (Map.Entry<String, RegionClients> entry : regions.entrySet()) {
+      CompletableFuture<R> future;
+      try {
+        future = call.apply(entry.getValue());
+      }
+      catch (RuntimeException e) {
+        future = new CompletableFuture<R>();
+        future.completeExceptionally(e);
+      }
+      futures.put(entry.getKey(), ctx.withTimeout(future, timeout));
+    }
+
+    // Failures are handled per region so wait for all of them to finish either way
+    CompletableFuture<?>[] all = new CompletableFuture<?>[futures.size()];
+    int i = 0;
+    for (CompletableFuture<R> future : futures.values())
+      all[i++] = future.handle((v, t) -> null);
+    return CompletableFuture.allOf(all).thenApply(v -> {
+      List<R> results = new ArrayList<R>();
+      Map<Object, String> recordRegions = new IdentityHashMap<Object, String>();
+      Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+      Throwable lastFailure = null;
+      for (Map.Entry<String, CompletableFuture<R>> entry : futures.entrySet()) {
+        String region = entry.getKey();
+        try {
+          R result = entry.getValue().join();
+          results.add(result);
+          for (Object record : records.apply(result))
+            recordRegions.put(record, region);
+        }
+        catch (CompletionException e) {
+          Throwable t = (e.getCause() != null) ? e.getCause() : e;
+          LOGGER.warn("failed to query edda for region " + region, t);
+          failures.put(region, t);
+          lastFailure = t;
+        }
+      }
+      if (results.isEmpty()) throw new CompletionException(lastFailure);
+      return new Result<R>(merge.apply(results), recordRegions, failures);
+    });
+  }
+
+  private static <R, T> List<T> concat(List<R> results, Function<R, List<T>> records) {
+    List<T> all = new ArrayList<T>();
+    for (R r : results)
+      all.addAll(records.apply(r));
+    return all;
+  }
+
+  private <T> T join(CompletableFuture<T> future) {
+    return regions.values().iterator().next().ec2.join(future);
+  }
+
+  /**
+   * Configuration for the region clients. A request that is still running when the fan out
+   * gives up on the region would otherwise hold its connection and its entry in the in flight
+   * calls until readTimeout, and any later fan out for the same url would join it and time out
+   * as well.
+   */
+  private static AwsConfiguration regionConfig(AwsConfiguration config) {
+    return ProxyHelper.wrapper(AwsConfiguration.class, config, new RegionOverrides(config));
+  }
+
+  /** Settings that are changed for the region clients, see {@link #regionConfig}. */
+  private static final class RegionOverrides {
+    private final AwsConfiguration config;
+
+    RegionOverrides(AwsConfiguration config) {
+      this.config = config;
+    }
+
+    public Duration readTimeout() {
+      Duration read = config.readTimeout();
+      Duration fanOut = config.fanOutTimeout();
+      return fanOut.isShorterThan(read) ? fanOut : read;
+    }
+  }
+
+  /** Clients used to query a single region. */
+  private static final class RegionClients {
+    final EddaEc2Client ec2;
+    final EddaAutoScalingClient autoScaling;
+    final EddaElasticLoadBalancingClient elb;
+    final EddaCloudWatchClient cloudWatch;
+
+    RegionClients(AwsConfiguration config, String vip, String region) {
+      this.ec2 = new EddaEc2Client(config, vip, region);
+      this.autoScaling = new EddaAutoScalingClient(config, vip, region);
+      this.elb = new EddaElasticLoadBalancingClient(config, vip, region);
+      this.cloudWatch = new EddaCloudWatchClient(config, vip, region);
+    }
+  }
+
+  /** Merged result of a fan out call. */
+  public static final class Result<R> {
+    private final R result;
+    private final Map<Object, String> regions;
+    private final Map<String, Throwable> failures;
+
+    Result(R result, Map<Object, String> regions, Map<String, Throwable> failures) {
+      this.result = result;
+      this.regions = regions;
+      this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /** Records of all regions that responded. */
+    public R result() {
+      return result;
+    }
+
+    /**
+     * Region that a record of the result came from or null if the record is not part of
+     * the result. The lookup is by identity so copies of a record will not be found.
+     */
+    public String region(Object record) {
+      return regions.get(record);
+    }
+
+    /** Returns true if all of the regions responded. */
+    public boolean isComplete() {
+      return failures.isEmpty();
+    }
+
+    /** Map of region to the failure for the regions that did not respond. */
+    public Map<String, Throwable> failures() {
+      return failures;
+    }
+  }
+}
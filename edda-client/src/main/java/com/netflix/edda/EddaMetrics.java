@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.spectator.api.Id;
+import com.netflix.spectator.api.Registry;
+
+/**
+ * Meters for the edda clients. Other than the fallbacks, the meters are tagged with the
+ * collection, the path segment following aws or view in the edda url, so the behavior of each
+ * collection can be compared.
+ *
+ * <ul>
+ *   <li><b>edda.client.fetch</b>: timer for the complete http request, tagged with the status
+ *       code or the exception class if no response was received.</li>
+ *   <li><b>edda.client.bytesReceived</b>: distribution summary of the response sizes.</li>
+ *   <li><b>edda.client.parse</b>: timer for decoding the response. Responses are decoded as
+ *       they are received so this includes time waiting on the network.</li>
+ *   <li><b>edda.client.records</b>: distribution summary of the number of records decoded.</li>
+ *   <li><b>edda.client.selectivity</b>: distribution summary of the percentage of the
+ *       collection returned by a describe call after filtering, tagged with the operation.</li>
+ *   <li><b>edda.client.errors</b>: counter of failed operations tagged with the exception
+ *       class.</li>
+ *   <li><b>edda.client.cache</b>: counter of lookups tagged with the cache, memory, snapshot or
+ *       disk, and the result, hit or miss.</li>
+ *   <li><b>edda.client.fallbacks</b>: counter of calls in wrapper mode that were passed on to
+ *       the AWS client, tagged with the api and operation.</li>
+ * </ul>
+ */
+public class EddaMetrics {
+
+  private final Registry registry;
+
+  private final Id fetchId;
+  private final Id bytesId;
+  private final Id parseId;
+  private final Id recordsId;
+  private final Id selectivityId;
+  private final Id errorsId;
+  private final Id cacheId;
+  private final Id fallbacksId;
+
+  public EddaMetrics(Registry registry) {
+    this.registry = registry;
+    fetchId = registry.createId("edda.client.fetch");
+    bytesId = registry.createId("edda.client.bytesReceived");
+    parseId = registry.createId("edda.client.parse");
+    recordsId = registry.createId("edda.client.records");
+    selectivityId = registry.createId("edda.client.selectivity");
+    errorsId = registry.createId("edda.client.errors");
+    cacheId = registry.createId("edda.client.cache");
+    fallbacksId = registry.createId("edda.client.fallbacks");
+  }
+
+  public Registry registry() {
+    return registry;
+  }
+
+  /** Current value of the monotonic clock in nanoseconds, used as the start of a timing. */
+  public long start() {
+    return registry.clock().monotonicTime();
+  }
+
+  private long elapsed(long start) {
+    return registry.clock().monotonicTime() - start;
+  }
+
+  public void fetch(String collection, String status, long start) {
+    registry.timer(fetchId.withTag("collection", collection).withTag("status", status))
+      .record(elapsed(start), TimeUnit.NANOSECONDS);
+  }
+
+  public void bytesReceived(String collection, long bytes) {
+    registry.distributionSummary(bytesId.withTag("collection", collection)).record(bytes);
+  }
+
+  public void parse(String collection, long start, int records) {
+    registry.timer(parseId.withTag("collection", collection))
+      .record(elapsed(start), TimeUnit.NANOSECONDS);
+    registry.distributionSummary(recordsId.withTag("collection", collection)).record(records);
+  }
+
+  public void selectivity(String collection, String operation, int total, int selected) {
+    if (total <= 0) return;
+    Id id = selectivityId.withTag("collection", collection).withTag("operation", operation);
+    registry.distributionSummary(id).record(100L * selected / total);
+  }
+
+  public void error(String collection, String operation, Throwable t) {
+    Throwable cause = (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+    Id id = errorsId
+      .withTag("collection", collection)
+      .withTag("operation", operation)
+      .withTag("error", cause.getClass().getSimpleName());
+    registry.counter(id).increment();
+  }
+
+  public void cache(String cache, String collection, boolean hit) {
+    Id id = cacheId
+      .withTag("cache", cache)
+      .withTag("collection", collection)
+      .withTag("result", hit ? "hit" : "miss");
+    registry.counter(id).increment();
+  }
+
+  public void fallback(String api, String operation) {
+    registry.counter(fallbacksId.withTag("api", api).withTag("operation", operation)).increment();
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.amazonaws.services.autoscaling.model.DescribeAutoScalingGroupsResult;
+import com.amazonaws.services.autoscaling.model.DescribeLaunchConfigurationsResult;
+import com.amazonaws.services.cloudwatch.model.DescribeAlarmsResult;
+import com.amazonaws.services.ec2.model.DescribeImagesResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.DescribeSecurityGroupsResult;
+import com.amazonaws.services.ec2.model.DescribeSubnetsResult;
+import com.amazonaws.services.ec2.model.DescribeVpcsResult;
+import com.amazonaws.services.elasticloadbalancing.model.DescribeLoadBalancersResult;
+
+/**
+ * Fetch several edda collections at once. The requests for all of the collections are started
+ * together over the shared http client, so the time to get the bundle is that of the slowest
+ * collection rather than the sum. Each collection is fetched the same way as the corresponding
+ * describe call so caching and snapshots still apply.
+ *
+ * <pre>
+ * EddaPrefetch.Bundle bundle = AwsClientFactory.newPrefetch().fetch(
+ *   EddaPrefetch.Collection.INSTANCES,
+ *   EddaPrefetch.Collection.AUTO_SCALING_GROUPS,
+ *   EddaPrefetch.Collection.LOAD_BALANCERS);
+ * </pre>
+ */
+public class EddaPrefetch {
+
+  /** Collections that can be prefetched. */
+  public enum Collection {
+    INSTANCES,
+    IMAGES,
+    SECURITY_GROUPS,
+    SUBNETS,
+    VPCS,
+    AUTO_SCALING_GROUPS,
+    LAUNCH_CONFIGURATIONS,
+    LOAD_BALANCERS,
+    ALARMS
+  }
+
+  private final EddaEc2Client ec2;
+  private final EddaAutoScalingClient autoScaling;
+  private final EddaElasticLoadBalancingClient elb;
+  private final EddaCloudWatchClient cloudWatch;
+
+  public EddaPrefetch(AwsConfiguration config, String vip, String region) {
+    this.ec2 = new EddaEc2Client(config, vip, region);
+    this.autoScaling = new EddaAutoScalingClient(config, vip, region);
+    this.elb = new EddaElasticLoadBalancingClient(config, vip, region);
+    this.cloudWatch = new EddaCloudWatchClient(config, vip, region);
+  }
+
+  /** Fetch the collections and wait for all of them to complete. */
+  public Bundle fetch(Collection... collections) {
+    return ec2.join(fetchAsync(collections));
+  }
+
+  /**
+   * Fetch the collections concurrently. The future completes when all of the collections are
+   * available, or fails with the first error if any of them could not be fetched.
+   */
+  public CompletableFuture<Bundle> fetchAsync(Collection... collections) {
+    final long start = System.currentTimeMillis();
+    final Map<Collection, CompletableFuture<?>> futures =
+      new EnumMap<Collection, CompletableFuture<?>>(Collection.class);
+    for (Collection c : collections) {
+      if (!futures.containsKey(c))
+        futures.put(c, describeAsync(c));
+    }
+    CompletableFuture<?>[] all = futures.values().toArray(new CompletableFuture<?>[futures.size()]);
+    return CompletableFuture.allOf(all).thenApply(v -> {
+      Map<Collection, Object> results = new EnumMap<Collection, Object>(Collection.class);
+      for (Map.Entry<Collection, CompletableFuture<?>> entry : futures.entrySet())
+        results.put(entry.getKey(), entry.getValue().join());
+      return new Bundle(results, start);
+    });
+  }
+
+  private CompletableFuture<?> describeAsync(Collection c) {
+    switch (c) {
+      case INSTANCES:             return ec2.describeInstancesAsync();
+      case IMAGES:                return ec2.describeImagesAsync();
+      case SECURITY_GROUPS:       return ec2.describeSecurityGroupsAsync();
+      case SUBNETS:               return ec2.describeSubnetsAsync();
+      case VPCS:                  return ec2.describeVpcsAsync();
+      case AUTO_SCALING_GROUPS:   return autoScaling.describeAutoScalingGroupsAsync();
+      case LAUNCH_CONFIGURATIONS: return autoScaling.describeLaunchConfigurationsAsync();
+      case LOAD_BALANCERS:        return elb.describeLoadBalancersAsync();
+      case ALARMS:                return cloudWatch.describeAlarmsAsync();
+      default: throw new IllegalArgumentException("unsupported collection: " + c);
+    }
+  }
+
+  /**
+   * Results of a prefetch. All of the requests were started at the same time, see
+   * {@link #fetchTime()}. Accessing a collection that was not requested will throw an
+   * IllegalStateException.
+   */
+  public static final class Bundle {
+    private final Map<Collection, Object> results;
+    private final long fetchTime;
+
+    Bundle(Map<Collection, Object> results, long fetchTime) {
+      this.results = Collections.unmodifiableMap(results);
+      this.fetchTime = fetchTime;
+    }
+
+    /** Time in milliseconds since the epoch when the requests were started. */
+    public long fetchTime() {
+      return fetchTime;
+    }
+
+    /** Returns true if the collection is part of the bundle. */
+    public boolean contains(Collection c) {
+      return results.containsKey(c);
+    }
+
+    public DescribeInstancesResult instances() {
+      return get(Collection.INSTANCES, DescribeInstancesResult.class);
+    }
+
+    public DescribeImagesResult images() {
+      return get(Collection.IMAGES, DescribeImagesResult.class);
+    }
+
+    public DescribeSecurityGroupsResult securityGroups() {
+      return get(Collection.SECURITY_GROUPS, DescribeSecurityGroupsResult.class);
+    }
+
+    public DescribeSubnetsResult subnets() {
+      return get(Collection.SUBNETS, DescribeSubnetsResult.class);
+    }
+
+    public DescribeVpcsResult vpcs() {
+      return get(Collection.VPCS, DescribeVpcsResult.class);
+    }
+
+    public DescribeAutoScalingGroupsResult autoScalingGroups() {
+      return get(Collection.AUTO_SCALING_GROUPS, DescribeAutoScalingGroupsResult.class);
+    }
+
+    public DescribeLaunchConfigurationsResult launchConfigurations() {
+      return get(Collection.LAUNCH_CONFIGURATIONS, DescribeLaunchConfigurationsResult.class);
+    }
+
+    public DescribeLoadBalancersResult loadBalancers() {
+      return get(Collection.LOAD_BALANCERS, DescribeLoadBalancersResult.class);
+    }
+
+    public DescribeAlarmsResult alarms() {
+      return get(Collection.ALARMS, DescribeAlarmsResult.class);
+    }
+
+    private <T> T get(Collection c, Class<T> type) {
+      Object result = results.get(c);
+      if (result == null) throw new IllegalStateException(c + " was not prefetched");
+      return type.cast(result);
+    }
+  }
+}
@@ -15,16 +15,20 @@
  */
 package com.netflix.edda;
 
-import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 
-import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.route53.AmazonRoute53;
 import com.amazonaws.services.route53.model.*;
 
 public class EddaRoute53Client extends EddaAwsClient {
+  private static final TypeReference<List<HostedZone>> HOSTED_ZONE_LIST =
+    new TypeReference<List<HostedZone>>() {};
+  private static final TypeReference<List<ResourceRecordSet>> RESOURCE_RECORD_SET_LIST =
+    new TypeReference<List<ResourceRecordSet>>() {};
+
   public EddaRoute53Client(AwsConfiguration config, String vip, String region) {
     super(config, vip, region);
   }
@@ -42,32 +46,38 @@ public class EddaRoute53Client extends EddaAwsClient {
   }
 
   public ListHostedZonesResult listHostedZones(ListHostedZonesRequest request) {
-    TypeReference<List<HostedZone>> ref = new TypeReference<List<HostedZone>>() {};
-    String url = config.url() + "/api/v2/aws/hostedZones;_expand";
-    try {
-      List<HostedZone> hostedZones = parse(ref, doGet(url));
-      return new ListHostedZonesResult()
-        .withHostedZones(hostedZones);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+    return join(listHostedZonesAsync(request));
+  }
+
+  public CompletableFuture<ListHostedZonesResult> listHostedZonesAsync() {
+    return listHostedZonesAsync(new ListHostedZonesRequest());
+  }
+
+  public CompletableFuture<ListHostedZonesResult> listHostedZonesAsync(ListHostedZonesRequest request) {
+    return async(() -> {
+      String url = config.url() + "/api/v2/aws/hostedZones;_expand";
+      return getAsync(HOSTED_ZONE_LIST, url).thenApply(hostedZones -> {
+        return new ListHostedZonesResult()
+          .withHostedZones(hostedZones);
+      });
+    });
   }
 
   public ListResourceRecordSetsResult listResourceRecordSets(ListResourceRecordSetsRequest request) {
-    validateNotEmpty("HostedZoneId", request.getHostedZoneId());
+    return join(listResourceRecordSetsAsync(request));
+  }
+
+  public CompletableFuture<ListResourceRecordSetsResult> listResourceRecordSetsAsync(ListResourceRecordSetsRequest request) {
+    return async(() -> {
+      validateNotEmpty("HostedZoneId", request.getHostedZoneId());
 
-    TypeReference<List<ResourceRecordSet>> ref = new TypeReference<List<ResourceRecordSet>>() {};
-    String hostedZoneId = request.getHostedZoneId();
+      String hostedZoneId = request.getHostedZoneId();
 
-    String url = config.url() + "/api/v2/aws/hostedRecords;_expand;zone.id=" + hostedZoneId;
-    try {
-      List<ResourceRecordSet> resourceRecordSets = parse(ref, doGet(url));
-      return new ListResourceRecordSetsResult()
-        .withResourceRecordSets(resourceRecordSets);
-    }
-    catch (IOException e) {
-      throw new AmazonClientException("Faled to parse " + url, e);
-    }
+      String url = config.url() + "/api/v2/aws/hostedRecords;_expand;zone.id=" + hostedZoneId;
+      return getAsync(RESOURCE_RECORD_SET_LIST, url).thenApply(resourceRecordSets -> {
+        return new ListResourceRecordSetsResult()
+          .withResourceRecordSets(resourceRecordSets);
+      });
+    });
   }
 }
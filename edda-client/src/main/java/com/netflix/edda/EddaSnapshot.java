@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.netflix.edda.util.IndexedList;
+
+/**
+ * Local copy of an edda collection keyed by the id of each record. The snapshot is replaced
+ * by a full sync and incremental syncs merge in the records that have changed. Records that
+ * have been removed are only dropped on the next full sync. Records without a key could not
+ * be matched up with their updates, so they are ignored.
+ *
+ * The published lists are never modified so they can be shared with callers.
+ */
+public class EddaSnapshot<T> {
+
+  private static final class State<T> {
+    final Map<String, T> byKey;
+    final List<T> records;
+    final long syncTime;
+    final long fullSyncTime;
+
+    State(Map<String, T> byKey, long syncTime, long fullSyncTime) {
+      this.byKey = byKey;
+      this.records = new IndexedList<T>(byKey.values());
+      this.syncTime = syncTime;
+      this.fullSyncTime = fullSyncTime;
+    }
+  }
+
+  private volatile State<T> state = null;
+
+  /** Returns true if the snapshot has been loaded with a full sync. */
+  public boolean isLoaded() {
+    return state != null;
+  }
+
+  /** Current records, or null if it has not been loaded. */
+  public List<T> records() {
+    State<T> s = state;
+    return (s == null) ? null : s.records;
+  }
+
+  /** Start time of the last successful sync or 0 if it has not been loaded. */
+  public long lastSync() {
+    State<T> s = state;
+    return (s == null) ? 0L : s.syncTime;
+  }
+
+  /** Start time of the last successful full sync or 0 if it has not been loaded. */
+  public long lastFullSync() {
+    State<T> s = state;
+    return (s == null) ? 0L : s.fullSyncTime;
+  }
+
+  /** Replace the contents with the complete set of records. */
+  public synchronized List<T> replace(List<T> records, Function<T, String> key, long time) {
+    Map<String, T> byKey = new LinkedHashMap<String, T>();
+    putAll(byKey, records, key);
+    state = new State<T>(byKey, time, time);
+    return state.records;
+  }
+
+  /**
+   * Load records that were saved by a previous process. This is ignored if the snapshot has
+   * already been loaded. Returns true if the records were used.
+   */
+  public synchronized boolean restore(
+      List<T> records, Function<T, String> key, long syncTime, long fullSyncTime) {
+    if (state != null) return false;
+    Map<String, T> byKey = new LinkedHashMap<String, T>();
+    putAll(byKey, records, key);
+    state = new State<T>(byKey, syncTime, fullSyncTime);
+    return true;
+  }
+
+  /** Merge in records that have been added or updated since the last sync. */
+  public synchronized List<T> merge(List<T> changed, Function<T, String> key, long time) {
+    State<T> s = state;
+    if (s == null) throw new IllegalStateException("snapshot has not been loaded");
+    Map<String, T> byKey = new LinkedHashMap<String, T>(s.byKey);
+    putAll(byKey, changed, key);
+    state = new State<T>(byKey, time, s.fullSyncTime);
+    return state.records;
+  }
+
+  private void putAll(Map<String, T> byKey, List<T> records, Function<T, String> key) {
+    for (T r : records) {
+      String k = key.apply(r);
+      if (k != null) byKey.put(k, r);
+    }
+  }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileParser;
+
+import com.amazonaws.services.ec2.model.GroupIdentifier;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.Tag;
+
+/**
+ * Column oriented copy of the instances collection for services that need to scan the fleet
+ * but only look at a few fields. Strings are dictionary encoded so each column is an int
+ * array, the state code is an int, the launch time is a long and the tags and security groups
+ * are stored as ranges of flat arrays. The complete instance is kept as a compact smile
+ * encoded record and is only decoded for the rows that are returned by
+ * {@link Query#instances()}.
+ *
+ * <pre>
+ * InstanceTable table = client.describeInstanceTableAsync().join();
+ * List&lt;String&gt; ids = table.query()
+ *   .eq(InstanceTable.Column.AVAILABILITY_ZONE, "us-east-1c")
+ *   .stateCode(16)
+ *   .tag("aws:autoscaling:groupName", "api-v001")
+ *   .values(InstanceTable.Column.INSTANCE_ID);
+ * </pre>
+ *
+ * The table is immutable once built and can be shared between threads.
+ */
+public final class InstanceTable {
+
+  /** String columns that can be used in queries. */
+  public enum Column {
+    INSTANCE_ID(Instance::getInstanceId),
+    RESERVATION_ID(null),
+    IMAGE_ID(Instance::getImageId),
+    INSTANCE_TYPE(Instance::getInstanceType),
+    AVAILABILITY_ZONE(i -> (i.getPlacement() == null)
+      ? null
+      : i.getPlacement().getAvailabilityZone()),
+    SUBNET_ID(Instance::getSubnetId),
+    VPC_ID(Instance::getVpcId),
+    PRIVATE_IP_ADDRESS(Instance::getPrivateIpAddress),
+    KEY_NAME(Instance::getKeyName);
+
+    private final Function<Instance, String> accessor;
+
+    Column(Function<Instance, String> accessor) {
+      this.accessor = accessor;
+    }
+  }
+
+  /** Value used for missing strings and state codes. */
+  private static final int MISSING = -1;
+
+  /** Value used for a missing launch time. */
+  public static final long NO_LAUNCH_TIME = Long.MIN_VALUE;
+
+  private static final SmileFactory SMILE = new SmileFactory()
+    .disable(SmileGenerator.Feature.WRITE_HEADER)
+    .disable(SmileParser.Feature.REQUIRE_HEADER);
+
+  private final int size;
+  private final String[] dictionary;
+  private final Map<String, Integer> codes;
+  private final int[][] columns;
+  private final int[] stateCodes;
+  private final long[] launchTimes;
+  private final int[] tagOffsets;
+  private final int[] tagKeys;
+  private final int[] tagValues;
+  private final int[] groupOffsets;
+  private final int[] groupIds;
+  private final int[] recordOffsets;
+  private final byte[] records;
+  private final ObjectReader reader;
+
+  private InstanceTable(Builder b) {
+    this.size = b.size;
+    this.dictionary = b.dictionary.toArray(new String[b.dictionary.size()]);
+    this.codes = b.codes;
+    this.columns = new int[Column.values().length][];
+    for (int i = 0; i < columns.length; ++i)
+      columns[i] = b.columns[i].toArray();
+    this.stateCodes = b.stateCodes.toArray();
+    this.launchTimes = Arrays.copyOf(b.launchTimes, b.size);
+    this.tagOffsets = b.tagOffsets.toArray();
+    this.tagKeys = b.tagKeys.toArray();
+    this.tagValues = b.tagValues.toArray();
+    this.groupOffsets = b.groupOffsets.toArray();
+    this.groupIds = b.groupIds.toArray();
+    this.recordOffsets = b.recordOffsets.toArray();
+    this.records = b.records.toByteArray();
+    this.reader = JsonHelper.reader(Instance.class).with(SMILE);
+  }
+
+  /** Create a builder for a new table. */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /** Create a table with the instances of the reservations. */
+  public static InstanceTable create(List<Reservation> reservations) {
+    Builder builder = builder();
+    for (Reservation r : reservations)
+      builder.add(r);
+    return builder.build();
+  }
+
+  /** Number of instances in the table. */
+  public int size() {
+    return size;
+  }
+
+  /** Value of the column for a row or null if it is not set. */
+  public String get(Column column, int row) {
+    return decode(columns[column.ordinal()][row]);
+  }
+
+  /** State code for a row, for example 16 for running, or -1 if it is not set. */
+  public int stateCode(int row) {
+    return stateCodes[row];
+  }
+
+  /** Launch time in milliseconds for a row or {@link #NO_LAUNCH_TIME} if it is not set. */
+  public long launchTime(int row) {
+    return launchTimes[row];
+  }
+
+  /** Value of the tag for a row or null if the instance does not have the tag. */
+  public String tag(int row, String key) {
+    Integer k = codes.get(key);
+    if (k == null) return null;
+    for (int i = tagOffsets[row]; i < tagOffsets[row + 1]; ++i) {
+      if (tagKeys[i] == k) return decode(tagValues[i]);
+    }
+    return null;
+  }
+
+  /** All tags for a row. */
+  public Map<String, String> tags(int row) {
+    Map<String, String> tags = new LinkedHashMap<String, String>();
+    for (int i = tagOffsets[row]; i < tagOffsets[row + 1]; ++i)
+      tags.put(decode(tagKeys[i]), decode(tagValues[i]));
+    return tags;
+  }
+
+  /** Ids of the security groups for a row. */
+  public List<String> securityGroupIds(int row) {
+    List<String> ids = new ArrayList<String>();
+    for (int i = groupOffsets[row]; i < groupOffsets[row + 1]; ++i)
+      ids.add(decode(groupIds[i]));
+    return ids;
+  }
+
+  /** Decode the complete instance for a row. */
+  public Instance instance(int row) {
+    int offset = recordOffsets[row];
+    int length = recordOffsets[row + 1] - offset;
+    try {
+      return reader.readValue(records, offset, length);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Start a new query that matches all rows. Conditions added to the query are and'd. */
+  public Query query() {
+    return new Query();
+  }
+
+  private String decode(int code) {
+    return (code == MISSING) ? null : dictionary[code];
+  }
+
+  /** Dictionary codes for the values, values that are not in the table are left out. */
+  private int[] encode(String... values) {
+    int[] cs = new int[values.length];
+    int n = 0;
+    for (String v : values) {
+      Integer c = (v == null) ? null : codes.get(v);
+      if (c != null) cs[n++] = c;
+    }
+    cs = Arrays.copyOf(cs, n);
+    Arrays.sort(cs);
+    return cs;
+  }
+
+  private static boolean contains(int[] sorted, int v) {
+    return (sorted.length == 1) ? sorted[0] == v : Arrays.binarySearch(sorted, v) >= 0;
+  }
+
+  /** Query over the rows of the table. */
+  public final class Query {
+    private final List<IntPredicate> conditions = new ArrayList<IntPredicate>();
+
+    private Query() {
+    }
+
+    /** Match rows where the column has one of the values. */
+    public Query eq(Column column, String... values) {
+      final int[] col = columns[column.ordinal()];
+      final int[] cs = encode(values);
+      conditions.add(row -> contains(cs, col[row]));
+      return this;
+    }
+
+    /** Match rows where the state code is one of the codes. */
+    public Query stateCode(int... codes) {
+      final int[] cs = Arrays.copyOf(codes, codes.length);
+      Arrays.sort(cs);
+      conditions.add(row -> contains(cs, stateCodes[row]));
+      return this;
+    }
+
+    /** Match rows launched in the range, start inclusive and end exclusive. */
+    public Query launchedBetween(long start, long end) {
+      conditions.add(row -> launchTimes[row] >= start && launchTimes[row] < end);
+      return this;
+    }
+
+    /** Match rows with the tag. If the value is null any value for the key will match. */
+    public Query tag(String key, String value) {
+      final int[] k = encode(key);
+      final int[] v = (value == null) ? null : encode(value);
+      conditions.add(row -> {
+        if (k.length == 0 || (v != null && v.length == 0)) return false;
+        for (int i = tagOffsets[row]; i < tagOffsets[row + 1]; ++i) {
+          if (tagKeys[i] == k[0]) return v == null || tagValues[i] == v[0];
+        }
+        return false;
+      });
+      return this;
+    }
+
+    /** Match rows that are in the security group. */
+    public Query securityGroup(String groupId) {
+      final int[] g = encode(groupId);
+      conditions.add(row -> {
+        if (g.length == 0) return false;
+        for (int i = groupOffsets[row]; i < groupOffsets[row + 1]; ++i) {
+          if (groupIds[i] == g[0]) return true;
+        }
+        return false;
+      });
+      return this;
+    }
+
+    /** Match rows where the predicate is true. The predicate is passed the row number. */
+    public Query where(IntPredicate predicate) {
+      conditions.add(predicate);
+      return this;
+    }
+
+    private boolean matches(int row) {
+      for (IntPredicate p : conditions) {
+        if (!p.test(row)) return false;
+      }
+      return true;
+    }
+
+    /** Row numbers that match the query in table order. */
+    public int[] rows() {
+      int[] rows = new int[16];
+      int n = 0;
+      for (int row = 0; row < size; ++row) {
+        if (matches(row)) {
+          if (n == rows.length) rows = Arrays.copyOf(rows, n * 2);
+          rows[n++] = row;
+        }
+      }
+      return Arrays.copyOf(rows, n);
+    }
+
+    /** Number of rows that match the query. */
+    public int count() {
+      int n = 0;
+      for (int row = 0; row < size; ++row) {
+        if (matches(row)) ++n;
+      }
+      return n;
+    }
+
+    /** Values of the column for the matching rows without decoding the instances. */
+    public List<String> values(Column column) {
+      List<String> vs = new ArrayList<String>();
+      for (int row : rows())
+        vs.add(get(column, row));
+      return vs;
+    }
+
+    /** Decode the complete instances for the matching rows. */
+    public List<Instance> instances() {
+      List<Instance> instances = new ArrayList<Instance>();
+      for (int row : rows())
+        instances.add(instance(row));
+      return instances;
+    }
+  }
+
+  /** Builder for a table. Instances are added one reservation at a time. */
+  public static final class Builder {
+    private int size = 0;
+    private final List<String> dictionary = new ArrayList<String>();
+    private final Map<String, Integer> codes = new HashMap<String, Integer>();
+    private final IntBuffer[] columns = new IntBuffer[Column.values().length];
+    private final IntBuffer stateCodes = new IntBuffer();
+    private long[] launchTimes = new long[16];
+    private final IntBuffer tagOffsets = new IntBuffer();
+    private final IntBuffer tagKeys = new IntBuffer();
+    private final IntBuffer tagValues = new IntBuffer();
+    private final IntBuffer groupOffsets = new IntBuffer();
+    private final IntBuffer groupIds = new IntBuffer();
+    private final IntBuffer recordOffsets = new IntBuffer();
+    private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+    private boolean built = false;
+
+    private Builder() {
+      for (int i = 0; i < columns.length; ++i)
+        columns[i] = new IntBuffer();
+      tagOffsets.add(0);
+      groupOffsets.add(0);
+      recordOffsets.add(0);
+    }
+
+    private int code(String s) {
+      if (s == null) return MISSING;
+      Integer c = codes.get(s);
+      if (c == null) {
+        c = dictionary.size();
+        dictionary.add(s);
+        codes.put(s, c);
+      }
+      return c;
+    }
+
+    /** Add the instances of the reservation. */
+    public synchronized Builder add(Reservation reservation) {
+      if (built) throw new IllegalStateException("table has already been built");
+      if (reservation.getInstances() == null) return this;
+      for (Instance i : reservation.getInstances()) {
+        for (Column c : Column.values()) {
+          String v = (c == Column.RESERVATION_ID)
+            ? reservation.getReservationId()
+            : c.accessor.apply(i);
+          columns[c.ordinal()].add(code(v));
+        }
+
+        stateCodes.add((i.getState() == null || i.getState().getCode() == null)
+          ? MISSING : i.getState().getCode());
+
+        if (size == launchTimes.length) launchTimes = Arrays.copyOf(launchTimes, size * 2);
+        launchTimes[size] = (i.getLaunchTime() == null)
+          ? NO_LAUNCH_TIME
+          : i.getLaunchTime().getTime();
+
+        if (i.getTags() != null) {
+          for (Tag t : i.getTags()) {
+            tagKeys.add(code(t.getKey()));
+            tagValues.add(code(t.getValue()));
+          }
+        }
+        tagOffsets.add(tagKeys.size());
+
+        if (i.getSecurityGroups() != null) {
+          for (GroupIdentifier g : i.getSecurityGroups())
+            groupIds.add(code(g.getGroupId()));
+        }
+        groupOffsets.add(groupIds.size());
+
+        try (JsonGenerator gen = SMILE.createGenerator(records)) {
+          JsonHelper.encode(gen, i);
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        recordOffsets.add(records.size());
+
+        ++size;
+      }
+      return this;
+    }
+
+    /** Create the table. The builder cannot be used after the table is built. */
+    public synchronized InstanceTable build() {
+      built = true;
+      return new InstanceTable(this);
+    }
+  }
+
+  /** Growable array of ints. */
+  private static final class IntBuffer {
+    private int[] data = new int[16];
+    private int size = 0;
+
+    void add(int v) {
+      if (size == data.length) data = Arrays.copyOf(data, size * 2);
+      data[size++] = v;
+    }
+
+    int size() {
+      return size;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(data, size);
+    }
+  }
+}
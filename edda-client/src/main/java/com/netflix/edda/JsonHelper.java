@@ -17,30 +17,132 @@ package com.netflix.edda;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.MappingJsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
 
 import com.netflix.awsobjectmapper.AmazonObjectMapperConfigurer;
 import com.netflix.edda.mapper.*;
+import com.netflix.edda.util.StringPool;
 
 public class JsonHelper {
   private JsonHelper() {}
 
+  /** Media type for the smile binary format. */
+  public static final String SMILE = "application/x-jackson-smile";
+
+  /** Media type for the cbor binary format. */
+  public static final String CBOR = "application/cbor";
+
+  /**
+   * Canonical instances of the string values that have been decoded. Cached collections hold
+   * many copies of the same zones, instance types, and group, image, subnet and vpc ids, with
+   * the pool the records share a single instance of each.
+   */
+  private static final StringPool stringPool = new StringPool(1 << 16, 128);
+
   private static final ObjectMapper mapper;
   private static final MappingJsonFactory factory;
 
+  /**
+   * Readers with the deserializer for the root type already resolved. Readers are immutable
+   * so a single instance per type is shared by all callers.
+   */
+  private static final ConcurrentHashMap<Type, ObjectReader> readers =
+    new ConcurrentHashMap<Type, ObjectReader>();
+
+  /** Readers for content in the binary formats, derived from the json reader for the type. */
+  private static final ConcurrentHashMap<Type, ObjectReader> smileReaders =
+    new ConcurrentHashMap<Type, ObjectReader>();
+
+  private static final ConcurrentHashMap<Type, ObjectReader> cborReaders =
+    new ConcurrentHashMap<Type, ObjectReader>();
+
+  private static final SmileFactory smileFactory = new SmileFactory();
+  private static final CBORFactory cborFactory = new CBORFactory();
+
   static {
+    // Afterburner generates bytecode for the setters of the AWS model classes so binding does
+    // not go through reflection
     mapper = AmazonObjectMapperConfigurer.createConfigured()
       .addMixIn(InstanceStateView.class, InstanceStateViewMixIn.class)
-      .addMixIn(LoadBalancerAttributesView.class, LoadBalancerAttributesViewMixIn.class);
+      .addMixIn(LoadBalancerAttributesView.class, LoadBalancerAttributesViewMixIn.class)
+      .registerModule(new AfterburnerModule())
+      .registerModule(new SimpleModule("edda-strings")
+        .addDeserializer(String.class, new PooledStringDeserializer(stringPool)));
     factory = new MappingJsonFactory(mapper);
   }
 
+  /** Cached reader for the type. */
+  public static ObjectReader reader(Type type) {
+    ObjectReader reader = readers.get(type);
+    if (reader == null) {
+      reader = readers.computeIfAbsent(type,
+        t -> mapper.readerFor(mapper.getTypeFactory().constructType(t)));
+    }
+    return reader;
+  }
+
+  /** Cached reader for the type of the reference. */
+  public static ObjectReader reader(TypeReference<?> ref) {
+    return reader(ref.getType());
+  }
+
+  /**
+   * Cached reader for the type and the Content-Type of the input. Smile and cbor content is
+   * read with the corresponding binary parser, anything else including a null content type is
+   * read as json.
+   */
+  public static ObjectReader reader(Type type, String contentType) {
+    String mediaType = mediaType(contentType);
+    if (SMILE.equals(mediaType)) return reader(smileReaders, type, smileFactory);
+    if (CBOR.equals(mediaType)) return reader(cborReaders, type, cborFactory);
+    return reader(type);
+  }
+
+  private static ObjectReader reader(
+      ConcurrentHashMap<Type, ObjectReader> cache, Type type, JsonFactory format) {
+    ObjectReader reader = cache.get(type);
+    if (reader == null) {
+      reader = cache.computeIfAbsent(type, t -> reader(t).with(format));
+    }
+    return reader;
+  }
+
+  /** Returns true if the Content-Type is one of the binary formats, smile or cbor. */
+  public static boolean isBinary(String contentType) {
+    String mediaType = mediaType(contentType);
+    return SMILE.equals(mediaType) || CBOR.equals(mediaType);
+  }
+
+  /** Media type of a Content-Type header without any parameters such as the charset. */
+  static String mediaType(String contentType) {
+    if (contentType == null) return null;
+    int end = contentType.indexOf(';');
+    String mediaType = (end < 0) ? contentType : contentType.substring(0, end);
+    return mediaType.trim().toLowerCase(Locale.US);
+  }
+
+  /** Type of the elements for a collection type such as {@code List<Reservation>}. */
+  public static Type elementType(Type type) {
+    return mapper.getTypeFactory().constructType(type).getContentType();
+  }
+
   public static JsonParser createParser(InputStream input) throws IOException {
     return factory.createParser(input);
   }
@@ -51,8 +153,7 @@ public class JsonHelper {
 
   public static <T> T decode(Class<T> c, InputStream input) throws IOException {
     try {
-      TypeReference<T> ref = new TypeReference<T>() {};
-      return createParser(input).readValueAs(ref);
+      return reader(c).readValue(input);
     }
     finally {
       input.close();
@@ -61,8 +162,7 @@ public class JsonHelper {
 
   public static <T> T decode(Class<T> c, Reader input) throws IOException {
     try {
-      TypeReference<T> ref = new TypeReference<T>() {};
-      return createParser(input).readValueAs(ref);
+      return reader(c).readValue(input);
     }
     finally {
       input.close();
@@ -72,4 +172,17 @@ public class JsonHelper {
   public static <T> T decode(Class<T> c, String json) throws IOException {
     return decode(c, new StringReader(json));
   }
+
+  /** Write the value as json using the same mapper so it can be read back with decode. */
+  public static void encode(OutputStream output, Object value) throws IOException {
+    mapper.writeValue(output, value);
+  }
+
+  /**
+   * Write the value to the generator using the same mapper. The generator determines the
+   * format so this can be used to write the binary formats.
+   */
+  public static void encode(JsonGenerator gen, Object value) throws IOException {
+    mapper.writeValue(gen, value);
+  }
 }
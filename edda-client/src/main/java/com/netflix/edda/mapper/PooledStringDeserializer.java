@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.mapper;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StringDeserializer;
+
+import com.netflix.edda.util.StringPool;
+
+/**
+ * Deserializer for string values that returns the canonical instance from a pool. The value is
+ * looked up using the parser buffer so repeated values do not allocate a new string. Other
+ * tokens are handled by the default string deserializer.
+ */
+public class PooledStringDeserializer extends StdScalarDeserializer<String> {
+
+  private final StringPool pool;
+
+  public PooledStringDeserializer(StringPool pool) {
+    super(String.class);
+    this.pool = pool;
+  }
+
+  @Override
+  public String deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+    if (p.getCurrentToken() == JsonToken.VALUE_STRING)
+      return pool.intern(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+    return StringDeserializer.instance.deserialize(p, ctxt);
+  }
+}
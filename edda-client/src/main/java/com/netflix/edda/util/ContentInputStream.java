@@ -0,0 +1,303 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import rx.Observer;
+import rx.Subscription;
+
+/**
+ * InputStream over the content chunks of an http response. The chunks are queued as they are
+ * received and read directly from the netty buffers so the full payload never needs to be
+ * copied into a single array. Closing the stream will release any buffered chunks and
+ * unsubscribe from the response.
+ *
+ * <p>The response observable cannot be paused, so if the reader falls behind, for example a
+ * slow subscriber to a stream of records, chunks would accumulate without bound. Once more than
+ * {@code maxBuffered} bytes are held in memory further chunks are appended to a temporary file
+ * and read back in order when the reader gets to them. The file is deleted when the stream is
+ * closed.
+ */
+public class ContentInputStream extends InputStream implements Observer<ByteBuf> {
+
+  private static final Object END = new Object();
+
+  private final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+  private final long timeout;
+  private final long maxBuffered;
+
+  private volatile Subscription subscription;
+  private volatile Throwable failure;
+  private volatile long lastReceived;
+  private volatile String contentType;
+  private volatile long contentLength = -1L;
+
+  private boolean closed = false;
+  private long readStart = 0L;
+  private boolean done = false;
+  private ByteBuf current;
+  private long count = 0L;
+
+  // Guarded by this, written by the event loop and read back by the consumer
+  private long buffered = 0L;
+  private FileChannel spill;
+  private long spillEnd = 0L;
+
+  /**
+   * Create a new stream.
+   *
+   * @param timeout
+   *     Maximum amount of time in milliseconds to wait without receiving any content. Chunks
+   *     that have already been received can always be read, so a slow reader will not time
+   *     out on a response that has completed.
+   * @param maxBuffered
+   *     Maximum number of bytes to hold in memory before spilling chunks to a temporary file.
+   */
+  public ContentInputStream(long timeout, long maxBuffered) {
+    this.timeout = timeout;
+    this.maxBuffered = maxBuffered;
+    this.lastReceived = System.currentTimeMillis();
+  }
+
+  public void setSubscription(Subscription subscription) {
+    this.subscription = subscription;
+    if (isClosed()) subscription.unsubscribe();
+  }
+
+  /**
+   * Set the Content-Type header of the response. Must be called before the content is
+   * subscribed so it is visible to the reader once the first chunk has been received.
+   */
+  public void setContentType(String contentType) {
+    this.contentType = contentType;
+  }
+
+  /**
+   * Content-Type of the response, or null if it was not specified. Blocks until the first
+   * chunk of the content has been received, or throws if the request failed or timed out
+   * before then.
+   */
+  public String getContentType() throws IOException {
+    nextChunk();
+    return contentType;
+  }
+
+  /**
+   * Set the Content-Length header of the response, or -1 if it is not known. Must be called
+   * before the content is subscribed.
+   */
+  public void setContentLength(long contentLength) {
+    this.contentLength = contentLength;
+  }
+
+  /**
+   * Content-Length of the response, or -1 if it was not specified, for example for a chunked
+   * response. Blocks the same way as {@link #getContentType()}.
+   */
+  public long getContentLength() throws IOException {
+    nextChunk();
+    return contentLength;
+  }
+
+  /** Failure reported for the response, or null if none has been seen. */
+  public Throwable getFailure() {
+    return failure;
+  }
+
+  /** Number of bytes that have been read from the stream. */
+  public long getCount() {
+    return count;
+  }
+
+  /** Number of bytes received that are held in memory waiting to be read. */
+  public synchronized long getBuffered() {
+    return buffered;
+  }
+
+  /** Number of bytes received that have been written to the temporary file. */
+  public synchronized long getSpilled() {
+    return spillEnd;
+  }
+
+  @Override public synchronized void onNext(ByteBuf bb) {
+    if (closed) return;
+    lastReceived = System.currentTimeMillis();
+    int n = bb.readableBytes();
+    if (buffered + n <= maxBuffered) {
+      bb.retain();
+      buffered += n;
+      queue.add(bb);
+    }
+    else {
+      try {
+        queue.add(spill(bb));
+      }
+      catch (IOException e) {
+        onError(e);
+      }
+    }
+  }
+
+  private Spilled spill(ByteBuf bb) throws IOException {
+    if (spill == null) {
+      spill = FileChannel.open(Files.createTempFile("edda-content", ".tmp"),
+        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+    long offset = spillEnd;
+    ByteBuffer src = bb.nioBuffer();
+    while (src.hasRemaining()) {
+      spillEnd += spill.write(src, spillEnd);
+    }
+    return new Spilled(offset, (int) (spillEnd - offset));
+  }
+
+  private ByteBuf readSpilled(Spilled s) throws IOException {
+    ByteBuffer dst = ByteBuffer.allocate(s.length);
+    while (dst.hasRemaining()) {
+      if (spill.read(dst, s.offset + dst.position()) < 0)
+        throw new EOFException("temporary file truncated");
+    }
+    return Unpooled.wrappedBuffer(dst.array());
+  }
+
+  @Override public void onError(Throwable t) {
+    failure = t;
+    queue.add(END);
+  }
+
+  @Override public void onCompleted() {
+    queue.add(END);
+  }
+
+  private synchronized boolean isClosed() {
+    return closed;
+  }
+
+  private boolean nextChunk() throws IOException {
+    while (!done && (current == null || !current.isReadable())) {
+      if (current != null) {
+        current.release();
+        current = null;
+      }
+      Object obj = poll();
+      if (obj == null) {
+        failure = new TimeoutException("timed out waiting for content");
+        done = true;
+      }
+      else if (obj == END) {
+        done = true;
+      }
+      else if (obj instanceof Spilled) {
+        current = readSpilled((Spilled) obj);
+      }
+      else {
+        current = (ByteBuf) obj;
+        synchronized (this) {
+          buffered -= current.readableBytes();
+        }
+      }
+    }
+    if (failure != null) throw new IOException("failed to read content", failure);
+    return !done;
+  }
+
+  /**
+   * Take the next item from the queue. Items that have already been received are returned
+   * immediately, otherwise wait until timeout has passed since the last chunk was received.
+   * Time before the first read, for example while the reader was waiting for a thread, is not
+   * counted. Returns null if the wait timed out.
+   */
+  private Object poll() throws IOException {
+    Object obj = queue.poll();
+    if (readStart == 0L) readStart = System.currentTimeMillis();
+    try {
+      while (obj == null) {
+        long since = Math.max(lastReceived, readStart);
+        long remaining = since + timeout - System.currentTimeMillis();
+        if (remaining <= 0L) return null;
+        obj = queue.poll(remaining, TimeUnit.MILLISECONDS);
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for content", e);
+    }
+    return obj;
+  }
+
+  @Override public int read() throws IOException {
+    if (!nextChunk()) return -1;
+    ++count;
+    return current.readByte() & 0xFF;
+  }
+
+  @Override public int read(byte[] buf, int off, int len) throws IOException {
+    if (len == 0) return 0;
+    if (!nextChunk()) return -1;
+    int n = Math.min(len, current.readableBytes());
+    current.readBytes(buf, off, n);
+    count += n;
+    return n;
+  }
+
+  @Override public int available() throws IOException {
+    return (current == null) ? 0 : current.readableBytes();
+  }
+
+  @Override public void close() throws IOException {
+    synchronized (this) {
+      if (closed) return;
+      closed = true;
+      if (spill != null) spill.close();
+    }
+    Subscription s = subscription;
+    if (s != null) s.unsubscribe();
+    if (current != null) {
+      current.release();
+      current = null;
+    }
+    Object obj;
+    while ((obj = queue.poll()) != null) {
+      if (obj instanceof ByteBuf) ((ByteBuf) obj).release();
+    }
+    done = true;
+  }
+
+  /** Position of a chunk that was written to the temporary file. */
+  private static final class Spilled {
+    final long offset;
+    final int length;
+
+    Spilled(long offset, int length) {
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Tag;
+
+/**
+ * Compiles EC2 filters into a predicate that can be evaluated against the records returned
+ * from edda. The semantics follow the EC2 API: values for a single filter are OR'd together,
+ * separate filters are AND'd, values may use {@code *} and {@code ?} wildcards with
+ * {@code \} as the escape character, and the {@code tag:<key>}, {@code tag-key} and
+ * {@code tag-value} filters are supported for types with tags.
+ *
+ * <p>Fields are extracted with a function returning either a single value or a collection of
+ * values. Non-string values are compared using {@code String.valueOf} so that booleans and
+ * numbers match the string form used in the EC2 API.
+ */
+public class FilterCompiler<T> {
+
+  /** Create a builder for the set of filters supported for a type. */
+  public static <T> Builder<T> builder() {
+    return new Builder<T>();
+  }
+
+  private final Map<String, Function<T, Object>> fields;
+  private final Function<T, List<Tag>> tags;
+
+  private FilterCompiler(Builder<T> builder) {
+    this.fields = new HashMap<String, Function<T, Object>>(builder.fields);
+    this.tags = builder.tags;
+  }
+
+  /** Returns true if the filter name can be evaluated for this type. */
+  public boolean supports(String name) {
+    if (name == null) return false;
+    if (tags != null && (name.startsWith("tag:") || "tag-key".equals(name) || "tag-value".equals(name)))
+      return true;
+    return fields.containsKey(name);
+  }
+
+  /**
+   * Compile the filters into a single predicate. Returns null if there are no filters so the
+   * caller can skip the pass over the records entirely.
+   *
+   * @throws UnsupportedOperationException if any of the filters cannot be evaluated locally
+   */
+  public Predicate<T> compile(List<Filter> filters) {
+    if (filters == null || filters.isEmpty()) return null;
+    Predicate<T> result = null;
+    for (Filter filter : filters) {
+      Predicate<T> p = compile(filter);
+      result = (result == null) ? p : result.and(p);
+    }
+    return result;
+  }
+
+  private Predicate<T> compile(Filter filter) {
+    String name = filter.getName();
+    if (!supports(name))
+      throw new UnsupportedOperationException("filter " + name + " not supported");
+    final Predicate<String> values = compileValues(filter.getValues());
+
+    if (name.startsWith("tag:")) {
+      final String key = name.substring("tag:".length());
+      return r -> {
+        List<Tag> ts = tags.apply(r);
+        if (ts == null) return false;
+        for (Tag t : ts) {
+          if (key.equals(t.getKey()) && values.test(t.getValue())) return true;
+        }
+        return false;
+      };
+    }
+    else if ("tag-key".equals(name)) {
+      return r -> anyTag(tags.apply(r), Tag::getKey, values);
+    }
+    else if ("tag-value".equals(name)) {
+      return r -> anyTag(tags.apply(r), Tag::getValue, values);
+    }
+    else {
+      final Function<T, Object> field = fields.get(name);
+      return r -> matches(field.apply(r), values);
+    }
+  }
+
+  private static boolean anyTag(List<Tag> ts, Function<Tag, String> f, Predicate<String> values) {
+    if (ts == null) return false;
+    for (Tag t : ts) {
+      if (values.test(f.apply(t))) return true;
+    }
+    return false;
+  }
+
+  private static boolean matches(Object v, Predicate<String> values) {
+    if (v == null) return false;
+    if (v instanceof Collection<?>) {
+      for (Object item : (Collection<?>) v) {
+        if (item != null && values.test(String.valueOf(item))) return true;
+      }
+      return false;
+    }
+    return values.test(String.valueOf(v));
+  }
+
+  /**
+   * Values without wildcards are checked with a hash lookup, only the values that contain a
+   * wildcard need to be evaluated as a regular expression.
+   */
+  private static Predicate<String> compileValues(List<String> vs) {
+    final Set<String> exact = new HashSet<String>();
+    final List<Pattern> patterns = new ArrayList<Pattern>();
+    if (vs != null) {
+      for (String v : vs) {
+        if (v == null) continue;
+        Pattern p = toPattern(v);
+        if (p == null) exact.add(unescape(v));
+        else patterns.add(p);
+      }
+    }
+
+    if (patterns.isEmpty()) {
+      return v -> v != null && exact.contains(v);
+    }
+    return v -> {
+      if (v == null) return false;
+      if (exact.contains(v)) return true;
+      for (Pattern p : patterns) {
+        if (p.matcher(v).matches()) return true;
+      }
+      return false;
+    };
+  }
+
+  /** Convert a value with wildcards to a pattern. Returns null if there are no wildcards. */
+  private static Pattern toPattern(String v) {
+    StringBuilder regex = new StringBuilder();
+    StringBuilder literal = new StringBuilder();
+    boolean wildcard = false;
+    for (int i = 0; i < v.length(); ++i) {
+      char c = v.charAt(i);
+      if (c == '\\' && i + 1 < v.length()) {
+        literal.append(v.charAt(++i));
+      }
+      else if (c == '*' || c == '?') {
+        wildcard = true;
+        if (literal.length() > 0) {
+          regex.append(Pattern.quote(literal.toString()));
+          literal.setLength(0);
+        }
+        regex.append(c == '*' ? ".*" : ".");
+      }
+      else {
+        literal.append(c);
+      }
+    }
+    if (!wildcard) return null;
+    if (literal.length() > 0) regex.append(Pattern.quote(literal.toString()));
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
+  }
+
+  private static String unescape(String v) {
+    if (v.indexOf('\\') < 0) return v;
+    StringBuilder buf = new StringBuilder(v.length());
+    for (int i = 0; i < v.length(); ++i) {
+      char c = v.charAt(i);
+      if (c == '\\' && i + 1 < v.length()) c = v.charAt(++i);
+      buf.append(c);
+    }
+    return buf.toString();
+  }
+
+  public static class Builder<T> {
+    private final Map<String, Function<T, Object>> fields =
+      new HashMap<String, Function<T, Object>>();
+    private Function<T, List<Tag>> tags;
+
+    private Builder() {}
+
+    /** Filter on a field of the record. */
+    public Builder<T> field(String name, Function<T, ?> f) {
+      fields.put(name, r -> f.apply(r));
+      return this;
+    }
+
+    /** Filter on a field of a nested object, records where the nested object is null never match. */
+    public <A> Builder<T> field(String name, Function<T, A> f1, Function<A, ?> f2) {
+      fields.put(name, r -> {
+        A a = f1.apply(r);
+        return (a == null) ? null : f2.apply(a);
+      });
+      return this;
+    }
+
+    /** Filter on a field of each object in a nested list. */
+    public <A> Builder<T> each(String name, Function<T, List<A>> f1, Function<A, ?> f2) {
+      fields.put(name, r -> {
+        List<A> as = f1.apply(r);
+        if (as == null) return null;
+        List<Object> vs = new ArrayList<Object>(as.size());
+        for (A a : as) {
+          if (a != null) vs.add(f2.apply(a));
+        }
+        return vs;
+      });
+      return this;
+    }
+
+    /** Enable the tag filters using the tags of the record. */
+    public Builder<T> tags(Function<T, List<Tag>> f) {
+      this.tags = f;
+      return this;
+    }
+
+    public FilterCompiler<T> build() {
+      return new FilterCompiler<T>(this);
+    }
+  }
+}
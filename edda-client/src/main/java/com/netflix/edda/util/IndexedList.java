@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Immutable list that can lazily build hash indexes on the records. Used for collections that
+ * are kept in memory and shared so that looking up records by id only needs to touch the
+ * requested ids rather than scanning the full collection. Each index is built on first use
+ * and kept for the lifetime of the list.
+ */
+public class IndexedList<T> extends AbstractList<T> implements RandomAccess {
+
+  private static final int[] EMPTY = new int[0];
+
+  private final Object[] items;
+  private final ConcurrentHashMap<String, Map<String, int[]>> indexes =
+    new ConcurrentHashMap<String, Map<String, int[]>>();
+
+  public IndexedList(Collection<? extends T> items) {
+    this.items = items.toArray();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override public T get(int i) {
+    return (T) items[i];
+  }
+
+  @Override public int size() {
+    return items.length;
+  }
+
+  /**
+   * Select the records where the key is one of the values. The index is identified by name so
+   * the same name must always be used with the same key function.
+   */
+  public List<T> select(String name, Function<T, String> key, Collection<String> values) {
+    return lookup(index(name, key), values);
+  }
+
+  /**
+   * Returns the position of the first record with the key or -1 if there is no such record.
+   * Uses the same index as {@link #select(String, Function, Collection)}.
+   */
+  public int indexOf(String name, Function<T, String> key, String value) {
+    int[] ps = index(name, key).get(value);
+    return (ps == null) ? -1 : ps[0];
+  }
+
+  private Map<String, int[]> index(String name, Function<T, String> key) {
+    return indexes.computeIfAbsent(name, k -> {
+      IndexBuilder builder = new IndexBuilder();
+      for (int i = 0; i < items.length; ++i)
+        builder.add(key.apply(get(i)), i);
+      return builder.build();
+    });
+  }
+
+  /**
+   * Select the records where any of the keys is one of the values. This is used for records
+   * that contain a list of the objects being searched for, such as a reservation with a list
+   * of instances.
+   */
+  public List<T> selectAny(
+    String name,
+    Function<T, ? extends Collection<String>> keys,
+    Collection<String> values
+  ) {
+    Map<String, int[]> index = indexes.computeIfAbsent(name, k -> {
+      IndexBuilder builder = new IndexBuilder();
+      for (int i = 0; i < items.length; ++i) {
+        Collection<String> ks = keys.apply(get(i));
+        if (ks != null) {
+          for (String v : new LinkedHashSet<String>(ks))
+            builder.add(v, i);
+        }
+      }
+      return builder.build();
+    });
+    return lookup(index, values);
+  }
+
+  private List<T> lookup(Map<String, int[]> index, Collection<String> values) {
+    int n = 0;
+    int[][] matches = new int[values.size()][];
+    for (String v : new LinkedHashSet<String>(values)) {
+      int[] ps = index.get(v);
+      matches[n++] = (ps == null) ? EMPTY : ps;
+    }
+
+    // Return the records in the same order as the list
+    List<Integer> positions = new ArrayList<Integer>();
+    for (int i = 0; i < n; ++i) {
+      for (int p : matches[i])
+        positions.add(p);
+    }
+    Collections.sort(positions);
+
+    List<T> results = new ArrayList<T>(positions.size());
+    int prev = -1;
+    for (int p : positions) {
+      if (p != prev) results.add(get(p));
+      prev = p;
+    }
+    return results;
+  }
+
+  /** Positions of the records for a key, the array grows by doubling as they are added. */
+  private static final class Positions {
+    private int[] values = new int[1];
+    private int size = 0;
+
+    void add(int pos) {
+      if (size == values.length) values = Arrays.copyOf(values, 2 * size);
+      values[size++] = pos;
+    }
+
+    int[] toArray() {
+      return (size == values.length) ? values : Arrays.copyOf(values, size);
+    }
+  }
+
+  /**
+   * Collects the positions for each key so that building an index is linear in the number of
+   * records even if many of them share a key.
+   */
+  private static final class IndexBuilder {
+    private final Map<String, Positions> positions = new HashMap<String, Positions>();
+
+    void add(String key, int pos) {
+      if (key != null) positions.computeIfAbsent(key, k -> new Positions()).add(pos);
+    }
+
+    Map<String, int[]> build() {
+      Map<String, int[]> index = new HashMap<String, int[]>(2 * positions.size());
+      for (Map.Entry<String, Positions> entry : positions.entrySet())
+        index.put(entry.getKey(), entry.getValue().toArray());
+      return index;
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.util.Arrays;
+
+/**
+ * Finds the boundaries of the elements of a top level json array without parsing them. Only
+ * strings, escapes and nesting are tracked so a scan is much cheaper than a full parse, the
+ * elements can then be parsed independently. The input is assumed to be well formed json,
+ * errors will be reported when the elements are parsed.
+ */
+public final class JsonArraySplitter {
+
+  private JsonArraySplitter() {
+  }
+
+  /**
+   * Return the start and end offsets of each element, the offsets for element i are at
+   * positions 2i and 2i + 1. Returns null if the content is not a json array, for example if it
+   * is in a binary format.
+   */
+  public static int[] split(byte[] buf, int offset, int length) {
+    int end = offset + length;
+    int i = skipWhitespace(buf, offset, end);
+    if (i >= end || buf[i] != '[') return null;
+
+    int[] bounds = new int[64];
+    int n = 0;
+    int depth = 1;
+    int start = -1;
+    boolean inString = false;
+    for (++i; i < end && depth > 0; ++i) {
+      byte b = buf[i];
+      if (inString) {
+        if (b == '\\') ++i;
+        else if (b == '"') inString = false;
+        continue;
+      }
+      switch (b) {
+        case ' ': case '\t': case '\n': case '\r':
+          break;
+        case ',':
+        case ']':
+        case '}':
+          if (depth == 1 && start >= 0) {
+            if (n + 2 > bounds.length) bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            bounds[n++] = start;
+            bounds[n++] = i;
+            start = -1;
+          }
+          if (b != ',') --depth;
+          break;
+        case '"':
+          inString = true;
+          if (depth == 1 && start < 0) start = i;
+          break;
+        case '{':
+        case '[':
+          if (depth == 1 && start < 0) start = i;
+          ++depth;
+          break;
+        default:
+          if (depth == 1 && start < 0) start = i;
+          break;
+      }
+    }
+    return Arrays.copyOf(bounds, n);
+  }
+
+  private static int skipWhitespace(byte[] buf, int i, int end) {
+    while (i < end && (buf[i] == ' ' || buf[i] == '\t' || buf[i] == '\n' || buf[i] == '\r'))
+      ++i;
+    return i;
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * A page of records along with the token to use for fetching the next page. The token is null
+ * if this is the last page.
+ */
+public class Page<T> {
+  private final List<T> items;
+  private final String nextToken;
+
+  public Page(List<T> items, String nextToken) {
+    this.items = items;
+    this.nextToken = nextToken;
+  }
+
+  public List<T> items() {
+    return items;
+  }
+
+  public String nextToken() {
+    return nextToken;
+  }
+
+  /**
+   * Position in a list of records. The key of the last record on the previous page is used to
+   * resume, so records added or removed before that point will not cause records to be skipped
+   * or repeated. The offset is used if the last record is no longer present.
+   */
+  public static class Cursor {
+    private final int offset;
+    private final String key;
+
+    public Cursor(int offset, String key) {
+      this.offset = offset;
+      this.key = (key == null) ? "" : key;
+    }
+
+    public int offset() {
+      return offset;
+    }
+
+    public String key() {
+      return key;
+    }
+
+    public String encode() {
+      byte[] bytes = (offset + ":" + key).getBytes(StandardCharsets.UTF_8);
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Decode a token created with {@link #encode()}.
+     *
+     * @throws IllegalArgumentException if the token is not valid
+     */
+    public static Cursor decode(String token) {
+      String s = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+      int pos = s.indexOf(':');
+      if (pos <= 0)
+        throw new IllegalArgumentException("invalid token: " + token);
+      int offset = Integer.parseInt(s.substring(0, pos));
+      if (offset < 0)
+        throw new IllegalArgumentException("invalid token: " + token);
+      return new Cursor(offset, s.substring(pos + 1));
+    }
+  }
+}
@@ -15,41 +15,102 @@
  */
 package com.netflix.edda.util;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class ProxyHelper {
   private ProxyHelper() {}
 
-  private static Throwable findCause(Throwable e) {
-    Throwable t = e;
-    while (t != null && t.getClass().getName().startsWith("java.lang.reflect."))
-      t = t.getCause();
-    return (t == null) ? e : t;
+  /**
+   * Dispatch tables keyed by the interface and then the class providing the implementation.
+   * Each table maps the interface methods to a handle of type (Object, Object[])Object so a
+   * proxied call is a map lookup followed by a single handle invocation.
+   */
+  private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<?>, Map<Method, MethodHandle>>>
+    TABLES = new ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<?>, Map<Method, MethodHandle>>>();
+
+  private static Map<Method, MethodHandle> dispatchTable(Class<?> ctype, Class<?> impl) {
+    return TABLES
+      .computeIfAbsent(ctype, k -> new ConcurrentHashMap<Class<?>, Map<Method, MethodHandle>>())
+      .computeIfAbsent(impl, k -> createDispatchTable(ctype, impl));
+  }
+
+  /**
+   * Find the method on the implementation class with the same name and parameter types for
+   * each method of the interface. Methods without a match are left out of the table. The
+   * methods of Object are included so equals, hashCode and toString go to the implementation.
+   */
+  private static Map<Method, MethodHandle> createDispatchTable(Class<?> ctype, Class<?> impl) {
+    Map<Method, MethodHandle> table = new HashMap<Method, MethodHandle>();
+    for (Method[] methods : new Method[][] {ctype.getMethods(), Object.class.getMethods()}) {
+      for (Method method : methods) {
+        try {
+          Method m = impl.getMethod(method.getName(), method.getParameterTypes());
+          table.put(method, toHandle(m));
+        }
+        catch (NoSuchMethodException e) {
+          // Not implemented, the caller decides how to handle missing entries
+        }
+      }
+    }
+    return Collections.unmodifiableMap(table);
+  }
+
+  private static MethodHandle toHandle(Method m) {
+    MethodHandle handle;
+    try {
+      handle = MethodHandles.publicLookup().unreflect(m);
+    }
+    catch (IllegalAccessException e) {
+      // Public method declared on a class that is not public, for example an anonymous class
+      try {
+        m.setAccessible(true);
+        handle = MethodHandles.lookup().unreflect(m);
+      }
+      catch (IllegalAccessException ex) {
+        throw new IllegalStateException("cannot access " + m, ex);
+      }
+    }
+    int n = m.getParameterCount();
+    return handle.asType(handle.type().generic()).asSpreader(Object[].class, n);
+  }
+
+  private static Object invoke(MethodHandle handle, Object target, Object[] args) throws Throwable {
+    return handle.invokeExact(target, args);
   }
 
-  @SuppressWarnings("unchecked")
   public static <T> T wrapper(final Class<T> ctype, final T delegate, final Object overrides) {
+    return wrapper(ctype, delegate, overrides, m -> {});
+  }
+
+  /**
+   * Create a proxy that uses the methods of overrides where available and the delegate for
+   * all other methods. The listener is called for each call that goes to the delegate.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> T wrapper(
+      final Class<T> ctype,
+      final T delegate,
+      final Object overrides,
+      final Consumer<Method> delegateListener) {
+    final Map<Method, MethodHandle> overridden = dispatchTable(ctype, overrides.getClass());
+    final Map<Method, MethodHandle> delegated = dispatchTable(ctype, ctype);
     InvocationHandler handler = new InvocationHandler() {
       @Override
       public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        try {
-          Method m = overrides.getClass().getMethod(method.getName(), method.getParameterTypes());
-          return m.invoke(overrides, args);
-        }
-        catch(NoSuchMethodException e) {
-          try {
-            return method.invoke(delegate, args);
-          }
-          catch (Throwable t) {
-            throw findCause(t);
-          }
-        }
-        catch(Throwable t) {
-          throw findCause(t);
-        }
+        MethodHandle handle = overridden.get(method);
+        if (handle != null)
+          return ProxyHelper.invoke(handle, overrides, args);
+        delegateListener.accept(method);
+        return ProxyHelper.invoke(delegated.get(method), delegate, args);
       }
     };
 
@@ -69,19 +130,14 @@ public class ProxyHelper {
 
   @SuppressWarnings("unchecked")
   public static <T> T unsupported(final Class<T> ctype, final Object overrides) {
+    final Map<Method, MethodHandle> overridden = dispatchTable(ctype, overrides.getClass());
     InvocationHandler handler = new InvocationHandler() {
       @Override
       public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        try {
-          Method m = overrides.getClass().getMethod(method.getName(), method.getParameterTypes());
-          return m.invoke(overrides, args);
-        }
-        catch(NoSuchMethodException e) {
+        MethodHandle handle = overridden.get(method);
+        if (handle == null)
           throw new UnsupportedOperationException(ctype.getName() + "." + method.getName());
-        }
-        catch(Throwable t) {
-          throw findCause(t);
-        }
+        return ProxyHelper.invoke(handle, overrides, args);
       }
     };
 
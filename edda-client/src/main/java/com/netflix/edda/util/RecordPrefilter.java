@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Selects records of a collection based on the tokens of each record, before it is bound to
+ * a model object. This is the local equivalent of pushing a filter down to edda as a matrix
+ * argument: a record is kept if a string value at the field path is one of the values. The
+ * path uses the same dotted syntax as edda, for example {@code instances.instanceId}, arrays
+ * along the path are searched so it matches the id of any instance in a reservation.
+ *
+ * For json content the records are matched on the streaming parser. Fields that are not on
+ * the path are skipped and only the bytes of the matching records are kept to be bound, so for
+ * selective queries most of the collection is scanned once and then dropped.
+ */
+public class RecordPrefilter {
+
+  private final String[] path;
+  private final Set<String> values;
+
+  public RecordPrefilter(String field, Collection<String> values) {
+    this.path = field.split("\\.");
+    this.values = new HashSet<String>(values);
+  }
+
+  /**
+   * Read the top level array of json from the input and bind the records that match using
+   * the reader. The order of the records is preserved. The content must be utf-8 so the byte
+   * offsets of the records are known.
+   */
+  public <T> List<T> select(InputStream in, ObjectReader reader) throws IOException {
+    List<T> results = new ArrayList<T>();
+    RecordingInputStream recorded = new RecordingInputStream(in);
+    try (JsonParser p = reader.getFactory().createParser(recorded)) {
+      JsonToken t = p.nextToken();
+      if (t == null) return results;
+      if (t != JsonToken.START_ARRAY)
+        throw new JsonParseException("expected an array of records", p.getCurrentLocation());
+      while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+        if (t == null)
+          throw new JsonParseException("unexpected end of content", p.getCurrentLocation());
+        long start = p.getTokenLocation().getByteOffset();
+        boolean matched = matches(p, 0);
+        long end = p.getCurrentLocation().getByteOffset();
+        if (matched) {
+          if (start < 0L) throw new IOException("byte offsets are not available for the input");
+          T value = reader.readValue(recorded.buffer(), recorded.index(start), (int) (end - start));
+          results.add(value);
+        }
+        recorded.discard(end);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Read the records from the iterator and bind the ones that match using the reader. The
+   * order of the records is preserved. This is used for the binary formats where a record
+   * cannot be bound from a range of the content.
+   */
+  public <T> List<T> select(MappingIterator<TokenBuffer> records, ObjectReader reader)
+      throws IOException {
+    List<T> results = new ArrayList<T>();
+    while (records.hasNextValue()) {
+      TokenBuffer record = records.nextValue();
+      if (matches(record)) {
+        try (JsonParser p = record.asParser()) {
+          T value = reader.readValue(p);
+          results.add(value);
+        }
+      }
+    }
+    return results;
+  }
+
+  /** Returns true if the record has one of the values at the field path. */
+  public boolean matches(TokenBuffer record) throws IOException {
+    try (JsonParser p = record.asParser()) {
+      return p.nextToken() != null && matches(p, 0);
+    }
+  }
+
+  /**
+   * Returns true if the value at the current token has one of the values at the path starting
+   * from the level. The whole value is consumed so the parser will be positioned on the last
+   * token of the value.
+   */
+  private boolean matches(JsonParser p, int level) throws IOException {
+    JsonToken t = p.getCurrentToken();
+    boolean found = false;
+    if (t == JsonToken.START_ARRAY) {
+      // Arrays along the path are searched, the elements are at the same level
+      while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+        if (t == null)
+          throw new JsonParseException("unexpected end of array", p.getCurrentLocation());
+        if (found) p.skipChildren();
+        else found = matches(p, level);
+      }
+    }
+    else if (level == path.length) {
+      if (t == JsonToken.VALUE_STRING) found = values.contains(p.getText());
+      else p.skipChildren();
+    }
+    else if (t == JsonToken.START_OBJECT) {
+      while ((t = p.nextToken()) == JsonToken.FIELD_NAME) {
+        boolean onPath = !found && path[level].equals(p.getCurrentName());
+        p.nextToken();
+        if (onPath) found = matches(p, level + 1);
+        else p.skipChildren();
+      }
+      if (t != JsonToken.END_OBJECT)
+        throw new JsonParseException("unexpected end of object", p.getCurrentLocation());
+    }
+    return found;
+  }
+
+  /**
+   * Input stream that keeps a copy of the bytes that have been read so a range can be passed
+   * to the reader once the record has been matched. Bytes before the start of the current
+   * record are discarded, so only the current record and the read ahead of the parser are
+   * held.
+   */
+  private static final class RecordingInputStream extends InputStream {
+    private final InputStream in;
+    private byte[] data = new byte[16384];
+    private long base = 0L;
+    private int start = 0;
+    private int end = 0;
+
+    RecordingInputStream(InputStream in) {
+      this.in = in;
+    }
+
+    /** Buffer with the recorded bytes. Only valid until the next read. */
+    byte[] buffer() {
+      return data;
+    }
+
+    /** Index in the buffer of an offset in the input. */
+    int index(long offset) {
+      return (int) (offset - base);
+    }
+
+    /** Bytes before the offset are no longer needed. */
+    void discard(long offset) {
+      start = index(offset);
+    }
+
+    private void append(byte[] buf, int off, int len) {
+      if (end + len > data.length) {
+        int used = end - start;
+        byte[] dst = (used + len > data.length / 2)
+          ? new byte[Math.max(data.length * 2, used + len)]
+          : data;
+        System.arraycopy(data, start, dst, 0, used);
+        data = dst;
+        base += start;
+        start = 0;
+        end = used;
+      }
+      System.arraycopy(buf, off, data, end, len);
+      end += len;
+    }
+
+    @Override public int read() throws IOException {
+      byte[] b = new byte[1];
+      return (read(b, 0, 1) == -1) ? -1 : b[0] & 0xFF;
+    }
+
+    @Override public int read(byte[] buf, int off, int len) throws IOException {
+      int n = in.read(buf, off, len);
+      if (n > 0) append(buf, off, n);
+      return n;
+    }
+
+    @Override public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Helpers for settings that are expressed as a list of per-collection values, for example
+ * {@code instances=PT30S;images=PT5M}.
+ */
+public class SettingsHelper {
+  private SettingsHelper() {}
+
+  private static final int MAX_PARSED = 256;
+
+  private static final Map<String, Map<String, String>> PARSED =
+    new ConcurrentHashMap<String, Map<String, String>>();
+
+  /**
+   * Parse a string of the form {@code k1=v1;k2=v2} into a map. Whitespace around keys and
+   * values is ignored. The settings are typically read from dynamic properties on each call so
+   * the parsed results are memoized by the input string.
+   */
+  public static Map<String, String> parseMap(String s) {
+    if (s == null || s.trim().length() == 0) return Collections.emptyMap();
+    Map<String, String> m = PARSED.get(s);
+    if (m == null) {
+      Map<String, String> tmp = new HashMap<String, String>();
+      for (String entry : s.split(";")) {
+        int pos = entry.indexOf('=');
+        if (pos <= 0)
+          throw new IllegalArgumentException("invalid setting '" + entry + "' in: " + s);
+        tmp.put(entry.substring(0, pos).trim(), entry.substring(pos + 1).trim());
+      }
+      m = Collections.unmodifiableMap(tmp);
+      if (PARSED.size() < MAX_PARSED) PARSED.put(s, m);
+    }
+    return m;
+  }
+
+  /** Parse a comma separated list of names into a set. */
+  public static Set<String> parseSet(String s) {
+    if (s == null || s.trim().length() == 0) return Collections.emptySet();
+    Set<String> names = new HashSet<String>();
+    for (String name : s.split(",")) {
+      if (name.trim().length() > 0) names.add(name.trim());
+    }
+    return names;
+  }
+}
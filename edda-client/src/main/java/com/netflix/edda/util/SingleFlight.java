@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key so that only the first caller starts the
+ * task and all others receive the same result or failure.
+ */
+public class SingleFlight {
+
+  private final ConcurrentHashMap<String, CompletableFuture<Object>> calls =
+    new ConcurrentHashMap<String, CompletableFuture<Object>>();
+
+  /**
+   * Run the task unless there is already a call in flight for the key. Each caller gets a
+   * separate future so that cancelling one will not impact the others.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> CompletableFuture<T> execute(String key, Supplier<CompletableFuture<T>> task) {
+    CompletableFuture<Object> future = new CompletableFuture<Object>();
+    CompletableFuture<Object> existing = calls.putIfAbsent(key, future);
+    if (existing != null) return (CompletableFuture<T>) existing.thenApply(v -> v);
+
+    try {
+      task.get().whenComplete((v, t) -> {
+        calls.remove(key, future);
+        if (t != null)
+          future.completeExceptionally(unwrap(t));
+        else
+          future.complete(v);
+      });
+    }
+    catch (Throwable t) {
+      calls.remove(key, future);
+      future.completeExceptionally(t);
+    }
+    return (CompletableFuture<T>) future.thenApply(v -> v);
+  }
+
+  /** Number of calls that are currently in flight. */
+  public int size() {
+    return calls.size();
+  }
+
+  private static Throwable unwrap(Throwable t) {
+    return (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+  }
+}
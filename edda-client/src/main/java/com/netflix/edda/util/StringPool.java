@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+/**
+ * Bounded pool of canonical strings. The pool is a fixed size table indexed by the hash of the
+ * string, a new string that maps to an occupied slot replaces the previous entry. Strings that
+ * repeat often, such as zones, instance types and ids that are referenced by many records, will
+ * usually be found so the copies can be dropped, while the memory used by the pool never grows.
+ *
+ * Lookups can be done on a range of a character buffer so no string is allocated if the value
+ * is already in the pool. The table is not synchronized, concurrent updates of a slot can lose
+ * an entry but the returned value is always equal to the input.
+ */
+public class StringPool {
+
+  private final String[] table;
+  private final int mask;
+  private final int maxLength;
+
+  /**
+   * Create a new pool.
+   *
+   * @param size
+   *     Number of slots in the table, rounded up to a power of 2.
+   * @param maxLength
+   *     Strings longer than this are returned without being added to the pool. Long values such
+   *     as descriptions rarely repeat and would evict more useful entries.
+   */
+  public StringPool(int size, int maxLength) {
+    int n = Integer.highestOneBit(Math.max(size, 2) - 1) << 1;
+    this.table = new String[n];
+    this.mask = n - 1;
+    this.maxLength = maxLength;
+  }
+
+  /** Return the canonical instance for the characters in the range of the buffer. */
+  public String intern(char[] buf, int offset, int length) {
+    if (length > maxLength) return new String(buf, offset, length);
+
+    int h = 0;
+    for (int i = offset; i < offset + length; ++i)
+      h = 31 * h + buf[i];
+    int slot = spread(h) & mask;
+
+    String s = table[slot];
+    if (s != null && equals(s, buf, offset, length)) return s;
+    s = new String(buf, offset, length);
+    table[slot] = s;
+    return s;
+  }
+
+  /** Return the canonical instance for the string. */
+  public String intern(String str) {
+    if (str == null || str.length() > maxLength) return str;
+    int slot = spread(str.hashCode()) & mask;
+    String s = table[slot];
+    if (str.equals(s)) return s;
+    table[slot] = str;
+    return str;
+  }
+
+  /** Remove all entries. */
+  public void clear() {
+    for (int i = 0; i < table.length; ++i)
+      table[i] = null;
+  }
+
+  // Mix the high bits into the low bits used for the slot, the same way as HashMap
+  private static int spread(int h) {
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean equals(String s, char[] buf, int offset, int length) {
+    if (s.length() != length) return false;
+    for (int i = 0; i < length; ++i) {
+      if (s.charAt(i) != buf[offset + i]) return false;
+    }
+    return true;
+  }
+}
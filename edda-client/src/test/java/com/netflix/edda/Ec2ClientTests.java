@@ -17,6 +17,9 @@ package com.netflix.edda;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BooleanSupplier;
 
 import static org.junit.Assert.*;
 
@@ -37,6 +40,7 @@ import com.amazonaws.services.ec2.model.*;
 
 import com.netflix.archaius.DefaultPropertyFactory;
 
+import com.netflix.iep.config.Configuration;
 import com.netflix.iep.config.DynamicPropertiesConfiguration;
 import com.netflix.iep.config.TestResourceConfiguration;
 import com.netflix.iep.http.RxHttp;
@@ -44,11 +48,12 @@ import com.netflix.iep.http.RxHttp;
 public class Ec2ClientTests {
   private static HttpServer<ByteBuf, ByteBuf> server;
 
-  private static EddaContext eddaContext = new EddaContext(new RxHttp(EmptyConfig.INSTANCE, null));
+  private static EddaContext eddaContext = null;
   private static DynamicPropertiesConfiguration config = null;
 
   @BeforeClass
   public static void setUp() throws Exception {
+    eddaContext = new EddaContext(new RxHttp(EmptyConfig.INSTANCE, null));
     server = RxNetty.createHttpServer(0, new ClassPathFileRequestHandler(".")).start();
 
     final String userDir = System.getProperty("user.dir");
@@ -85,4 +90,167 @@ public class Ec2ClientTests {
     assertEquals("id1", res.getSubnets().get(0).getSubnetId(), id);
     assertEquals("id2", res.getSubnets().get(1).getSubnetId(), id2);
   }
+
+  @Test
+  public void describeSubnetsCached() {
+    EddaCache cache = EddaContext.getContext().getCache();
+    cache.clear();
+
+    AmazonEC2 client = AwsClientFactory.newEc2Client();
+    DescribeSubnetsResult res = client.describeSubnets();
+    assertEquals("size", res.getSubnets().size(), 8);
+    assertEquals("cached", cache.size(), 1);
+
+    long weight = cache.weight();
+    res = client.describeSubnets(new DescribeSubnetsRequest().withSubnetIds("subnet-30ef1559"));
+    assertEquals("size", res.getSubnets().size(), 1);
+    assertEquals("cached", cache.size(), 1);
+    assertEquals("weight", cache.weight(), weight);
+
+    res = client.describeSubnets();
+    assertEquals("size", res.getSubnets().size(), 8);
+  }
+
+  @Test
+  public void describeSubnetsFiltered() {
+    AmazonEC2 client = AwsClientFactory.newEc2Client();
+    Filter az = new Filter().withName("availability-zone").withValues("us-west-1a");
+    Filter tag = new Filter().withName("tag:immutable_metadata").withValues("*\"internal\"*");
+    DescribeSubnetsResult res = client.describeSubnets(new DescribeSubnetsRequest().withFilters(az));
+    assertEquals("size", res.getSubnets().size(), 4);
+
+    res = client.describeSubnets(new DescribeSubnetsRequest().withFilters(tag));
+    assertEquals("size", res.getSubnets().size(), 4);
+
+    res = client.describeSubnets(new DescribeSubnetsRequest().withFilters(az, tag));
+    assertEquals("size", res.getSubnets().size(), 2);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void describeSubnetsUnsupportedFilter() {
+    AmazonEC2 client = AwsClientFactory.newEc2Client();
+    Filter f = new Filter().withName("ipv6-cidr-block-association.state").withValues("associated");
+    client.describeSubnets(new DescribeSubnetsRequest().withFilters(f));
+  }
+
+  @Test
+  public void describeVpcsPushDown() {
+    // Only the filtered url is available so this will fail if the id is not pushed down
+    AmazonEC2 client = AwsClientFactory.newEc2Client();
+    String id = "vpc-12345678";
+    DescribeVpcsResult res = client.describeVpcs(new DescribeVpcsRequest().withVpcIds(id));
+    assertEquals("size", res.getVpcs().size(), 1);
+    assertEquals("id", res.getVpcs().get(0).getVpcId(), id);
+  }
+
+  @Test
+  public void describeSubnetsAsync() throws Exception {
+    AwsConfiguration cfg = Configuration.newProxy(AwsConfiguration.class, "netflix.edda.aws");
+    EddaEc2Client client = new EddaEc2Client(cfg, "edda-main:7001", "us-east-1");
+
+    String id = "subnet-30ef1559";
+    CompletableFuture<DescribeSubnetsResult> all = client.describeSubnetsAsync();
+    CompletableFuture<DescribeSubnetsResult> one =
+      client.describeSubnetsAsync(new DescribeSubnetsRequest().withSubnetIds(id));
+    assertEquals("size", all.get().getSubnets().size(), 8);
+    assertEquals("size", one.get().getSubnets().size(), 1);
+    assertEquals("id", one.get().getSubnets().get(0).getSubnetId(), id);
+  }
+
+  @Test
+  public void describeSubnetsAsyncUnsupportedFilter() throws Exception {
+    AwsConfiguration cfg = Configuration.newProxy(AwsConfiguration.class, "netflix.edda.aws");
+    EddaEc2Client client = new EddaEc2Client(cfg, "edda-main:7001", "us-east-1");
+    Filter f = new Filter().withName("ipv6-cidr-block-association.state").withValues("associated");
+    CompletableFuture<DescribeSubnetsResult> future =
+      client.describeSubnetsAsync(new DescribeSubnetsRequest().withFilters(f));
+    assertTrue("failed", future.isCompletedExceptionally());
+    try {
+      future.get();
+      fail("expected failure");
+    }
+    catch (ExecutionException e) {
+      assertTrue("cause", e.getCause() instanceof UnsupportedOperationException);
+    }
+  }
+
+  @Test
+  public void describeImagesAsyncInvalidRequest() {
+    AwsConfiguration cfg = Configuration.newProxy(AwsConfiguration.class, "netflix.edda.aws");
+    EddaEc2Client client = new EddaEc2Client(cfg, "edda-main:7001", "us-east-1");
+    CompletableFuture<DescribeImagesResult> future =
+      client.describeImagesAsync(new DescribeImagesRequest().withExecutableUsers("self"));
+    assertTrue("failed", future.isCompletedExceptionally());
+  }
+
+  private static void waitFor(String msg, BooleanSupplier condition) throws Exception {
+    long deadline = System.currentTimeMillis() + 10000L;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline)
+      Thread.sleep(10L);
+    assertTrue(msg, condition.getAsBoolean());
+  }
+
+  @Test
+  public void refreshCollectionsWarmAtStartup() throws Exception {
+    Map<String, String> overrides = new HashMap<String, String>();
+    overrides.put("url", "http://localhost:" + server.getServerPort() + "/edda");
+    overrides.put("refreshCollections", "subnets");
+    overrides.put("refreshInterval", "PT1S");
+    EddaEc2Client client =
+      new EddaEc2Client(TestAwsConfiguration.create(overrides), "edda-main:7001", "us-east-1");
+
+    // Loaded without any request being made
+    String uri = overrides.get("url") + "/api/v2/aws/subnets;_expand";
+    EddaSnapshot<Subnet> snapshot = EddaContext.getContext().getSnapshot(uri);
+    waitFor("loaded", snapshot::isLoaded);
+    assertEquals("size", snapshot.records().size(), 8);
+
+    final long loaded = snapshot.lastSync();
+    waitFor("refreshed", () -> snapshot.lastSync() > loaded);
+
+    // No further refreshes after the client is shutdown
+    client.shutdown();
+    assertFalse("cancelled", EddaContext.getContext().cancelRefresh(uri));
+    Thread.sleep(500L);
+    long last = snapshot.lastSync();
+    Thread.sleep(2000L);
+    assertEquals("stopped", snapshot.lastSync(), last);
+  }
+
+  @Test
+  public void clientsShareRefresh() throws Exception {
+    Map<String, String> overrides = new HashMap<String, String>();
+    overrides.put("url", "http://localhost:" + server.getServerPort() + "/edda");
+    overrides.put("refreshCollections", "subnets");
+    overrides.put("refreshInterval", "PT1S");
+    AwsConfiguration cfg = TestAwsConfiguration.create(overrides);
+    EddaEc2Client first = new EddaEc2Client(cfg, "edda-main:7001", "us-east-1");
+    EddaEc2Client second = new EddaEc2Client(cfg, "edda-main:7001", "us-east-1");
+
+    String uri = overrides.get("url") + "/api/v2/aws/subnets;_expand";
+    EddaSnapshot<Subnet> snapshot = EddaContext.getContext().getSnapshot(uri);
+    waitFor("loaded", snapshot::isLoaded);
+
+    // The refresh belongs to the first client, the second did not register another one
+    second.shutdown();
+    final long loaded = snapshot.lastSync();
+    waitFor("refreshed", () -> snapshot.lastSync() > loaded);
+
+    first.shutdown();
+    assertFalse("cancelled", EddaContext.getContext().cancelRefresh(uri));
+  }
+
+  @Test
+  public void noWarmWithoutEdda() {
+    Map<String, String> overrides = new HashMap<String, String>();
+    overrides.put("url", "http://localhost:" + server.getServerPort() + "/edda-disabled");
+    overrides.put("refreshCollections", "subnets");
+    overrides.put("useEdda", "false");
+    new EddaEc2Client(TestAwsConfiguration.create(overrides), "edda-main:7001", "us-east-1");
+
+    // The refresh would be registered by the constructor if the client had warmed the snapshot
+    String uri = overrides.get("url") + "/api/v2/aws/subnets;_expand";
+    assertFalse("no refresh", EddaContext.getContext().cancelRefresh(uri));
+    assertFalse("not loaded", EddaContext.getContext().getSnapshot(uri).isLoaded());
+  }
 }
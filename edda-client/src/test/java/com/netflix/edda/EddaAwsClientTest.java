@@ -0,0 +1,497 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import io.netty.buffer.Unpooled;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.Subnet;
+
+import com.netflix.archaius.config.EmptyConfig;
+import com.netflix.iep.http.RxHttp;
+
+import com.netflix.edda.util.ContentInputStream;
+import com.netflix.edda.util.IndexedList;
+import com.netflix.edda.util.Page;
+
+public class EddaAwsClientTest {
+
+  @BeforeClass
+  public static void setUp() {
+    new EddaContext(new RxHttp(EmptyConfig.INSTANCE, null));
+  }
+
+  /**
+   * Client that records the urls that are fetched and returns canned responses instead of
+   * making requests to edda.
+   */
+  private static class RecordingClient extends EddaEc2Client {
+    final List<String> urls = new ArrayList<String>();
+    final Deque<Object> responses = new ArrayDeque<Object>();
+
+    RecordingClient(Map<String, String> overrides) {
+      super(TestAwsConfiguration.create(overrides), "edda-main:7001", "us-east-1");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override protected synchronized <T> CompletableFuture<T> getAsync(
+        TypeReference<T> ref, String path) {
+      urls.add(path);
+      Object response = responses.removeFirst();
+      return (response instanceof CompletableFuture<?>)
+        ? (CompletableFuture<T>) response
+        : CompletableFuture.completedFuture((T) response);
+    }
+  }
+
+  /** Client that responds to every request with the same content and Content-Type. */
+  private static class ContentClient extends EddaEc2Client {
+    final String contentType;
+    final byte[] content;
+
+    ContentClient(Map<String, String> overrides, String contentType, byte[] content) {
+      super(TestAwsConfiguration.create(overrides), "edda-main:7001", "us-east-1");
+      this.contentType = contentType;
+      this.content = content;
+    }
+
+    @Override protected ContentInputStream doGetStream(String uri) {
+      ContentInputStream in = new ContentInputStream(10000L, 1L << 20);
+      in.setContentType(contentType);
+      in.setContentLength(content.length);
+      in.onNext(Unpooled.wrappedBuffer(content));
+      in.onCompleted();
+      return in;
+    }
+  }
+
+  private static byte[] encode(JsonFactory format, Object value) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (JsonGenerator gen = format.createGenerator(out)) {
+      JsonHelper.encode(gen, value);
+    }
+    return out.toByteArray();
+  }
+
+  private static Subnet subnet(String id, String cidr) {
+    return new Subnet().withSubnetId(id).withCidrBlock(cidr);
+  }
+
+  private static List<Subnet> subnets(String... ids) {
+    List<Subnet> subnets = new ArrayList<Subnet>();
+    for (String id : ids) subnets.add(subnet(id, null));
+    return subnets;
+  }
+
+  private static List<String> ids(List<Subnet> subnets) {
+    List<String> ids = new ArrayList<String>();
+    for (Subnet s : subnets) ids.add(s.getSubnetId());
+    return ids;
+  }
+
+  private static Reservation reservation(String id, int instances) {
+    Reservation r = new Reservation().withReservationId(id);
+    for (int i = 0; i < instances; ++i)
+      r.withInstances(new Instance().withInstanceId(id + "-" + i));
+    return r;
+  }
+
+  private static Page<Subnet> page(List<Subnet> subnets, Integer max, String token) {
+    EddaEc2Client client = client(Collections.<String, String>emptyMap());
+    return client.paginate(subnets, "subnetId", Subnet::getSubnetId, max, token);
+  }
+
+  private static final String INSTANCES = "http://edda/api/v2/view/instances;_expand";
+  private static final String RESERVATIONS = "http://edda/api/v2/aws/instances;_expand";
+
+  private static EddaEc2Client client(Map<String, String> overrides) {
+    return new EddaEc2Client(TestAwsConfiguration.create(overrides), "edda-main:7001", "us-east-1");
+  }
+
+  private static EddaEc2Client client(String key, String value) {
+    return client(Collections.singletonMap(key, value));
+  }
+
+  @Test
+  public void projectWithoutSetting() {
+    EddaEc2Client client = client(Collections.<String, String>emptyMap());
+    assertEquals("url", client.project(RESERVATIONS), RESERVATIONS);
+  }
+
+  @Test
+  public void projectCollection() {
+    EddaEc2Client client = client("projections", "instances=reservationId,instances:(instanceId)");
+    assertEquals("url",
+      client.project(RESERVATIONS),
+      "http://edda/api/v2/aws/instances;_expand:(reservationId,instances:(instanceId))");
+    assertEquals("url with args",
+      client.project(RESERVATIONS + ";_since=42"),
+      "http://edda/api/v2/aws/instances;_expand:(reservationId,instances:(instanceId));_since=42");
+  }
+
+  @Test
+  public void projectOtherCollection() {
+    EddaEc2Client client = client("projections", "images=imageId,name");
+    assertEquals("url", client.project(RESERVATIONS), RESERVATIONS);
+  }
+
+  @Test
+  public void projectMultipleCollections() {
+    EddaEc2Client client = client("projections", "images=imageId,name;instances=instanceId");
+    assertEquals("instances",
+      client.project(INSTANCES),
+      "http://edda/api/v2/view/instances;_expand:(instanceId)");
+    assertEquals("images",
+      client.project("http://edda/api/v2/aws/images;_expand"),
+      "http://edda/api/v2/aws/images;_expand:(imageId,name)");
+  }
+
+  @Test
+  public void projectExplicitSelector() {
+    EddaEc2Client client = client("projections", "instances=instanceId");
+    String url = "http://edda/api/v2/aws/instances;_expand:(reservationId)";
+    assertEquals("url", client.project(url), url);
+  }
+
+  @Test
+  public void projectWithoutExpand() {
+    EddaEc2Client client = client("projections", "instances=instanceId");
+    String url = "http://edda/api/v2/aws/instances";
+    assertEquals("url", client.project(url), url);
+  }
+
+  @Test
+  public void projectVipUrl() {
+    EddaEc2Client client = client("projections", "instances=instanceId");
+    String url = "vip://edda-client:${vip}/api/v2/view/instances;_expand";
+    assertEquals("url",
+      client.project(url),
+      "vip://edda-client:${vip}/api/v2/view/instances;_expand:(instanceId)");
+  }
+
+  @Test
+  public void syncOverlap() {
+    Map<String, String> overrides = new HashMap<String, String>();
+    overrides.put("url", "http://edda-sync-overlap");
+    overrides.put("syncCollections", "subnets");
+    overrides.put("syncInterval", "PT0S");
+    RecordingClient client = new RecordingClient(overrides);
+    client.responses.add(Arrays.asList(subnet("subnet-1", "10.0.0.0/24")));
+    client.responses.add(Arrays.asList(subnet("subnet-1", "10.0.9.0/24"), subnet(null, "x")));
+    client.responses.add(Arrays.asList(subnet("subnet-1", "10.0.9.0/24"), subnet(null, "x")));
+
+    long before = System.currentTimeMillis();
+    List<Subnet> rs = client.describeSubnets().getSubnets();
+    long after = System.currentTimeMillis();
+    assertEquals("full", client.urls.get(0), "http://edda-sync-overlap/api/v2/aws/subnets;_expand");
+    assertEquals("size", rs.size(), 1);
+
+    // Incremental syncs start a minute before the last one to allow for clock skew
+    rs = client.describeSubnets().getSubnets();
+    String url = client.urls.get(1);
+    String prefix = "http://edda-sync-overlap/api/v2/aws/subnets;_expand;_since=";
+    assertTrue("since: " + url, url.startsWith(prefix));
+    long since = Long.parseLong(url.substring(prefix.length()));
+    assertTrue("overlap: " + since, since >= before - 60000L && since <= after - 60000L);
+    assertEquals("merged", rs.size(), 1);
+    assertEquals("updated", rs.get(0).getCidrBlock(), "10.0.9.0/24");
+
+    // Records seen again in the overlap are merged, not duplicated
+    rs = client.describeSubnets().getSubnets();
+    assertEquals("requests", client.urls.size(), 3);
+    assertTrue("since", client.urls.get(2).startsWith(prefix));
+    assertEquals("merged again", rs.size(), 1);
+  }
+
+  @Test
+  public void readerFromContentType() throws Exception {
+    List<Subnet> subnets = subnets("subnet-1", "subnet-2");
+    Map<String, String> overrides = new HashMap<String, String>();
+    overrides.put("binaryFormat", "smile");
+
+    // Cbor without the self describing tag cannot be detected from the content
+    byte[] cbor = encode(new CBORFactory(), subnets);
+    ContentClient client = new ContentClient(overrides, "application/cbor", cbor);
+    assertEquals("cbor", ids(client.describeSubnets().getSubnets()), ids(subnets));
+
+    // Server that ignores the Accept header and responds with json
+    byte[] json = encode(new JsonFactory(), subnets);
+    client = new ContentClient(overrides, "application/json; charset=UTF-8", json);
+    assertEquals("json", ids(client.describeSubnets().getSubnets()), ids(subnets));
+
+    // Format is determined by the response even if a binary format was not requested
+    byte[] smile = encode(new SmileFactory(), subnets);
+    client = new ContentClient(Collections.<String, String>emptyMap(), JsonHelper.SMILE, smile);
+    assertEquals("smile", ids(client.describeSubnets().getSubnets()), ids(subnets));
+  }
+
+  @Test
+  public void decodeAboveAndBelowThreshold() throws Exception {
+    List<Subnet> subnets = new ArrayList<Subnet>();
+    for (int i = 0; i < 50; ++i) subnets.add(subnet("subnet-" + i, "10.0." + i + ".0/24"));
+    byte[] json = encode(new JsonFactory(), subnets);
+    for (String threshold : new String[] {"1", "1000000"}) {
+      Map<String, String> overrides = new HashMap<String, String>();
+      overrides.put("parallelDecodeThreshold", threshold);
+      ContentClient client = new ContentClient(overrides, "application/json", json);
+      List<Subnet> rs = client.describeSubnets().getSubnets();
+      assertEquals(threshold, ids(rs), ids(subnets));
+      assertEquals(threshold, rs.get(49).getCidrBlock(), "10.0.49.0/24");
+    }
+  }
+
+  @Test
+  public void decodeUnknownLengthAsItArrives() throws Exception {
+    List<Subnet> subnets = new ArrayList<Subnet>();
+    for (int i = 0; i < 50; ++i) subnets.add(subnet("subnet-" + i, "10.0." + i + ".0/24"));
+    byte[] json = encode(new JsonFactory(), subnets);
+    Map<String, String> overrides = new HashMap<String, String>();
+    overrides.put("parallelDecodeThreshold", "1");
+    ContentClient client = new ContentClient(overrides, "application/json", json) {
+      // Chunked response that has not finished, it can only be decoded if it is streamed
+      @Override protected ContentInputStream doGetStream(String uri) {
+        ContentInputStream in = new ContentInputStream(60000L, 1L << 20);
+        in.setContentType(contentType);
+        in.onNext(Unpooled.wrappedBuffer(content));
+        return in;
+      }
+    };
+    CompletableFuture<List<Subnet>> future = CompletableFuture.supplyAsync(
+      () -> client.describeSubnets().getSubnets());
+    assertEquals(ids(future.get(10, TimeUnit.SECONDS)), ids(subnets));
+  }
+
+  @Test
+  public void malformedResponse() throws Exception {
+    byte[] json = "[{\"subnetId\":".getBytes("UTF-8");
+    ContentClient client = new ContentClient(
+      Collections.<String, String>emptyMap(), "application/json", json);
+    try {
+      client.describeSubnets();
+      fail("malformed response should fail");
+    }
+    catch (AmazonClientException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Failed to parse "));
+    }
+  }
+
+  @Test
+  public void paginateAll() {
+    List<Subnet> subnets = subnets("s1", "s2", "s3");
+    Page<Subnet> page = page(subnets, null, null);
+    assertSame("items", page.items(), subnets);
+    assertNull("token", page.nextToken());
+  }
+
+  @Test
+  public void paginateTokens() {
+    List<Subnet> subnets = subnets("s1", "s2", "s3", "s4", "s5");
+    Page<Subnet> page = page(subnets, 2, null);
+    assertEquals("page 1", ids(page.items()), Arrays.asList("s1", "s2"));
+    page = page(subnets, 2, page.nextToken());
+    assertEquals("page 2", ids(page.items()), Arrays.asList("s3", "s4"));
+    page = page(subnets, 2, page.nextToken());
+    assertEquals("page 3", ids(page.items()), Arrays.asList("s5"));
+    assertNull("last page", page.nextToken());
+  }
+
+  @Test
+  public void paginateResumeAfterChanges() {
+    Page<Subnet> first = page(subnets("s1", "s2", "s3", "s4", "s5"), 2, null);
+
+    // Record added before the cursor, resume after the last record of the previous page
+    List<Subnet> added = subnets("s0", "s1", "s2", "s3", "s4", "s5");
+    assertEquals("added",
+      ids(page(added, 2, first.nextToken()).items()),
+      Arrays.asList("s3", "s4"));
+    assertEquals("added indexed",
+      ids(page(new IndexedList<Subnet>(added), 2, first.nextToken()).items()),
+      Arrays.asList("s3", "s4"));
+
+    // Last record of the previous page was removed, fall back to the offset
+    List<Subnet> removed = subnets("s1", "s3", "s4", "s5");
+    assertEquals("removed",
+      ids(page(removed, 2, first.nextToken()).items()),
+      Arrays.asList("s4", "s5"));
+  }
+
+  @Test
+  public void paginateInvalidNextToken() {
+    for (String token : Arrays.asList("%%%", "Zm9v", "LTE6czE")) {
+      try {
+        page(subnets("s1", "s2"), 1, token);
+        fail("expected failure for " + token);
+      }
+      catch (AmazonServiceException e) {
+        assertEquals("status", e.getStatusCode(), 400);
+        assertEquals("code", e.getErrorCode(), "InvalidNextToken");
+      }
+    }
+  }
+
+  @Test
+  public void paginateBySize() {
+    EddaEc2Client client = client(Collections.<String, String>emptyMap());
+    List<Reservation> rs = Arrays.asList(
+      reservation("r1", 2), reservation("r2", 1), reservation("r3", 3), reservation("r4", 1));
+    List<String> pages = new ArrayList<String>();
+    String token = null;
+    do {
+      Page<Reservation> page = client.paginate(rs, "reservationId",
+        Reservation::getReservationId, r -> r.getInstances().size(), 2, token);
+      StringBuilder buf = new StringBuilder();
+      for (Reservation r : page.items()) buf.append(r.getReservationId());
+      pages.add(buf.toString());
+      token = page.nextToken();
+    } while (token != null);
+
+    // A reservation larger than the max is returned on its own page
+    assertEquals("pages", pages, Arrays.asList("r1", "r2", "r3", "r4"));
+  }
+
+  @Test
+  public void limitFirstPage() {
+    EddaEc2Client client = client(Collections.<String, String>emptyMap());
+    String url = "http://edda/api/v2/aws/subnets;_expand";
+    assertEquals("limit", client.limit(url, 2, null, false), url + ";_limit=3");
+    assertEquals("no max", client.limit(url, null, null, false), url);
+    assertEquals("filtered", client.limit(url, 2, null, true), url);
+  }
+
+  @Test
+  public void limitCached() {
+    EddaEc2Client client = client("cacheTtls", "subnets=PT1M");
+    String url = "http://edda/api/v2/aws/subnets;_expand";
+    assertEquals("first page", client.limit(url, 2, null, false), url);
+    String token = new Page.Cursor(2, "s2").encode();
+    assertEquals("next page", client.limit(url, 2, token, false), url);
+  }
+
+  @Test
+  public void limitNextTokenUncached() {
+    // Later pages come from the full collection
+    EddaEc2Client client = client(Collections.<String, String>emptyMap());
+    String url = "http://edda/api/v2/aws/subnets;_expand";
+    String token = new Page.Cursor(2, "s2").encode();
+    assertEquals("next page", client.limit(url, 2, token, false), url);
+  }
+
+  @Test
+  public void describeInstancesMaxResults() {
+    Map<String, String> overrides = new HashMap<String, String>();
+    overrides.put("url", "http://edda-max-results");
+    RecordingClient client = new RecordingClient(overrides);
+    client.responses.add(Arrays.asList(
+      reservation("r1", 2), reservation("r2", 2), reservation("r3", 1), reservation("r4", 1)));
+
+    DescribeInstancesResult res =
+      client.describeInstances(new DescribeInstancesRequest().withMaxResults(4));
+    assertEquals("url", client.urls.get(0),
+      "http://edda-max-results/api/v2/aws/instances;_expand;_limit=5");
+    assertEquals("reservations", res.getReservations().size(), 2);
+    assertNotNull("token", res.getNextToken());
+  }
+
+  @Test
+  public void describeInstancesPaginateUncached() {
+    Map<String, String> overrides = new HashMap<String, String>();
+    overrides.put("url", "http://edda-paginate");
+    RecordingClient client = new RecordingClient(overrides);
+    List<Reservation> all = new ArrayList<Reservation>();
+    for (int i = 1; i <= 5; ++i) all.add(reservation("r" + i, 1));
+    client.responses.add(all.subList(0, 3));
+    client.responses.add(all);
+    client.responses.add(all);
+
+    // Standard paging loop using the public api
+    List<String> ids = new ArrayList<String>();
+    DescribeInstancesRequest request = new DescribeInstancesRequest().withMaxResults(2);
+    DescribeInstancesResult res;
+    do {
+      res = client.describeInstances(request);
+      for (Reservation r : res.getReservations()) ids.add(r.getReservationId());
+      request.setNextToken(res.getNextToken());
+    } while (res.getNextToken() != null);
+
+    assertEquals("ids", ids, Arrays.asList("r1", "r2", "r3", "r4", "r5"));
+    String url = "http://edda-paginate/api/v2/aws/instances;_expand";
+    assertEquals("urls", client.urls, Arrays.asList(url + ";_limit=3", url, url));
+  }
+
+  @Test
+  public void restoreThenSyncInBackground() throws Exception {
+    Path dir = Files.createTempDirectory("edda-disk-cache");
+    try {
+      String url = "http://edda-disk-restore/api/v2/aws/subnets;_expand";
+      long now = System.currentTimeMillis();
+      new EddaDiskCache(dir.toString())
+        .write(url, Arrays.asList(subnet("subnet-1", "10.0.0.0/24")), now, now);
+
+      Map<String, String> overrides = new HashMap<String, String>();
+      overrides.put("url", "http://edda-disk-restore");
+      overrides.put("syncCollections", "subnets");
+      overrides.put("diskCacheDir", dir.toString());
+      RecordingClient client = new RecordingClient(overrides);
+      CompletableFuture<List<Subnet>> pending = new CompletableFuture<List<Subnet>>();
+      client.responses.add(pending);
+
+      // Restored records are returned while the sync is still in progress
+      List<Subnet> rs = client.describeSubnets().getSubnets();
+      assertEquals("restored", ids(rs), Arrays.asList("subnet-1"));
+      assertEquals("requests", client.urls.size(), 1);
+      assertTrue("incremental", client.urls.get(0).startsWith(url + ";_since="));
+
+      pending.complete(Arrays.asList(subnet("subnet-1", "10.0.9.0/24"), subnet("subnet-2", null)));
+      rs = client.describeSubnets().getSubnets();
+      assertEquals("synced", ids(rs), Arrays.asList("subnet-1", "subnet-2"));
+      assertEquals("updated", rs.get(0).getCidrBlock(), "10.0.9.0/24");
+      assertEquals("no further requests", client.urls.size(), 1);
+    }
+    finally {
+      EddaDiskCacheTest.deleteRecursively(dir);
+    }
+  }
+}
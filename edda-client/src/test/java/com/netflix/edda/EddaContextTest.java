@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.netflix.archaius.config.EmptyConfig;
+import com.netflix.config.ConfigurationManager;
+import com.netflix.iep.http.RxHttp;
+
+public class EddaContextTest {
+
+  private static EddaContext newContext() {
+    return new EddaContext(new RxHttp(EmptyConfig.INSTANCE, null));
+  }
+
+  private static EddaContext newContext(int threads) {
+    ConfigurationManager.getConfigInstance().setProperty("edda-client.executorThreads", threads);
+    try {
+      return newContext();
+    }
+    finally {
+      ConfigurationManager.getConfigInstance().clearProperty("edda-client.executorThreads");
+    }
+  }
+
+  @Test
+  public void saturatedExecutorQueues() throws Exception {
+    EddaContext context = newContext(1);
+    try {
+      ExecutorService executor = EddaContext.getContext().getExecutor();
+      CountDownLatch latch = new CountDownLatch(1);
+      CompletableFuture<Void> slow = CompletableFuture.runAsync(() -> {
+        try {
+          latch.await();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }, executor);
+      CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> "done", executor);
+
+      Thread.sleep(100L);
+      assertFalse("waits for a thread", queued.isDone());
+      latch.countDown();
+      assertEquals("done", queued.get(5, TimeUnit.SECONDS));
+      assertTrue("slow", slow.isDone());
+    }
+    finally {
+      context.shutdown();
+    }
+  }
+
+  @Test
+  public void nestedRequestsDoNotDeadlock() throws Exception {
+    EddaContext context = newContext(1);
+    try {
+      ExecutorService executor = EddaContext.getContext().getExecutor();
+      CompletableFuture<String> outer = CompletableFuture.supplyAsync(
+        () -> CompletableFuture.supplyAsync(() -> "inner", executor).join(),
+        executor);
+      assertEquals("inner", outer.get(5, TimeUnit.SECONDS));
+    }
+    finally {
+      context.shutdown();
+    }
+  }
+
+  @Test
+  public void scheduleRefreshOnce() throws Exception {
+    EddaContext context = newContext();
+    try {
+      EddaContext.EddaContextInstance ctx = EddaContext.getContext();
+      AtomicInteger count = new AtomicInteger();
+      assertTrue("first", ctx.scheduleRefresh("a", 10L, () -> {
+        count.incrementAndGet();
+        return CompletableFuture.completedFuture(null);
+      }));
+      assertFalse("second", ctx.scheduleRefresh("a", 10L, () -> {
+        throw new IllegalStateException("should not be scheduled");
+      }));
+
+      long deadline = System.currentTimeMillis() + 10000L;
+      while (count.get() < 2 && System.currentTimeMillis() < deadline)
+        Thread.sleep(10L);
+      assertTrue("ran", count.get() >= 2);
+
+      assertTrue("cancelled", ctx.cancelRefresh("a"));
+      assertFalse("already cancelled", ctx.cancelRefresh("a"));
+      Thread.sleep(50L);
+      int n = count.get();
+      Thread.sleep(100L);
+      assertEquals("stopped", count.get(), n);
+    }
+    finally {
+      context.shutdown();
+    }
+  }
+
+  @Test
+  public void shutdown() {
+    EddaContext context = newContext();
+    EddaContext.EddaContextInstance ctx = EddaContext.getContext();
+    ctx.scheduleRefresh("a", 60000L, () -> CompletableFuture.completedFuture(null));
+
+    context.shutdown();
+    assertFalse("initialized", EddaContext.isInitialized());
+    assertTrue("executor", ctx.getExecutor().isShutdown());
+    assertFalse("refresh cancelled", ctx.cancelRefresh("a"));
+    assertFalse("no new refreshes", ctx.scheduleRefresh("b", 60000L,
+      () -> CompletableFuture.completedFuture(null)));
+  }
+
+  @Test
+  public void shutdownReplacedContext() {
+    EddaContext first = newContext();
+    EddaContext second = newContext();
+    first.shutdown();
+    assertTrue("second still current", EddaContext.isInitialized());
+    second.shutdown();
+    assertFalse("initialized", EddaContext.isInitialized());
+  }
+}
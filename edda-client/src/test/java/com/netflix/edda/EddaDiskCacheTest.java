@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import com.amazonaws.services.ec2.model.Subnet;
+
+public class EddaDiskCacheTest {
+
+  private static final String URL = "http://edda/api/v2/aws/subnets;_expand";
+  private static final TypeReference<List<Subnet>> REF = new TypeReference<List<Subnet>>() {};
+
+  private static final List<Subnet> SUBNETS = Arrays.asList(
+    new Subnet().withSubnetId("subnet-1").withAvailabilityZone("us-west-1a"),
+    new Subnet().withSubnetId("subnet-2").withAvailabilityZone("us-west-1b"));
+
+  private Path dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("edda-disk-cache");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    deleteRecursively(dir);
+  }
+
+  static void deleteRecursively(Path dir) throws IOException {
+    if (!Files.exists(dir)) return;
+    try (Stream<Path> paths = Files.walk(dir)) {
+      for (Path p : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+        Files.delete(p);
+    }
+  }
+
+  private List<Path> files() throws IOException {
+    try (Stream<Path> paths = Files.list(dir)) {
+      return paths.collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    EddaDiskCache disk = new EddaDiskCache(dir.toString());
+    long now = System.currentTimeMillis();
+    disk.write(URL, SUBNETS, now, now - 1000L);
+    assertEquals("lastWrite", disk.lastWrite(URL), now);
+    assertEquals("files", files().size(), 1);
+
+    EddaDiskCache.Entry<Subnet> entry = new EddaDiskCache(dir.toString()).read(URL, REF, 60000L);
+    assertNotNull("entry", entry);
+    assertEquals("syncTime", entry.syncTime(), now);
+    assertEquals("fullSyncTime", entry.fullSyncTime(), now - 1000L);
+    assertEquals("records", entry.records(), SUBNETS);
+  }
+
+  @Test
+  public void missing() {
+    EddaDiskCache disk = new EddaDiskCache(dir.toString());
+    assertNull("entry", disk.read(URL, REF, 60000L));
+    assertEquals("lastWrite", disk.lastWrite(URL), 0L);
+  }
+
+  @Test
+  public void tooOld() throws Exception {
+    EddaDiskCache disk = new EddaDiskCache(dir.toString());
+    long syncTime = System.currentTimeMillis() - 120000L;
+    disk.write(URL, SUBNETS, syncTime, syncTime);
+    assertNull("entry", disk.read(URL, REF, 60000L));
+    assertEquals("kept", files().size(), 1);
+  }
+
+  @Test
+  public void corrupt() throws Exception {
+    EddaDiskCache disk = new EddaDiskCache(dir.toString());
+    long now = System.currentTimeMillis();
+    disk.write(URL, SUBNETS, now, now);
+
+    // Corrupt the last byte of the payload, it should fail the checksum and be removed
+    Path file = files().get(0);
+    byte[] data = Files.readAllBytes(file);
+    data[data.length - 1] ^= 0xFF;
+    Files.write(file, data);
+    assertNull("corrupt", disk.read(URL, REF, 60000L));
+    assertFalse("deleted", Files.exists(file));
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class EddaFanOutTest {
+
+  private static EddaFanOut fanOut(String url, String... regionVips) {
+    Map<String, String> vips = new LinkedHashMap<String, String>();
+    for (int i = 0; i < regionVips.length; i += 2)
+      vips.put(regionVips[i], regionVips[i + 1]);
+    return new EddaFanOut(TestAwsConfiguration.create(Collections.singletonMap("url", url)), vips);
+  }
+
+  @Test
+  public void distinctVips() {
+    EddaFanOut fanOut = fanOut("http://${vip}",
+      "us-east-1", "edda-east:7001", "eu-west-1", "edda-eu:7001");
+    assertEquals("regions", fanOut.regions(), Arrays.asList("us-east-1", "eu-west-1"));
+  }
+
+  @Test
+  public void regionInUrl() {
+    EddaFanOut fanOut = fanOut("http://edda.${region}.example.com:${vip}",
+      "us-east-1", "7001", "eu-west-1", "7001");
+    assertEquals("regions", fanOut.regions(), Arrays.asList("us-east-1", "eu-west-1"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void sameVip() {
+    fanOut("http://${vip}", "us-east-1", "edda:7001", "eu-west-1", "edda:7001");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void fixedUrl() {
+    fanOut("http://edda.example.com", "us-east-1", "edda-east:7001", "eu-west-1", "edda-eu:7001");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void noRegions() {
+    fanOut("http://${vip}");
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.netflix.spectator.api.DefaultRegistry;
+import com.netflix.spectator.api.DistributionSummary;
+import com.netflix.spectator.api.Id;
+import com.netflix.spectator.api.ManualClock;
+import com.netflix.spectator.api.Registry;
+import com.netflix.spectator.api.Timer;
+
+public class EddaMetricsTest {
+
+  private final ManualClock clock = new ManualClock();
+  private final Registry registry = new DefaultRegistry(clock);
+  private final EddaMetrics metrics = new EddaMetrics(registry);
+
+  private Id id(String name, String... tags) {
+    Id id = registry.createId(name);
+    for (int i = 0; i < tags.length; i += 2) id = id.withTag(tags[i], tags[i + 1]);
+    return id;
+  }
+
+  @Test
+  public void fetch() {
+    clock.setMonotonicTime(1000L);
+    long start = metrics.start();
+    clock.setMonotonicTime(TimeUnit.MILLISECONDS.toNanos(5) + 1000L);
+    metrics.fetch("instances", "200", start);
+
+    Timer t = registry.timer(id("edda.client.fetch", "collection", "instances", "status", "200"));
+    assertEquals(1L, t.count());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(5), t.totalTime());
+  }
+
+  @Test
+  public void parse() {
+    long start = metrics.start();
+    metrics.parse("instances", start, 42);
+
+    Id timer = id("edda.client.parse", "collection", "instances");
+    assertEquals(1L, registry.timer(timer).count());
+    Id records = id("edda.client.records", "collection", "instances");
+    assertEquals(42L, registry.distributionSummary(records).totalAmount());
+  }
+
+  @Test
+  public void selectivity() {
+    metrics.selectivity("instances", "describeInstances", 3, 1);
+    metrics.selectivity("instances", "describeInstances", 3, 2);
+    metrics.selectivity("instances", "describeInstances", 3, 3);
+
+    DistributionSummary s = registry.distributionSummary(id("edda.client.selectivity",
+      "collection", "instances", "operation", "describeInstances"));
+    assertEquals(3L, s.count());
+    // percentages are rounded down, 33 + 66 + 100
+    assertEquals(199L, s.totalAmount());
+  }
+
+  @Test
+  public void selectivityEmptyCollection() {
+    metrics.selectivity("instances", "describeInstances", 0, 0);
+    DistributionSummary s = registry.distributionSummary(id("edda.client.selectivity",
+      "collection", "instances", "operation", "describeInstances"));
+    assertEquals(0L, s.count());
+  }
+
+  @Test
+  public void error() {
+    metrics.error("instances", "get", new IllegalStateException("failed"));
+    assertEquals(1L, registry.counter(id("edda.client.errors",
+      "collection", "instances", "operation", "get", "error", "IllegalStateException")).count());
+  }
+
+  @Test
+  public void errorUnwrapsCompletionException() {
+    metrics.error("instances", "get",
+      new CompletionException(new IllegalArgumentException("failed")));
+    assertEquals(1L, registry.counter(id("edda.client.errors",
+      "collection", "instances", "operation", "get", "error", "IllegalArgumentException")).count());
+    assertEquals(0L, registry.counter(id("edda.client.errors",
+      "collection", "instances", "operation", "get", "error", "CompletionException")).count());
+  }
+
+  @Test
+  public void cache() {
+    metrics.cache("memory", "instances", true);
+    metrics.cache("memory", "instances", false);
+    metrics.cache("memory", "instances", false);
+
+    Id cache = id("edda.client.cache", "cache", "memory", "collection", "instances");
+    assertEquals(1L, registry.counter(cache.withTag("result", "hit")).count());
+    assertEquals(2L, registry.counter(cache.withTag("result", "miss")).count());
+  }
+
+  @Test
+  public void fallback() {
+    metrics.fallback("AmazonEC2", "describeVpcs");
+    assertEquals(1L, registry.counter(
+      id("edda.client.fallbacks", "api", "AmazonEC2", "operation", "describeVpcs")).count());
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.amazonaws.services.ec2.model.Subnet;
+
+public class EddaSnapshotTest {
+
+  private static Subnet subnet(String id, String cidr) {
+    return new Subnet().withSubnetId(id).withCidrBlock(cidr);
+  }
+
+  private static List<String> ids(List<Subnet> subnets) {
+    List<String> ids = new ArrayList<String>();
+    for (Subnet s : subnets) ids.add(s.getSubnetId());
+    return ids;
+  }
+
+  @Test
+  public void notLoaded() {
+    EddaSnapshot<Subnet> snapshot = new EddaSnapshot<Subnet>();
+    assertFalse("loaded", snapshot.isLoaded());
+    assertNull("records", snapshot.records());
+    assertEquals("lastSync", snapshot.lastSync(), 0L);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void mergeBeforeLoad() {
+    EddaSnapshot<Subnet> snapshot = new EddaSnapshot<Subnet>();
+    snapshot.merge(Arrays.asList(subnet("subnet-1", "10.0.0.0/24")), Subnet::getSubnetId, 1L);
+  }
+
+  @Test
+  public void replace() {
+    EddaSnapshot<Subnet> snapshot = new EddaSnapshot<Subnet>();
+    snapshot.replace(Arrays.asList(
+      subnet("subnet-1", "10.0.0.0/24"),
+      subnet("subnet-2", "10.0.1.0/24")), Subnet::getSubnetId, 1L);
+
+    List<Subnet> rs = snapshot.replace(Arrays.asList(
+      subnet("subnet-3", "10.0.2.0/24"),
+      subnet("subnet-1", "10.0.0.0/24"),
+      subnet("subnet-3", "10.0.3.0/24")), Subnet::getSubnetId, 2L);
+    assertEquals("ids", ids(rs), Arrays.asList("subnet-3", "subnet-1"));
+    assertEquals("last wins", rs.get(0).getCidrBlock(), "10.0.3.0/24");
+    assertEquals("lastSync", snapshot.lastSync(), 2L);
+    assertEquals("lastFullSync", snapshot.lastFullSync(), 2L);
+  }
+
+  @Test
+  public void merge() {
+    EddaSnapshot<Subnet> snapshot = new EddaSnapshot<Subnet>();
+    List<Subnet> before = snapshot.replace(Arrays.asList(
+      subnet("subnet-1", "10.0.0.0/24"),
+      subnet("subnet-2", "10.0.1.0/24")), Subnet::getSubnetId, 1L);
+
+    List<Subnet> rs = snapshot.merge(Arrays.asList(
+      subnet("subnet-2", "10.0.9.0/24"),
+      subnet("subnet-3", "10.0.2.0/24")), Subnet::getSubnetId, 2L);
+    assertEquals("ids", ids(rs), Arrays.asList("subnet-1", "subnet-2", "subnet-3"));
+    assertEquals("updated", rs.get(1).getCidrBlock(), "10.0.9.0/24");
+    assertEquals("lastSync", snapshot.lastSync(), 2L);
+    assertEquals("lastFullSync", snapshot.lastFullSync(), 1L);
+
+    // Previously published list is not modified
+    assertEquals("before", ids(before), Arrays.asList("subnet-1", "subnet-2"));
+    assertEquals("before cidr", before.get(1).getCidrBlock(), "10.0.1.0/24");
+  }
+
+  @Test
+  public void keylessRecordsDropped() {
+    EddaSnapshot<Subnet> snapshot = new EddaSnapshot<Subnet>();
+    List<Subnet> rs = snapshot.replace(Arrays.asList(
+      subnet("subnet-1", "10.0.0.0/24"),
+      subnet(null, "10.0.1.0/24")), Subnet::getSubnetId, 1L);
+    assertEquals("replace", ids(rs), Arrays.asList("subnet-1"));
+
+    // Merging the same keyless record repeatedly must not accumulate copies
+    for (int i = 0; i < 3; ++i) {
+      rs = snapshot.merge(Arrays.asList(subnet(null, "10.0.1.0/24")), Subnet::getSubnetId, 2L + i);
+    }
+    assertEquals("merge", ids(rs), Arrays.asList("subnet-1"));
+  }
+
+  @Test
+  public void restore() {
+    EddaSnapshot<Subnet> snapshot = new EddaSnapshot<Subnet>();
+    List<Subnet> saved = Arrays.asList(subnet("subnet-1", "10.0.0.0/24"));
+    assertTrue("restored", snapshot.restore(saved, Subnet::getSubnetId, 5L, 3L));
+    assertEquals("lastSync", snapshot.lastSync(), 5L);
+    assertEquals("lastFullSync", snapshot.lastFullSync(), 3L);
+    assertFalse("already loaded", snapshot.restore(saved, Subnet::getSubnetId, 6L, 6L));
+    assertEquals("lastSync unchanged", snapshot.lastSync(), 5L);
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.amazonaws.services.ec2.model.GroupIdentifier;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.Placement;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.Tag;
+
+public class InstanceTableTest {
+
+  private static List<Reservation> reservations(int n) {
+    List<Reservation> reservations = new ArrayList<Reservation>();
+    for (int i = 0; i < n; ++i) {
+      String zone = (i % 2 == 0) ? "us-west-1a" : "us-west-1b";
+      Instance instance = new Instance()
+        .withInstanceId("i-" + i)
+        .withPlacement(new Placement().withAvailabilityZone(zone))
+        .withState(new InstanceState()
+          .withCode((i < 8) ? 16 : 80)
+          .withName((i < 8) ? "running" : "stopped"))
+        .withLaunchTime(new Date(1000L * i))
+        .withSecurityGroups(new GroupIdentifier().withGroupId("sg-" + (i % 2)))
+        .withTags(new Tag("app", (i % 3 == 0) ? "edda" : "atlas"));
+      reservations.add(new Reservation().withReservationId("r-" + i).withInstances(instance));
+    }
+    return reservations;
+  }
+
+  @Test
+  public void query() {
+    InstanceTable table = InstanceTable.create(reservations(10));
+    assertEquals("size", table.size(), 10);
+
+    InstanceTable.Query query = table.query()
+      .eq(InstanceTable.Column.AVAILABILITY_ZONE, "us-west-1a")
+      .stateCode(16)
+      .tag("app", "edda");
+    List<String> ids = query.values(InstanceTable.Column.INSTANCE_ID);
+    assertEquals("ids", ids, Arrays.asList("i-0", "i-6"));
+    assertEquals("instances", query.instances().get(1).getState().getName(), "running");
+    assertEquals("missing", table.query().eq(InstanceTable.Column.VPC_ID, "vpc-1").count(), 0);
+  }
+
+  @Test
+  public void queryLaunchTimeAndGroup() {
+    InstanceTable table = InstanceTable.create(reservations(10));
+    InstanceTable.Query query = table.query()
+      .launchedBetween(2000L, 6000L)
+      .securityGroup("sg-1");
+    assertArrayEquals("rows", query.rows(), new int[] {3, 5});
+    assertEquals("unknown group", table.query().securityGroup("sg-9").count(), 0);
+    assertEquals("any value", table.query().tag("app", null).count(), 10);
+    assertEquals("unknown tag", table.query().tag("name", null).count(), 0);
+  }
+
+  @Test
+  public void rowAccessors() {
+    InstanceTable table = InstanceTable.create(reservations(4));
+    assertEquals("reservation", table.get(InstanceTable.Column.RESERVATION_ID, 3), "r-3");
+    assertNull("not set", table.get(InstanceTable.Column.VPC_ID, 3));
+    assertEquals("state", table.stateCode(3), 16);
+    assertEquals("launch", table.launchTime(3), 3000L);
+    assertNull("no tag", table.tag(3, "edda"));
+    assertEquals("tag", table.tag(3, "app"), "edda");
+    assertEquals("tags", table.tags(2), Collections.singletonMap("app", "atlas"));
+    assertEquals("groups", table.securityGroupIds(2), Collections.singletonList("sg-0"));
+    assertEquals("instance", table.instance(1).getPlacement().getAvailabilityZone(), "us-west-1b");
+  }
+
+  @Test
+  public void missingValues() {
+    Reservation r = new Reservation()
+      .withReservationId("r-1")
+      .withInstances(new Instance().withInstanceId("i-1"));
+    InstanceTable table = InstanceTable.builder().add(r).add(new Reservation()).build();
+    assertEquals("size", table.size(), 1);
+    assertEquals("state", table.stateCode(0), -1);
+    assertEquals("launch", table.launchTime(0), InstanceTable.NO_LAUNCH_TIME);
+    assertTrue("tags", table.tags(0).isEmpty());
+    assertTrue("groups", table.securityGroupIds(0).isEmpty());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void addAfterBuild() {
+    InstanceTable.Builder builder = InstanceTable.builder();
+    builder.build();
+    builder.add(new Reservation());
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.elasticloadbalancing.model.CrossZoneLoadBalancing;
+import com.amazonaws.services.elasticloadbalancing.model.InstanceState;
+import com.amazonaws.services.elasticloadbalancing.model.LoadBalancerAttributes;
+
+import com.netflix.edda.mapper.InstanceStateView;
+import com.netflix.edda.mapper.LoadBalancerAttributesView;
+
+public class JsonHelperTest {
+
+  private static String encode(Object value) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JsonHelper.encode(out, value);
+    return out.toString("UTF-8");
+  }
+
+  @Test
+  public void readerIsCached() {
+    TypeReference<List<Subnet>> ref = new TypeReference<List<Subnet>>() {};
+    ObjectReader reader = JsonHelper.reader(ref.getType());
+    assertSame("type", JsonHelper.reader(ref.getType()), reader);
+    assertSame("ref", JsonHelper.reader(ref), reader);
+    assertSame("json", JsonHelper.reader(ref.getType(), "application/json; charset=UTF-8"), reader);
+    assertSame("no content type", JsonHelper.reader(ref.getType(), null), reader);
+
+    ObjectReader smile = JsonHelper.reader(ref.getType(), JsonHelper.SMILE);
+    assertNotSame("smile", smile, reader);
+    assertSame("smile cached", JsonHelper.reader(ref.getType(), JsonHelper.SMILE), smile);
+  }
+
+  @Test
+  public void instanceStateView() throws Exception {
+    String json = "{\"name\":\"lb-1\",\"instances\":["
+      + "{\"instanceId\":\"i-1\",\"state\":\"InService\"},"
+      + "{\"instanceId\":\"i-2\",\"state\":\"OutOfService\"}]}";
+    InstanceStateView view = JsonHelper.decode(InstanceStateView.class, json);
+    assertEquals("name", view.getName(), "lb-1");
+    assertEquals("size", view.getInstances().size(), 2);
+    assertEquals("state", view.getInstances().get(1).getState(), "OutOfService");
+
+    InstanceStateView copy = JsonHelper.decode(InstanceStateView.class, encode(view));
+    assertEquals("round trip", copy.getInstances(), view.getInstances());
+  }
+
+  @Test
+  public void loadBalancerAttributesView() throws Exception {
+    LoadBalancerAttributesView view = new LoadBalancerAttributesView();
+    view.setName("lb-1");
+    view.setAttributes(new LoadBalancerAttributes()
+      .withCrossZoneLoadBalancing(new CrossZoneLoadBalancing().withEnabled(true)));
+
+    LoadBalancerAttributesView copy =
+      JsonHelper.decode(LoadBalancerAttributesView.class, encode(view));
+    assertEquals("name", copy.getName(), "lb-1");
+    assertEquals("attributes", copy.getAttributes(), view.getAttributes());
+    assertTrue("enabled", copy.getAttributes().getCrossZoneLoadBalancing().getEnabled());
+  }
+
+  @Test
+  public void stringsArePooled() throws Exception {
+    InstanceState a = new InstanceState().withInstanceId("i-1").withState("InService");
+    InstanceState b = new InstanceState().withInstanceId("i-2").withState(new String("InService"));
+    InstanceStateView view = new InstanceStateView();
+    view.setName("lb-1");
+    view.setInstances(Arrays.asList(a, b));
+
+    String json = encode(view);
+    InstanceStateView first = JsonHelper.decode(InstanceStateView.class, json);
+    InstanceStateView second = JsonHelper.decode(InstanceStateView.class, json);
+    assertSame("name", first.getName(), second.getName());
+    assertSame("records",
+      first.getInstances().get(0).getState(), first.getInstances().get(1).getState());
+  }
+}
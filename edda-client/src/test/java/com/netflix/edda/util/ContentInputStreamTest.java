@@ -0,0 +1,218 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+public class ContentInputStreamTest {
+
+  private static ByteBuf chunk(int i, int size) {
+    byte[] data = new byte[size];
+    for (int j = 0; j < size; ++j) data[j] = (byte) (i + j);
+    return Unpooled.wrappedBuffer(data);
+  }
+
+  private static byte[] readAll(ContentInputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[100];
+    int n;
+    while ((n = in.read(buf, 0, buf.length)) != -1) out.write(buf, 0, n);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void readInOrder() throws Exception {
+    ContentInputStream in = new ContentInputStream(10000L, 1024L);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int i = 0; i < 5; ++i) {
+      ByteBuf bb = chunk(i, 64);
+      expected.write(bb.array());
+      in.onNext(bb);
+      bb.release();
+    }
+    in.onCompleted();
+    assertEquals("buffered", in.getBuffered(), 320L);
+    assertEquals("spilled", in.getSpilled(), 0L);
+    assertArrayEquals("content", readAll(in), expected.toByteArray());
+    assertEquals("count", in.getCount(), 320L);
+    assertEquals("buffered after read", in.getBuffered(), 0L);
+    in.close();
+  }
+
+  @Test
+  public void spillAboveLimit() throws Exception {
+    ContentInputStream in = new ContentInputStream(10000L, 256L);
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    List<ByteBuf> chunks = new ArrayList<>();
+    for (int i = 0; i < 10; ++i) {
+      ByteBuf bb = chunk(i, 100);
+      expected.write(bb.array());
+      in.onNext(bb);
+      chunks.add(bb);
+    }
+    in.onCompleted();
+
+    // Only the chunks that fit under the limit are retained, the rest are on disk
+    assertEquals("buffered", in.getBuffered(), 200L);
+    assertEquals("spilled", in.getSpilled(), 800L);
+    for (int i = 0; i < chunks.size(); ++i) {
+      assertEquals("refCnt " + i, chunks.get(i).refCnt(), (i < 2) ? 2 : 1);
+    }
+
+    assertArrayEquals("content", readAll(in), expected.toByteArray());
+    in.close();
+    for (ByteBuf bb : chunks) {
+      bb.release();
+      assertEquals("released", bb.refCnt(), 0);
+    }
+  }
+
+  @Test
+  public void closeReleasesBuffered() throws Exception {
+    ContentInputStream in = new ContentInputStream(10000L, 256L);
+    ByteBuf a = chunk(0, 100);
+    ByteBuf b = chunk(1, 200);
+    in.onNext(a);
+    in.onNext(b);
+    in.close();
+    assertEquals("buffered", a.refCnt(), 1);
+    assertEquals("spilled", b.refCnt(), 1);
+
+    // Chunks arriving after close are ignored
+    in.onNext(a);
+    assertEquals("ignored", a.refCnt(), 1);
+    a.release();
+    b.release();
+  }
+
+  @Test
+  public void contentType() throws Exception {
+    ContentInputStream in = new ContentInputStream(10000L, 256L);
+    in.setContentType("application/cbor");
+    in.onNext(chunk(0, 10));
+    in.onCompleted();
+    assertEquals("type", in.getContentType(), "application/cbor");
+
+    // Waiting for the content type must not consume any of the content
+    assertEquals("content", readAll(in).length, 10);
+    in.close();
+  }
+
+  @Test
+  public void contentLength() throws Exception {
+    ContentInputStream in = new ContentInputStream(10000L, 256L);
+    in.onCompleted();
+    assertEquals("not set", in.getContentLength(), -1L);
+
+    in = new ContentInputStream(10000L, 256L);
+    in.setContentLength(10L);
+    in.onNext(chunk(0, 10));
+    in.onCompleted();
+    assertEquals("length", in.getContentLength(), 10L);
+    assertEquals("content", readAll(in).length, 10);
+    in.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void contentTypeTimeout() throws Exception {
+    ContentInputStream in = new ContentInputStream(10L, 256L);
+    in.getContentType();
+  }
+
+  @Test
+  public void slowReaderOfCompletedResponse() throws Exception {
+    ContentInputStream in = new ContentInputStream(50L, 1024L);
+    for (int i = 0; i < 4; ++i) in.onNext(chunk(i, 10));
+    in.onCompleted();
+
+    // Content that was received before the timeout can still be read after it
+    byte[] buf = new byte[10];
+    for (int i = 0; i < 4; ++i) {
+      Thread.sleep(30L);
+      assertEquals("chunk " + i, in.read(buf, 0, buf.length), 10);
+    }
+    assertEquals("end", in.read(buf, 0, buf.length), -1);
+    in.close();
+  }
+
+  @Test
+  public void timeoutIsIdleTime() throws Exception {
+    final ContentInputStream in = new ContentInputStream(200L, 1024L);
+    Thread producer = new Thread(() -> {
+      try {
+        for (int i = 0; i < 6; ++i) {
+          Thread.sleep(50L);
+          in.onNext(chunk(i, 10));
+        }
+        in.onCompleted();
+      }
+      catch (InterruptedException e) {
+        in.onError(e);
+      }
+    });
+    producer.start();
+
+    // Total time is longer than the timeout, but chunks keep arriving
+    assertEquals("content", readAll(in).length, 60);
+    producer.join();
+    in.close();
+  }
+
+  @Test
+  public void timeBeforeFirstReadNotCounted() throws Exception {
+    // Reader that only starts after the timeout, for example a task that waited for a thread
+    final ContentInputStream in = new ContentInputStream(100L, 1024L);
+    in.onNext(chunk(0, 10));
+    Thread.sleep(150L);
+    new Thread(() -> {
+      try {
+        Thread.sleep(50L);
+        in.onNext(chunk(1, 10));
+        in.onCompleted();
+      }
+      catch (InterruptedException e) {
+        in.onError(e);
+      }
+    }).start();
+    assertEquals("content", readAll(in).length, 20);
+    in.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void idleTimeout() throws Exception {
+    ContentInputStream in = new ContentInputStream(50L, 1024L);
+    in.onNext(chunk(0, 10));
+    readAll(in);
+  }
+
+  @Test(expected = IOException.class)
+  public void failure() throws Exception {
+    ContentInputStream in = new ContentInputStream(10000L, 256L);
+    in.onNext(chunk(0, 10));
+    in.onError(new RuntimeException("test"));
+    readAll(in);
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Subnet;
+import com.amazonaws.services.ec2.model.Tag;
+
+public class FilterCompilerTest {
+
+  private static final FilterCompiler<Subnet> COMPILER = FilterCompiler.<Subnet>builder()
+    .field("subnet-id", Subnet::getSubnetId)
+    .field("availability-zone", Subnet::getAvailabilityZone)
+    .field("default-for-az", Subnet::getDefaultForAz)
+    .field("available-ip-address-count", Subnet::getAvailableIpAddressCount)
+    .field("cidr-prefix", Subnet::getCidrBlock, c -> c.substring(c.indexOf('/') + 1))
+    .each("tag-keys", Subnet::getTags, Tag::getKey)
+    .tags(Subnet::getTags)
+    .build();
+
+  private static final List<Subnet> SUBNETS = Arrays.asList(
+    new Subnet()
+      .withSubnetId("subnet-1")
+      .withAvailabilityZone("us-west-1a")
+      .withCidrBlock("10.0.0.0/24")
+      .withDefaultForAz(true)
+      .withAvailableIpAddressCount(250)
+      .withTags(new Tag("app", "edda"), new Tag("env", "test")),
+    new Subnet()
+      .withSubnetId("subnet-2")
+      .withAvailabilityZone("us-west-1b")
+      .withCidrBlock("10.0.1.0/20")
+      .withDefaultForAz(false)
+      .withAvailableIpAddressCount(4000)
+      .withTags(new Tag("app", "atlas*")),
+    new Subnet()
+      .withSubnetId("subnet-3")
+      .withAvailabilityZone("us-west-1a"));
+
+  private static Filter filter(String name, String... values) {
+    return new Filter().withName(name).withValues(values);
+  }
+
+  private static List<String> ids(Filter... filters) {
+    Predicate<Subnet> p = COMPILER.compile(Arrays.asList(filters));
+    List<String> ids = new ArrayList<String>();
+    for (Subnet s : SUBNETS) {
+      if (p.test(s)) ids.add(s.getSubnetId());
+    }
+    return ids;
+  }
+
+  @Test
+  public void noFilters() {
+    assertNull("null", COMPILER.compile(null));
+    assertNull("empty", COMPILER.compile(Collections.<Filter>emptyList()));
+  }
+
+  @Test
+  public void exact() {
+    assertEquals("ids",
+      ids(filter("availability-zone", "us-west-1a")),
+      Arrays.asList("subnet-1", "subnet-3"));
+  }
+
+  @Test
+  public void valuesAreOred() {
+    assertEquals("ids",
+      ids(filter("subnet-id", "subnet-1", "subnet-2")),
+      Arrays.asList("subnet-1", "subnet-2"));
+  }
+
+  @Test
+  public void filtersAreAnded() {
+    assertEquals("ids",
+      ids(filter("availability-zone", "us-west-1a"), filter("subnet-id", "subnet-1", "subnet-2")),
+      Arrays.asList("subnet-1"));
+  }
+
+  @Test
+  public void wildcards() {
+    assertEquals("star", ids(filter("availability-zone", "*-1b")), Arrays.asList("subnet-2"));
+    assertEquals("question",
+      ids(filter("subnet-id", "subnet-?")),
+      Arrays.asList("subnet-1", "subnet-2", "subnet-3"));
+    assertEquals("mixed",
+      ids(filter("subnet-id", "subnet-3", "*-1")),
+      Arrays.asList("subnet-1", "subnet-3"));
+  }
+
+  @Test
+  public void escapedWildcards() {
+    assertEquals("literal star", ids(filter("tag:app", "atlas\\*")), Arrays.asList("subnet-2"));
+    assertEquals("not a wildcard", ids(filter("tag:app", "edda\\*")), Collections.emptyList());
+  }
+
+  @Test
+  public void nonStringValues() {
+    assertEquals("boolean", ids(filter("default-for-az", "false")), Arrays.asList("subnet-2"));
+    assertEquals("number",
+      ids(filter("available-ip-address-count", "250")),
+      Arrays.asList("subnet-1"));
+  }
+
+  @Test
+  public void nestedField() {
+    assertEquals("ids", ids(filter("cidr-prefix", "20")), Arrays.asList("subnet-2"));
+  }
+
+  @Test
+  public void eachField() {
+    assertEquals("ids", ids(filter("tag-keys", "env")), Arrays.asList("subnet-1"));
+  }
+
+  @Test
+  public void tags() {
+    assertEquals("tag:key", ids(filter("tag:app", "edda")), Arrays.asList("subnet-1"));
+    assertEquals("tag-key", ids(filter("tag-key", "app")), Arrays.asList("subnet-1", "subnet-2"));
+    assertEquals("tag-value", ids(filter("tag-value", "te*")), Arrays.asList("subnet-1"));
+    assertEquals("key must match", ids(filter("tag:env", "edda")), Collections.emptyList());
+  }
+
+  @Test
+  public void supports() {
+    assertTrue("field", COMPILER.supports("subnet-id"));
+    assertTrue("tag", COMPILER.supports("tag:anything"));
+    assertFalse("unknown", COMPILER.supports("state"));
+    assertFalse("null", COMPILER.supports(null));
+    assertFalse("no tags", FilterCompiler.<Subnet>builder().build().supports("tag-key"));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void unsupported() {
+    COMPILER.compile(Arrays.asList(filter("state", "available")));
+  }
+}
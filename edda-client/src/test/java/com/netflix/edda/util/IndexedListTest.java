@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class IndexedListTest {
+
+  // Records are "key:id", the key is used for the index and the id to check the results
+  private static final Function<String, String> KEY = s -> {
+    int pos = s.indexOf(':');
+    return (pos < 0) ? null : s.substring(0, pos);
+  };
+
+  private static final Function<String, List<String>> KEYS = s -> {
+    int pos = s.indexOf(':');
+    return (pos < 0) ? null : Arrays.asList(s.substring(0, pos).split(","));
+  };
+
+  private static IndexedList<String> list(String... items) {
+    return new IndexedList<String>(Arrays.asList(items));
+  }
+
+  @Test
+  public void listMethods() {
+    IndexedList<String> list = list("a:1", "b:2");
+    assertEquals("size", list.size(), 2);
+    assertEquals("get", list.get(1), "b:2");
+    assertEquals("equals", list, Arrays.asList("a:1", "b:2"));
+  }
+
+  @Test
+  public void select() {
+    IndexedList<String> list = list("a:1", "b:2", "a:3", "c:4", "b:5");
+    assertEquals("single", list.select("key", KEY, Arrays.asList("c")), Arrays.asList("c:4"));
+    assertEquals("duplicate keys",
+      list.select("key", KEY, Arrays.asList("a")),
+      Arrays.asList("a:1", "a:3"));
+    assertEquals("list order",
+      list.select("key", KEY, Arrays.asList("b", "a")),
+      Arrays.asList("a:1", "b:2", "a:3", "b:5"));
+    assertEquals("repeated values",
+      list.select("key", KEY, Arrays.asList("c", "c")),
+      Arrays.asList("c:4"));
+    assertEquals("missing", list.select("key", KEY, Arrays.asList("d")), Collections.emptyList());
+  }
+
+  @Test
+  public void nullKeysAreNotIndexed() {
+    IndexedList<String> list = list("a:1", "2", "a:3");
+    assertEquals("select", list.select("key", KEY, Arrays.asList("a")), Arrays.asList("a:1", "a:3"));
+    assertEquals("indexOf", list.indexOf("key", KEY, "a"), 0);
+  }
+
+  @Test
+  public void indexOf() {
+    IndexedList<String> list = list("a:1", "b:2", "a:3");
+    assertEquals("first", list.indexOf("key", KEY, "a"), 0);
+    assertEquals("second", list.indexOf("key", KEY, "b"), 1);
+    assertEquals("missing", list.indexOf("key", KEY, "c"), -1);
+  }
+
+  @Test
+  public void selectAny() {
+    IndexedList<String> list = list("a,b:1", "b,b:2", "c:3", "4");
+    assertEquals("any",
+      list.selectAny("keys", KEYS, Arrays.asList("b")),
+      Arrays.asList("a,b:1", "b,b:2"));
+    assertEquals("multiple values",
+      list.selectAny("keys", KEYS, Arrays.asList("a", "b", "c")),
+      Arrays.asList("a,b:1", "b,b:2", "c:3"));
+  }
+
+  @Test
+  public void manyDuplicates() {
+    // Building the index should be linear even if many records share a key
+    int n = 200000;
+    List<String> items = new ArrayList<String>(n);
+    for (int i = 0; i < n; ++i)
+      items.add(((i % 2 == 0) ? "even" : "odd") + ":" + i);
+    IndexedList<String> list = new IndexedList<String>(items);
+
+    long start = System.nanoTime();
+    List<String> odd = list.select("key", KEY, Arrays.asList("odd"));
+    long elapsed = (System.nanoTime() - start) / 1000000L;
+    assertEquals("size", odd.size(), n / 2);
+    assertEquals("first", odd.get(0), "odd:1");
+    assertEquals("last", odd.get(odd.size() - 1), "odd:" + (n - 1));
+    assertTrue("took " + elapsed + "ms", elapsed < 5000L);
+  }
+}
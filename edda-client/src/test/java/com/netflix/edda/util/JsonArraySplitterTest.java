@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class JsonArraySplitterTest {
+
+  private static List<String> split(String json) {
+    return split(json.getBytes(StandardCharsets.UTF_8), 0, json.length());
+  }
+
+  private static List<String> split(byte[] data, int offset, int length) {
+    int[] bounds = JsonArraySplitter.split(data, offset, length);
+    if (bounds == null) return null;
+    List<String> elements = new ArrayList<String>();
+    for (int i = 0; i < bounds.length; i += 2) {
+      int len = bounds[i + 1] - bounds[i];
+      elements.add(new String(data, bounds[i], len, StandardCharsets.UTF_8));
+    }
+    return elements;
+  }
+
+  @Test
+  public void elements() {
+    String json = " [{\"a\":\"x],}\\\"\"}, [1,2] ,\"s\",3,{\"b\":{\"c\":[]}}]";
+    List<String> expected = Arrays.asList(
+      "{\"a\":\"x],}\\\"\"}", "[1,2] ", "\"s\"", "3", "{\"b\":{\"c\":[]}}");
+    assertEquals("elements", split(json), expected);
+  }
+
+  @Test
+  public void escapedBackslash() {
+    // The quote after an escaped backslash ends the string
+    String json = "[\"a\\\\\",{\"b\":\"\\\\\"}]";
+    assertEquals("elements", split(json), Arrays.asList("\"a\\\\\"", "{\"b\":\"\\\\\"}"));
+  }
+
+  @Test
+  public void emptyArray() {
+    assertEquals("empty", split(" [ ]\n"), new ArrayList<String>());
+  }
+
+  @Test
+  public void range() {
+    byte[] data = "xx[1,2]yy".getBytes(StandardCharsets.UTF_8);
+    assertEquals("range", split(data, 2, 5), Arrays.asList("1", "2"));
+  }
+
+  @Test
+  public void manyElements() {
+    StringBuilder buf = new StringBuilder("[");
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 100; ++i) {
+      if (i > 0) buf.append(',');
+      String e = "{\"id\":" + i + "}";
+      buf.append(e);
+      expected.add(e);
+    }
+    buf.append(']');
+    assertEquals("elements", split(buf.toString()), expected);
+  }
+
+  @Test
+  public void notAnArray() {
+    assertNull("smile", split(new byte[] {':', ')', '\n'}, 0, 3));
+    assertNull("object", split("{\"a\":[1]}"));
+    assertNull("empty", split("  "));
+  }
+}
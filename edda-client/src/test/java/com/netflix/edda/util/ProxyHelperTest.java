@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+
+public class ProxyHelperTest {
+
+  public interface Api {
+    String name();
+    int add(int a, int b);
+    String read(String path) throws IOException;
+    void delete(String id);
+  }
+
+  public static class Delegate implements Api {
+    @Override public String name() {
+      return "delegate";
+    }
+    @Override public int add(int a, int b) {
+      return -1;
+    }
+    @Override public String read(String path) throws IOException {
+      throw new IOException("delegate " + path);
+    }
+    @Override public void delete(String id) {
+      throw new AmazonServiceException("delegate " + id);
+    }
+  }
+
+  /** Overrides only some of the methods and is private so it needs setAccessible. */
+  private static class Overrides {
+    public int add(int a, int b) {
+      return a + b;
+    }
+    public String read(String path) throws IOException {
+      throw new IOException("override " + path);
+    }
+    public void delete(String id) {
+      throw new AmazonServiceException("override " + id);
+    }
+  }
+
+  @Test
+  public void overriddenMethod() {
+    Api api = ProxyHelper.wrapper(Api.class, new Delegate(), new Overrides());
+    assertEquals(5, api.add(2, 3));
+  }
+
+  @Test
+  public void delegatedZeroArgMethod() {
+    List<String> delegated = new ArrayList<String>();
+    Api api = ProxyHelper.wrapper(
+      Api.class, new Delegate(), new Overrides(), (Method m) -> delegated.add(m.getName()));
+    assertEquals("delegate", api.name());
+    assertEquals(5, api.add(2, 3));
+    assertEquals("listener", delegated, Collections.singletonList("name"));
+  }
+
+  @Test
+  public void checkedExceptionNotWrapped() {
+    Api api = ProxyHelper.wrapper(Api.class, new Delegate(), new Overrides());
+    try {
+      api.read("a");
+      fail("should have failed");
+    }
+    catch (IOException e) {
+      assertEquals("override a", e.getMessage());
+    }
+  }
+
+  @Test
+  public void checkedExceptionFromDelegateNotWrapped() {
+    Api api = ProxyHelper.wrapper(Api.class, new Delegate(), new Object());
+    try {
+      api.read("a");
+      fail("should have failed");
+    }
+    catch (IOException e) {
+      assertEquals("delegate a", e.getMessage());
+    }
+  }
+
+  @Test
+  public void awsExceptionNotWrapped() {
+    for (Object overrides : new Object[] {new Overrides(), new Object()}) {
+      Api api = ProxyHelper.wrapper(Api.class, new Delegate(), overrides);
+      try {
+        api.delete("i-1");
+        fail("should have failed");
+      }
+      catch (AmazonServiceException e) {
+        String expected = (overrides instanceof Overrides) ? "override i-1" : "delegate i-1";
+        assertEquals(expected, e.getErrorMessage());
+      }
+    }
+  }
+
+  @Test
+  public void unsupported() {
+    Api api = ProxyHelper.unsupported(Api.class, new Overrides());
+    assertEquals(5, api.add(2, 3));
+    try {
+      api.name();
+      fail("should have failed");
+    }
+    catch (UnsupportedOperationException e) {
+      assertEquals(Api.class.getName() + ".name", e.getMessage());
+    }
+  }
+
+  @Test
+  public void objectMethods() {
+    Delegate delegate = new Delegate();
+    Overrides overrides = new Overrides();
+    Api api = ProxyHelper.wrapper(Api.class, delegate, overrides);
+    assertEquals(overrides.toString(), api.toString());
+    assertEquals(overrides.hashCode(), api.hashCode());
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+public class RecordPrefilterTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final ObjectReader READER = MAPPER.readerFor(JsonNode.class);
+
+  private static final String RESERVATIONS = "["
+    + "{\"reservationId\":\"r-1\","
+    + "\"instances\":[{\"instanceId\":\"i-1\"},{\"instanceId\":\"i-2\"}]},"
+    + "{\"reservationId\":\"r-2\",\"instances\":[{\"instanceId\":\"i-3\"}],\"ownerId\":\"i-4\"},"
+    + "{\"reservationId\":\"r-3\",\"instances\":[{\"instanceId\":\"i-4\"}]}"
+    + "]";
+
+  private static List<JsonNode> select(RecordPrefilter filter, String json) throws IOException {
+    return filter.select(input(json), READER);
+  }
+
+  private static InputStream input(String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static List<String> values(List<JsonNode> nodes, String field) {
+    List<String> vs = new ArrayList<String>();
+    for (JsonNode node : nodes) vs.add(node.get(field).asText());
+    return vs;
+  }
+
+  private static final RecordPrefilter INSTANCE_IDS =
+    new RecordPrefilter("instances.instanceId", Arrays.asList("i-2", "i-4"));
+
+  @Test
+  public void selectStream() throws Exception {
+    RecordPrefilter filter = INSTANCE_IDS;
+    List<JsonNode> rs = select(filter, RESERVATIONS);
+    assertEquals("ids", values(rs, "reservationId"), Arrays.asList("r-1", "r-3"));
+
+    // Matching records are bound in full, including fields after the match
+    assertEquals("instances", rs.get(0).get("instances").size(), 2);
+  }
+
+  @Test
+  public void selectTokenBuffers() throws Exception {
+    RecordPrefilter filter = INSTANCE_IDS;
+    MappingIterator<TokenBuffer> it = MAPPER.readerFor(TokenBuffer.class).readValues(RESERVATIONS);
+    List<JsonNode> rs = filter.select(it, READER);
+    assertEquals("ids", values(rs, "reservationId"), Arrays.asList("r-1", "r-3"));
+  }
+
+  @Test
+  public void offPathFieldsSkipped() throws Exception {
+    // Values with the same name that are nested under other fields do not match
+    String json = "["
+      + "{\"id\":\"a\",\"tags\":[{\"id\":\"x\"}],\"meta\":{\"id\":\"x\",\"n\":[1,{\"id\":\"x\"}]}},"
+      + "{\"meta\":{\"id\":\"y\"},\"id\":\"x\"},"
+      + "{\"id\":{\"id\":\"x\"}},"
+      + "{\"id\":null},"
+      + "\"x\","
+      + "[{\"id\":\"x\"}]"
+      + "]";
+    List<JsonNode> rs = select(new RecordPrefilter("id", Arrays.asList("x")), json);
+    assertEquals("size", rs.size(), 2);
+    assertEquals("object", rs.get(0).get("meta").get("id").asText(), "y");
+    assertTrue("array", rs.get(1).isArray());
+  }
+
+  @Test
+  public void arrayOfStrings() throws Exception {
+    String json = "[{\"n\":1,\"groups\":[\"sg-1\",\"sg-2\"]},{\"n\":2,\"groups\":[[\"sg-3\"]]}]";
+    RecordPrefilter filter = new RecordPrefilter("groups", Arrays.asList("sg-2", "sg-3"));
+    assertEquals("size", select(filter, json).size(), 2);
+    filter = new RecordPrefilter("groups", Arrays.asList("sg-9"));
+    assertTrue("none", select(filter, json).isEmpty());
+  }
+
+  @Test
+  public void largeRecords() throws Exception {
+    // Records larger than the recorded buffer and spanning many reads of the parser
+    StringBuilder buf = new StringBuilder("[");
+    StringBuilder padding = new StringBuilder();
+    for (int i = 0; i < 5000; ++i) padding.append("abcdefgh");
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 20; ++i) {
+      if (i > 0) buf.append(',');
+      String pad = padding.substring(0, 1000 * i + 1);
+      buf.append("{\"pad\":\"").append(pad).append("\",\"id\":\"").append(i).append("\"}");
+      if (i % 3 == 0) expected.add(String.valueOf(i));
+    }
+    buf.append("]");
+    RecordPrefilter filter = new RecordPrefilter("id", expected);
+    List<JsonNode> rs = select(filter, buf.toString());
+    assertEquals("ids", values(rs, "id"), expected);
+    for (JsonNode node : rs) {
+      int i = Integer.parseInt(node.get("id").asText());
+      assertEquals("pad " + i, node.get("pad").asText().length(), 1000 * i + 1);
+    }
+  }
+
+  @Test
+  public void emptyContent() throws Exception {
+    RecordPrefilter filter = new RecordPrefilter("id", Arrays.asList("x"));
+    assertTrue("empty", select(filter, "").isEmpty());
+    assertTrue("empty array", select(filter, " [ ] ").isEmpty());
+  }
+
+  @Test(expected = IOException.class)
+  public void notAnArray() throws Exception {
+    select(new RecordPrefilter("id", Arrays.asList("x")), "{\"id\":\"x\"}");
+  }
+
+  @Test(expected = IOException.class)
+  public void truncated() throws Exception {
+    select(new RecordPrefilter("id", Arrays.asList("x")), "[{\"id\":\"x\"},{\"id\":");
+  }
+}
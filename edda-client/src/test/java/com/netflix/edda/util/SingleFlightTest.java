@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+  @Test
+  public void concurrentCallersShareOneCall() throws Exception {
+    SingleFlight flight = new SingleFlight();
+    AtomicInteger calls = new AtomicInteger();
+    CompletableFuture<String> result = new CompletableFuture<String>();
+    int n = 8;
+    CountDownLatch started = new CountDownLatch(n);
+    ExecutorService pool = Executors.newFixedThreadPool(n);
+    try {
+      List<Future<CompletableFuture<String>>> callers =
+        new ArrayList<Future<CompletableFuture<String>>>();
+      for (int i = 0; i < n; ++i) {
+        callers.add(pool.submit(() -> {
+          started.countDown();
+          started.await();
+          return flight.execute("a", () -> {
+            calls.incrementAndGet();
+            return result;
+          });
+        }));
+      }
+      List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+      for (Future<CompletableFuture<String>> caller : callers)
+        futures.add(caller.get(5, TimeUnit.SECONDS));
+
+      assertEquals("in flight", 1, flight.size());
+      result.complete("value");
+      for (CompletableFuture<String> future : futures)
+        assertEquals("value", future.get(5, TimeUnit.SECONDS));
+      assertEquals("calls", 1, calls.get());
+    }
+    finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  public void waitersGetSameFailure() throws Exception {
+    SingleFlight flight = new SingleFlight();
+    CompletableFuture<String> result = new CompletableFuture<String>();
+    CompletableFuture<String> first = flight.execute("a", () -> result);
+    CompletableFuture<String> second = flight.execute("a", () -> {
+      throw new IllegalStateException("should not be called");
+    });
+
+    IllegalArgumentException failure = new IllegalArgumentException("failed");
+    result.completeExceptionally(failure);
+    for (CompletableFuture<String> future : Arrays.asList(first, second)) {
+      try {
+        future.get();
+        fail("should have failed");
+      }
+      catch (ExecutionException e) {
+        assertSame(failure, e.getCause());
+      }
+    }
+  }
+
+  @Test
+  public void supplierFailure() throws Exception {
+    SingleFlight flight = new SingleFlight();
+    IllegalArgumentException failure = new IllegalArgumentException("failed");
+    CompletableFuture<String> future = flight.execute("a", () -> {
+      throw failure;
+    });
+    try {
+      future.get();
+      fail("should have failed");
+    }
+    catch (ExecutionException e) {
+      assertSame(failure, e.getCause());
+    }
+    assertEquals("removed", 0, flight.size());
+  }
+
+  @Test
+  public void keyRemovedAfterCompletion() throws Exception {
+    SingleFlight flight = new SingleFlight();
+    AtomicInteger calls = new AtomicInteger();
+    assertEquals("1", flight.execute("a",
+      () -> CompletableFuture.completedFuture("" + calls.incrementAndGet())).get());
+    assertEquals("removed", 0, flight.size());
+    assertEquals("2", flight.execute("a",
+      () -> CompletableFuture.completedFuture("" + calls.incrementAndGet())).get());
+    assertEquals("calls", 2, calls.get());
+  }
+
+  @Test
+  public void differentKeysNotShared() throws Exception {
+    SingleFlight flight = new SingleFlight();
+    CompletableFuture<String> a = flight.execute("a", CompletableFuture<String>::new);
+    CompletableFuture<String> b = flight.execute("b", () -> CompletableFuture.completedFuture("b"));
+    assertEquals("b", b.get());
+    assertFalse("a", a.isDone());
+    assertEquals("in flight", 1, flight.size());
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014-2017 Netflix, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.edda.util;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import com.amazonaws.services.ec2.model.Subnet;
+
+import com.netflix.edda.JsonHelper;
+
+public class StringPoolTest {
+
+  @Test
+  public void internString() {
+    StringPool pool = new StringPool(16, 32);
+    String a = new String("us-east-1a");
+    String b = new String("us-east-1a");
+    assertSame("first", pool.intern(a), a);
+    assertSame("second", pool.intern(b), a);
+    assertNull("null", pool.intern((String) null));
+  }
+
+  @Test
+  public void internRange() {
+    StringPool pool = new StringPool(16, 32);
+    char[] buf = "xxm5.largexx".toCharArray();
+    String a = pool.intern(buf, 2, 8);
+    assertEquals("value", a, "m5.large");
+    assertSame("range", pool.intern(buf, 2, 8), a);
+    assertSame("string", pool.intern(new String("m5.large")), a);
+  }
+
+  @Test
+  public void longValuesNotPooled() {
+    StringPool pool = new StringPool(16, 4);
+    String a = new String("too long");
+    assertSame("string", pool.intern(a), a);
+    assertNotSame("not added", pool.intern(new String("too long")), a);
+    char[] buf = a.toCharArray();
+    assertNotSame("range", pool.intern(buf, 0, buf.length), pool.intern(buf, 0, buf.length));
+  }
+
+  @Test
+  public void collisionReplacesEntry() {
+    // With two slots many values share a slot, the most recent one is kept
+    StringPool pool = new StringPool(2, 32);
+    String last = null;
+    for (int i = 0; i < 10; ++i) {
+      String s = "i-" + i;
+      assertEquals("value", pool.intern(s), s);
+      last = s;
+    }
+    assertSame("last", pool.intern(new String(last)), last);
+  }
+
+  @Test
+  public void clear() {
+    StringPool pool = new StringPool(16, 32);
+    String a = new String("subnet-1");
+    pool.intern(a);
+    pool.clear();
+    String b = new String("subnet-1");
+    assertSame("cleared", pool.intern(b), b);
+  }
+
+  @Test
+  public void decodedStringsArePooled() throws Exception {
+    String json = "[{\"subnetId\":\"subnet-1\",\"availabilityZone\":\"us-west-1a\"}]";
+    TypeReference<List<Subnet>> ref = new TypeReference<List<Subnet>>() {};
+    List<Subnet> a = JsonHelper.reader(ref).readValue(json);
+    List<Subnet> b = JsonHelper.reader(ref).readValue(json);
+    assertNotSame("records", a.get(0), b.get(0));
+    assertSame("zone", a.get(0).getAvailabilityZone(), b.get(0).getAvailabilityZone());
+  }
+}
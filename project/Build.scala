@@ -28,6 +28,7 @@ object MainBuild extends Build {
   lazy val root = project.in(file("."))
     .aggregate(
       `edda-client`,
+      `edda-client-bench`,
       `edda-client-module`
     )
     .settings(buildSettings: _*)
@@ -40,9 +41,20 @@ object MainBuild extends Build {
       Dependencies.awsObjectMapper,
       Dependencies.iepConfig,
       Dependencies.iepNflxEnv,
-      Dependencies.iepRxHttp
+      Dependencies.iepRxHttp,
+      Dependencies.jacksonAfterburner,
+      Dependencies.jacksonCbor,
+      Dependencies.jacksonSmile,
+      Dependencies.spectatorApi
     ))
 
+  lazy val `edda-client-bench` = project
+    .dependsOn(`edda-client`)
+    .enablePlugins(pl.project13.scala.sbt.JmhPlugin)
+    .settings(buildSettings: _*)
+    .settings(BuildSettings.noPackaging: _*)
+    .settings(libraryDependencies ++= commonDeps)
+
   lazy val `edda-client-module` = project
     .dependsOn(`edda-client`)
     .settings(buildSettings: _*)
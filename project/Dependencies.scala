@@ -8,6 +8,7 @@ object Dependencies {
     val iep       = "0.4.17"
     val rxjava    = "1.2.6"
     val awsMapper = "1.11.104"
+    val jackson   = "2.6.6"
   }
 
   val archaiusCore    = "com.netflix.archaius" % "archaius-core" % "0.6.5"
@@ -25,6 +26,9 @@ object Dependencies {
   val iepModRxNetty   = "com.netflix.iep" % "iep-module-rxnetty" % Versions.iep
   val iepNflxEnv      = "com.netflix.iep" % "iep-nflxenv" % Versions.iep
   val iepRxHttp       = "com.netflix.iep" % "iep-rxhttp" % Versions.iep
+  val jacksonAfterburner = "com.fasterxml.jackson.module" % "jackson-module-afterburner" % Versions.jackson
+  val jacksonCbor     = "com.fasterxml.jackson.dataformat" % "jackson-dataformat-cbor" % Versions.jackson
+  val jacksonSmile    = "com.fasterxml.jackson.dataformat" % "jackson-dataformat-smile" % Versions.jackson
   val junit           = "junit" % "junit" % "4.10"
   val junitInterface  = "com.novocode" % "junit-interface" % "0.11"
   val jzlib           = "com.jcraft" % "jzlib" % "1.1.3"